@@ -0,0 +1,576 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+tree index over one field of a table. It is a DbFile of
+ * its own: its pages are BTreePages, read and locked through the BufferPool
+ * like any other pages, and its "tuples" are the index entries (key, page,
+ * slot), where page and slot form the RecordId of the indexed tuple.
+ * <p>
+ * The index is registered with {@link Catalog#addIndex}, after which
+ * BufferPool.insertTuple and deleteTuple keep it in sync with the table and
+ * the planner may answer predicates on the indexed field with an
+ * {@link IndexScan}.
+ * <p>
+ * Page 0 is always the root: when the root splits, its contents move to a
+ * new page and the root becomes an internal node above it. Deletes simply
+ * remove the entry from its leaf; nodes are never merged, so an index that
+ * shrank a lot should be rebuilt.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements IndexFile, Closeable {
+
+    private static final long serialVersionUID = 1L;
+
+    private File myFile;
+    private int myTableId;
+    private int myKeyField;
+    private TupleDesc myTupleDesc;
+    private int myPageSize;
+
+    private transient RandomAccessFile myRaf;
+    private transient FileChannel myChannel;
+    /** Number of pages in the file, or -1 if it has to be read from disk again. */
+    private transient volatile int myNumPages = -1;
+
+    /**
+     * Constructs an index backed by the specified file, which may be empty.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param tableid the table being indexed
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     * @param keyType the type of that field
+     */
+    public BTreeFile(File f, int tableid, int keyField, Type keyType) {
+        this(f, tableid, keyField, keyType, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * As {@link #BTreeFile(File, int, int, Type)}, with pages of the given size.
+     */
+    public BTreeFile(File f, int tableid, int keyField, Type keyType, int pageSize) {
+        if (pageSize < BTreePage.HEADER_SIZE + 3 * (keyType.getLen() + 12)) {
+            throw new IllegalArgumentException("page size " + pageSize + " too small for an index");
+        }
+        this.myFile = f;
+        this.myTableId = tableid;
+        this.myKeyField = keyField;
+        this.myPageSize = pageSize;
+        this.myTupleDesc = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" });
+    }
+
+    /**
+     * Builds a new index over the given field of a table that is already in
+     * the catalog, replacing whatever f held, and registers it with the
+     * catalog. The table is read in a transaction of its own; the index is
+     * then written bottom up, with full leaves, straight to f rather than
+     * through the BufferPool, since no one else can see it yet.
+     */
+    public static BTreeFile create(File f, HeapFile table, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        new FileOutputStream(f).close();
+        BTreeFile index = new BTreeFile(f, table.getId(), keyField,
+                table.getTupleDesc().getFieldType(keyField));
+        Database.getCatalog().addIndex(index);
+
+        final ArrayList<Field> keys = new ArrayList<Field>();
+        final ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        TransactionId tid = new TransactionId();
+        try {
+            DbFileIterator it = table.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                keys.add(t.getField(keyField));
+                rids.add(t.getRecordId());
+            }
+            it.close();
+        } finally {
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+
+        Integer order[] = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                RecordId ra = rids.get(a);
+                RecordId rb = rids.get(b);
+                return BTreePage.compare(keys.get(a), ra.getPageId().pageNumber(), ra.tupleno(),
+                        keys.get(b), rb.getPageId().pageNumber(), rb.tupleno());
+            }
+        });
+        index.bulkLoad(order, keys, rids);
+        return index;
+    }
+
+    /**
+     * Writes a tree holding the given entries, in the given order, to this
+     * (empty) index. Leaves take pages 1 to n in key order, each level above
+     * them follows, and the single node at the top goes to page 0.
+     */
+    private void bulkLoad(Integer order[], ArrayList<Field> keys, ArrayList<RecordId> rids)
+            throws IOException {
+        BTreePage node = newNode(0);
+        int leafCapacity = node.leafCapacity();
+        int fanout = node.internalCapacity() + 1;
+        int nextPage = 1;
+
+        // one level at a time: each node's page and its smallest entry
+        int levelSize = Math.max(1, (order.length + leafCapacity - 1) / leafCapacity);
+        int pages[] = new int[levelSize];
+        Field minKeys[] = new Field[levelSize];
+        int minPages[] = new int[levelSize];
+        int minSlots[] = new int[levelSize];
+
+        for (int i = 0; i < levelSize; i++) {
+            pages[i] = (levelSize == 1) ? 0 : nextPage++;
+            node = newNode(pages[i]);
+            int end = Math.min(order.length, (i + 1) * leafCapacity);
+            for (int j = i * leafCapacity; j < end; j++) {
+                RecordId rid = rids.get(order[j]);
+                node.insertLeafEntry(node.getNumEntries(), keys.get(order[j]),
+                        rid.getPageId().pageNumber(), rid.tupleno());
+            }
+            node.rightSibling = (i < levelSize - 1) ? pages[i] + 1 : 0;
+            if (node.getNumEntries() > 0) {
+                minKeys[i] = node.getKey(0);
+                minPages[i] = node.ridPages[0];
+                minSlots[i] = node.ridSlots[0];
+            }
+            writePage(node);
+        }
+
+        while (levelSize > 1) {
+            int parents = (levelSize + fanout - 1) / fanout;
+            int parentPages[] = new int[parents];
+            Field parentKeys[] = new Field[parents];
+            int parentMinPages[] = new int[parents];
+            int parentMinSlots[] = new int[parents];
+            for (int i = 0; i < parents; i++) {
+                parentPages[i] = (parents == 1) ? 0 : nextPage++;
+                node = newNode(parentPages[i]);
+                int first = i * fanout;
+                node.makeInternal(pages[first]);
+                for (int j = first + 1; j < Math.min(levelSize, first + fanout); j++) {
+                    node.insertSeparator(node.getNumEntries(), minKeys[j], minPages[j], minSlots[j], pages[j]);
+                }
+                parentKeys[i] = minKeys[first];
+                parentMinPages[i] = minPages[first];
+                parentMinSlots[i] = minSlots[first];
+                writePage(node);
+            }
+            levelSize = parents;
+            pages = parentPages;
+            minKeys = parentKeys;
+            minPages = parentMinPages;
+            minSlots = parentMinSlots;
+        }
+    }
+
+    private BTreePage newNode(int pgNo) throws IOException {
+        return new BTreePage(new BTreePageId(getId(), pgNo), new byte[myPageSize]);
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return myFile;
+    }
+
+    /** @return an ID uniquely identifying this index, see HeapFile#getId */
+    public int getId() {
+        return myFile.getAbsoluteFile().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return myTableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return myKeyField;
+    }
+
+    /** Pages read on the way from the root to a leaf; a guess, as the height
+        of the tree isn't kept anywhere. */
+    static final int LOOKUP_PAGES = 3;
+
+    // see IndexFile.java for javadocs
+    public int lookupPages() {
+        return LOOKUP_PAGES;
+    }
+
+    /** @return the TupleDesc of the index entries: (key, page, slot) */
+    public TupleDesc getTupleDesc() {
+        return myTupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return myPageSize;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (myChannel == null || !myChannel.isOpen()) {
+            if (myRaf != null) {
+                myRaf.close();
+            }
+            myRaf = new RandomAccessFile(myFile, "rw");
+            myChannel = myRaf.getChannel();
+        }
+        return myChannel;
+    }
+
+    /** Closes the channel backing this index; it is reopened on next use. */
+    public synchronized void close() throws IOException {
+        if (myRaf != null) {
+            myRaf.close();
+        }
+        myRaf = null;
+        myChannel = null;
+        myNumPages = -1;
+    }
+
+    /** @return the number of pages in this index */
+    public int numPages() {
+        int retVal = myNumPages;
+        if (retVal < 0) {
+            synchronized (this) {
+                if (myNumPages < 0) {
+                    myNumPages = (int) (myFile.length() / myPageSize);
+                }
+                retVal = myNumPages;
+            }
+        }
+        return retVal;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[myPageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) myPageSize * pid.pageNumber();
+        try {
+            FileChannel channel = getChannel();
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, offset + buf.position());
+                if (n < 0) {
+                    throw new EOFException("short read at offset " + offset);
+                }
+            }
+            return new BTreePage((BTreePageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page " + pid.pageNumber()
+                    + " does not exist in " + myFile, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData(), 0, myPageSize);
+        long offset = (long) myPageSize * pgNo;
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+        page.markDirty(false, null);
+        synchronized (this) {
+            if (pgNo >= numPages()) {
+                myNumPages = pgNo + 1;
+            }
+        }
+    }
+
+    /** Appends an empty page to the file and returns its page number. */
+    private synchronized int appendPage() throws IOException {
+        int pgNo = numPages();
+        ByteBuffer buf = ByteBuffer.wrap(new byte[myPageSize]);
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            channel.write(buf, (long) pgNo * myPageSize + buf.position());
+        }
+        myNumPages = pgNo + 1;
+        return pgNo;
+    }
+
+    private BTreePage getNode(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    /** Returns the root, creating an empty one in a new file. */
+    private BTreePage getRoot(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if (numPages() == 0) {
+            synchronized (this) {
+                if (numPages() == 0) {
+                    try {
+                        appendPage();
+                    } catch (IOException e) {
+                        throw new DbException("couldn't create root of " + myFile + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return getNode(tid, 0, perm);
+    }
+
+    /**
+     * Adds an entry for the tuple with the given key and RecordId.
+     * <p>
+     * The leaf is first found with read locks on the way down; only if it is
+     * full is the path locked for writing and split from the leaf up.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        int page = rid.getPageId().pageNumber();
+        int slot = rid.tupleno();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+
+        // optimistic: read locks down to the leaf
+        BTreePage node = getRoot(tid, Permissions.READ_ONLY);
+        while (!node.isLeaf()) {
+            node = getNode(tid, node.getChild(node.childIndex(key, page, slot)), Permissions.READ_ONLY);
+        }
+        node = getNode(tid, node.getId().pageNumber(), Permissions.READ_WRITE);
+        if (node.isLeaf() && node.getNumEntries() < node.capacity()) {
+            node.insertLeafEntry(node.lowerBound(key, page, slot), key, page, slot);
+            node.markDirty(true, tid);
+            dirtied.add(node);
+            return dirtied;
+        }
+
+        // pessimistic: write locks on the whole path, splitting on the way
+        // back up. Only page numbers are kept, since the BufferPool may evict
+        // a clean page while others are fetched; each node is fetched again
+        // and marked dirty before anything else is, and then changed.
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        node = getRoot(tid, Permissions.READ_WRITE);
+        path.add(0);
+        while (!node.isLeaf()) {
+            node = getNode(tid, node.getChild(node.childIndex(key, page, slot)), Permissions.READ_WRITE);
+            path.add(node.getId().pageNumber());
+        }
+        node.insertLeafEntry(node.lowerBound(key, page, slot), key, page, slot);
+        node.markDirty(true, tid);
+        dirtied.add(node);
+
+        for (int i = path.size() - 1; i >= 0; i--) {
+            // already dirty: either the leaf or the parent split last time round
+            BTreePage full = getNode(tid, path.get(i), Permissions.READ_WRITE);
+            if (full.getNumEntries() <= full.capacity()) {
+                break;
+            }
+            BTreePage parent;
+            if (i == 0) {
+                // the root stays on page 0: move its contents down a level
+                BTreePage moved = getNode(tid, appendPage(), Permissions.READ_WRITE);
+                moved.markDirty(true, tid);
+                dirtied.add(moved);
+                moved.copyFrom(full);
+                full.makeInternal(moved.getId().pageNumber());
+                parent = full;
+                full = moved;
+            } else {
+                parent = getNode(tid, path.get(i - 1), Permissions.READ_WRITE);
+                parent.markDirty(true, tid);
+                dirtied.add(parent);
+            }
+            BTreePage right = getNode(tid, appendPage(), Permissions.READ_WRITE);
+            right.markDirty(true, tid);
+            dirtied.add(right);
+            full.splitInto(right, parent);
+        }
+        return dirtied;
+    }
+
+    /**
+     * Removes the entry for the tuple with the given key and RecordId.
+     *
+     * @return the modified leaf
+     * @throws DbException if the index has no such entry
+     */
+    public Page deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        int page = rid.getPageId().pageNumber();
+        int slot = rid.tupleno();
+        BTreePage node = getRoot(tid, Permissions.READ_ONLY);
+        while (!node.isLeaf()) {
+            node = getNode(tid, node.getChild(node.childIndex(key, page, slot)), Permissions.READ_ONLY);
+        }
+        node = getNode(tid, node.getId().pageNumber(), Permissions.READ_WRITE);
+        int pos = node.lowerBound(key, page, slot);
+        if (!node.isLeaf() || pos >= node.getNumEntries()
+                || BTreePage.compare(node.getKey(pos), node.ridPages[pos], node.ridSlots[pos],
+                        key, page, slot) != 0) {
+            throw new DbException("no index entry for " + key + " at " + rid);
+        }
+        node.deleteLeafEntry(pos);
+        node.markDirty(true, tid);
+        return node;
+    }
+
+    /**
+     * Adds the entry for tuple t, an index entry tuple (key, page, slot).
+     * Indexes are normally maintained through BufferPool.insertTuple, see
+     * {@link #insertEntry}.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertEntry(tid, t.getField(0), entryRecordId(t));
+    }
+
+    /**
+     * Removes the entry for tuple t, an index entry tuple (key, page, slot).
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        return deleteEntry(tid, t.getField(0), entryRecordId(t));
+    }
+
+    private RecordId entryRecordId(Tuple t) {
+        return new RecordId(new HeapPageId(myTableId, t.getInt(1)), t.getInt(2));
+    }
+
+    /**
+     * Returns an iterator over the entries (key, page, slot) whose key
+     * satisfies "key op operand", in key order.
+     *
+     * @throws IllegalArgumentException unless op is EQUALS or one of the
+     *   four range operators
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("an index can't answer " + op);
+        }
+        return new EntryIterator(tid, op, operand);
+    }
+
+    /** EQUALS and the four range operators. */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /** Returns an iterator over all entries (key, page, slot), in key order. */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null, null);
+    }
+
+    /**
+     * Walks the leaves from the first entry that can match to the last,
+     * copying each leaf's matching entries out when it is reached.
+     */
+    private class EntryIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+
+        private ArrayList<Tuple> buffered;
+        private int pos;
+        /** Next leaf to visit, or 0 when there are no more. */
+        private int nextLeaf;
+        private boolean done;
+        private boolean open;
+
+        EntryIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            buffered = new ArrayList<Tuple>();
+            pos = 0;
+            done = false;
+            open = true;
+
+            // descend to the first leaf that may hold a match
+            BTreePage node = getRoot(tid, Permissions.READ_ONLY);
+            boolean fromStart = op == null || op == Predicate.Op.LESS_THAN
+                    || op == Predicate.Op.LESS_THAN_OR_EQ;
+            int page = (op == Predicate.Op.GREATER_THAN) ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+            while (!node.isLeaf()) {
+                int child = fromStart ? 0 : node.childIndex(operand, page, page);
+                node = getNode(tid, node.getChild(child), Permissions.READ_ONLY);
+            }
+            int start = fromStart ? 0 : node.lowerBound(operand, page, page);
+            load(node, start);
+        }
+
+        /** Copies the matching entries of leaf from position start on. */
+        private void load(BTreePage leaf, int start) {
+            buffered.clear();
+            pos = 0;
+            for (int i = start; i < leaf.getNumEntries(); i++) {
+                Field key = leaf.getKey(i);
+                if (pastEnd(key)) {
+                    done = true;
+                    break;
+                }
+                Tuple t = new Tuple(myTupleDesc);
+                t.setField(0, key);
+                t.setField(1, new IntField(leaf.ridPages[i]));
+                t.setField(2, new IntField(leaf.ridSlots[i]));
+                buffered.add(t);
+            }
+            nextLeaf = leaf.rightSibling;
+        }
+
+        /** @return true if key and every key after it fail the predicate */
+        private boolean pastEnd(Field key) {
+            if (op == null) {
+                return false;
+            }
+            switch (op) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return key.compare(Predicate.Op.GREATER_THAN, operand);
+            case LESS_THAN:
+                return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, operand);
+            default:
+                return false;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            while (pos >= buffered.size()) {
+                if (done || nextLeaf == 0) {
+                    return false;
+                }
+                load(getNode(tid, nextLeaf, Permissions.READ_ONLY), 0);
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return buffered.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            open = false;
+            buffered = null;
+        }
+    }
+}
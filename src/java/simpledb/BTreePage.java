@@ -0,0 +1,339 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of BTreePage stores one node of a BTreeFile. A node is
+ * either a leaf, holding sorted (key, RecordId) entries that point into the
+ * indexed table, or an internal node, holding sorted separator entries and
+ * the child pages between them.
+ * <p>
+ * Entries are ordered by key and then by RecordId, so every entry is unique
+ * even when the indexed field is not, and separators carry the RecordId too.
+ * Child i of an internal node holds the entries below separator i; child
+ * i+1 holds the entries at or above it.
+ * <p>
+ * On disk a page is laid out as
+ * <pre>
+ *   byte    node type (0 = leaf, 1 = internal)
+ *   int     number of entries
+ *   int     right sibling page number (leaves only; 0 = none)
+ *   int     leftmost child page number (internal nodes only)
+ *   entries key, RecordId page number, RecordId slot [, child page number]
+ * </pre>
+ * so an all-zero page is an empty leaf. Page 0 of a BTreeFile is always the
+ * root, which is why 0 can stand for "no sibling".
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final int LEAF = 0;
+    static final int INTERNAL = 1;
+    static final int HEADER_SIZE = 1 + 4 + 4 + 4;
+
+    BTreePageId pid;
+    Type keyType;
+    int pageSize;
+
+    boolean leaf;
+    int numEntries;
+    int rightSibling;
+
+    /** Entries; one slot more than capacity() so a full node can take one
+        more entry before it is split. */
+    Field keys[];
+    int ridPages[];
+    int ridSlots[];
+    /** children[i] is left of keys[i]; internal nodes only. */
+    int children[];
+
+    byte[] oldData;
+    private TransactionId myDirtyTransactionId;
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk, in the
+     * format described above. The key type and page size are those of the
+     * index in the catalog.
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(0);
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+
+        int max = Math.max(leafCapacity(), internalCapacity()) + 1;
+        keys = new Field[max];
+        ridPages = new int[max];
+        ridSlots = new int[max];
+        children = new int[max + 1];
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        try {
+            leaf = buf.get() == LEAF;
+            numEntries = buf.getInt();
+            rightSibling = buf.getInt();
+            children[0] = buf.getInt();
+            if (numEntries < 0 || numEntries > capacity()) {
+                throw new IOException("bad entry count " + numEntries + " on " + id);
+            }
+            for (int i = 0; i < numEntries; i++) {
+                keys[i] = keyType.parse(buf);
+                ridPages[i] = buf.getInt();
+                ridSlots[i] = buf.getInt();
+                if (!leaf) {
+                    children[i + 1] = buf.getInt();
+                }
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("couldn't parse " + id + ": " + e.getMessage());
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("short page: " + data.length + " bytes");
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on a leaf */
+    int leafCapacity() {
+        return (pageSize - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /** @return the number of separators that fit on an internal node */
+    int internalCapacity() {
+        return (pageSize - HEADER_SIZE) / (keyType.getLen() + 12);
+    }
+
+    /** @return the number of entries that fit on this node */
+    int capacity() {
+        return leaf ? leafCapacity() : internalCapacity();
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    /** @return the key of entry i */
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the RecordId of entry i; for internal nodes this is the
+        tie-breaker stored with separator i */
+    public RecordId getRecordId(int i) {
+        return new RecordId(new HeapPageId(getIndexedTableId(), ridPages[i]), ridSlots[i]);
+    }
+
+    private int getIndexedTableId() {
+        return ((BTreeFile) Database.getCatalog().getDbFile(pid.getTableId())).getTableId();
+    }
+
+    /**
+     * Compares two entries by key, then by RecordId page and slot.
+     * @return a negative number, zero or a positive number as the first
+     *   entry sorts before, equal to or after the second
+     */
+    static int compare(Field k1, int page1, int slot1, Field k2, int page2, int slot2) {
+        if (k1.compare(Predicate.Op.LESS_THAN, k2)) {
+            return -1;
+        }
+        if (k1.compare(Predicate.Op.GREATER_THAN, k2)) {
+            return 1;
+        }
+        if (page1 != page2) {
+            return page1 < page2 ? -1 : 1;
+        }
+        if (slot1 != slot2) {
+            return slot1 < slot2 ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /** @return the first entry position that does not sort before the given entry */
+    int lowerBound(Field key, int page, int slot) {
+        int lo = 0;
+        int hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], ridPages[mid], ridSlots[mid], key, page, slot) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return which child of this internal node the given entry belongs in */
+    int childIndex(Field key, int page, int slot) {
+        int lo = 0;
+        int hi = numEntries;
+        // first separator above the entry
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], ridPages[mid], ridSlots[mid], key, page, slot) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return page number of child i of this internal node */
+    int getChild(int i) {
+        return children[i];
+    }
+
+    /** Inserts an entry at position pos of a leaf. */
+    void insertLeafEntry(int pos, Field key, int page, int slot) {
+        shiftRight(pos);
+        keys[pos] = key;
+        ridPages[pos] = page;
+        ridSlots[pos] = slot;
+        numEntries++;
+    }
+
+    /** Inserts separator pos of an internal node, with child the page to its right. */
+    void insertSeparator(int pos, Field key, int page, int slot, int child) {
+        shiftRight(pos);
+        System.arraycopy(children, pos + 1, children, pos + 2, numEntries - pos);
+        keys[pos] = key;
+        ridPages[pos] = page;
+        ridSlots[pos] = slot;
+        children[pos + 1] = child;
+        numEntries++;
+    }
+
+    private void shiftRight(int pos) {
+        int n = numEntries - pos;
+        System.arraycopy(keys, pos, keys, pos + 1, n);
+        System.arraycopy(ridPages, pos, ridPages, pos + 1, n);
+        System.arraycopy(ridSlots, pos, ridSlots, pos + 1, n);
+    }
+
+    /** Removes entry pos of a leaf. */
+    void deleteLeafEntry(int pos) {
+        int n = numEntries - pos - 1;
+        System.arraycopy(keys, pos + 1, keys, pos, n);
+        System.arraycopy(ridPages, pos + 1, ridPages, pos, n);
+        System.arraycopy(ridSlots, pos + 1, ridSlots, pos, n);
+        numEntries--;
+        keys[numEntries] = null;
+    }
+
+    /**
+     * Moves the upper half of this node's entries to the empty node right,
+     * which becomes this node's right neighbour, and adds the separator
+     * between the two to parent. For a leaf, the first entry moved is copied
+     * up as the separator; for an internal node the middle separator moves
+     * up and is removed from both halves.
+     */
+    void splitInto(BTreePage right, BTreePage parent) {
+        right.leaf = this.leaf;
+        int mid = numEntries / 2;
+        int sep;
+        if (leaf) {
+            int n = numEntries - mid;
+            System.arraycopy(keys, mid, right.keys, 0, n);
+            System.arraycopy(ridPages, mid, right.ridPages, 0, n);
+            System.arraycopy(ridSlots, mid, right.ridSlots, 0, n);
+            right.numEntries = n;
+            right.rightSibling = this.rightSibling;
+            this.rightSibling = right.pid.pageNumber();
+            sep = mid;
+        } else {
+            int n = numEntries - mid - 1;
+            System.arraycopy(keys, mid + 1, right.keys, 0, n);
+            System.arraycopy(ridPages, mid + 1, right.ridPages, 0, n);
+            System.arraycopy(ridSlots, mid + 1, right.ridSlots, 0, n);
+            System.arraycopy(children, mid + 1, right.children, 0, n + 1);
+            right.numEntries = n;
+            right.rightSibling = 0;
+            sep = mid;
+        }
+        int pos = parent.childIndex(keys[sep], ridPages[sep], ridSlots[sep]);
+        parent.insertSeparator(pos, keys[sep], ridPages[sep], ridSlots[sep], right.pid.pageNumber());
+        java.util.Arrays.fill(keys, mid, numEntries, null);
+        numEntries = mid;
+    }
+
+    /** Makes this node a copy of other. */
+    void copyFrom(BTreePage other) {
+        leaf = other.leaf;
+        numEntries = other.numEntries;
+        rightSibling = other.rightSibling;
+        System.arraycopy(other.keys, 0, keys, 0, keys.length);
+        System.arraycopy(other.ridPages, 0, ridPages, 0, ridPages.length);
+        System.arraycopy(other.ridSlots, 0, ridSlots, 0, ridSlots.length);
+        System.arraycopy(other.children, 0, children, 0, children.length);
+    }
+
+    /** Turns this node into an internal node with a single child. */
+    void makeInternal(int child) {
+        leaf = false;
+        numEntries = 0;
+        rightSibling = 0;
+        java.util.Arrays.fill(keys, null);
+        children[0] = child;
+    }
+
+    public BTreePage getBeforeImage() {
+        try {
+            return new BTreePage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(leaf ? LEAF : INTERNAL);
+            dos.writeInt(numEntries);
+            dos.writeInt(rightSibling);
+            dos.writeInt(leaf ? 0 : children[0]);
+            for (int i = 0; i < numEntries; i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(ridPages[i]);
+                dos.writeInt(ridSlots[i]);
+                if (!leaf) {
+                    dos.writeInt(children[i + 1]);
+                }
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.myDirtyTransactionId = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.myDirtyTransactionId;
+    }
+}
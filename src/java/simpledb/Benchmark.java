@@ -0,0 +1,1011 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Benchmark is a small command line harness for timing the storage layer.
+ * Each subcommand builds a synthetic table of random integers, runs the
+ * workload a few times and prints the average and best throughput, along
+ * with the heap allocated by the benchmark thread and the collector activity
+ * per iteration.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java simpledb.Benchmark scan [rows] [columns] [iterations] [page size]
+ *   java simpledb.Benchmark mmapscan [rows] [columns] [iterations]
+ *   java simpledb.Benchmark readahead [rows] [columns] [iterations] [pages]
+ *   java simpledb.Benchmark aggregate [rows] [columns] [iterations]
+ *   java simpledb.Benchmark index [rows] [columns] [iterations]
+ *   java simpledb.Benchmark pax [directory] [iterations]
+ *   java simpledb.Benchmark slotted [directory] [iterations]
+ *   java simpledb.Benchmark compress [directory] [iterations]
+ *   java simpledb.Benchmark load [rows] [columns] [iterations] [threads]
+ *   java simpledb.Benchmark parallelscan [rows] [columns] [iterations] [threads]
+ *   java simpledb.Benchmark hits [pages] [iterations] [threads]
+ *   java simpledb.Benchmark policies [pool pages] [rounds] [lookups per page]
+ *   java simpledb.Benchmark ring [pool pages] [scans] [threads]
+ *   java simpledb.Benchmark locks [threads] [pages] [transactions]
+ *   java simpledb.Benchmark deadlocks [threads] [pages] [transactions]
+ * </pre>
+ */
+public class Benchmark {
+
+    private static final int DEFAULT_ROWS = 200000;
+    private static final int DEFAULT_COLUMNS = 4;
+    private static final int DEFAULT_ITERATIONS = 10;
+
+    /** The DBLP tables the pax and slotted benchmarks read, see dblp_simpledb.schema. */
+    private static final String DBLP_TABLES[] = { "venues", "paperauths" };
+    private static final TupleDesc DBLP_SCHEMAS[] = {
+        new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "id", "name", "year", "type" }),
+        new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "paperid", "authorid" })
+    };
+
+    public static void main(String args[]) throws Exception {
+        if (args.length < 1) {
+            usage();
+            return;
+        }
+        if (args[0].equals("scan")) {
+            scan(intArg(args, 1, DEFAULT_ROWS), intArg(args, 2, DEFAULT_COLUMNS),
+                    intArg(args, 3, DEFAULT_ITERATIONS), false,
+                    intArg(args, 4, BufferPool.PAGE_SIZE));
+        } else if (args[0].equals("mmapscan")) {
+            scan(intArg(args, 1, DEFAULT_ROWS), intArg(args, 2, DEFAULT_COLUMNS),
+                    intArg(args, 3, DEFAULT_ITERATIONS), true, BufferPool.PAGE_SIZE);
+        } else if (args[0].equals("readahead")) {
+            readAhead(intArg(args, 1, DEFAULT_ROWS), intArg(args, 2, DEFAULT_COLUMNS),
+                    intArg(args, 3, DEFAULT_ITERATIONS),
+                    intArg(args, 4, PagePrefetcher.getReadAheadPages()));
+        } else if (args[0].equals("aggregate")) {
+            aggregate(intArg(args, 1, DEFAULT_ROWS), intArg(args, 2, DEFAULT_COLUMNS),
+                    intArg(args, 3, DEFAULT_ITERATIONS));
+        } else if (args[0].equals("index")) {
+            index(intArg(args, 1, DEFAULT_ROWS), intArg(args, 2, DEFAULT_COLUMNS),
+                    intArg(args, 3, DEFAULT_ITERATIONS));
+        } else if (args[0].equals("pax")) {
+            pax(args.length > 1 ? args[1] : ".", intArg(args, 2, DEFAULT_ITERATIONS));
+        } else if (args[0].equals("slotted")) {
+            slotted(args.length > 1 ? args[1] : ".", intArg(args, 2, DEFAULT_ITERATIONS));
+        } else if (args[0].equals("compress")) {
+            compress(args.length > 1 ? args[1] : ".", intArg(args, 2, DEFAULT_ITERATIONS));
+        } else if (args[0].equals("load")) {
+            load(intArg(args, 1, DEFAULT_ROWS), intArg(args, 2, DEFAULT_COLUMNS),
+                    intArg(args, 3, DEFAULT_ITERATIONS),
+                    intArg(args, 4, Runtime.getRuntime().availableProcessors()));
+        } else if (args[0].equals("parallelscan")) {
+            parallelScan(intArg(args, 1, DEFAULT_ROWS), intArg(args, 2, DEFAULT_COLUMNS),
+                    intArg(args, 3, DEFAULT_ITERATIONS),
+                    intArg(args, 4, Runtime.getRuntime().availableProcessors()));
+        } else if (args[0].equals("hits")) {
+            hits(intArg(args, 1, BufferPool.DEFAULT_PAGES * 20), intArg(args, 2, DEFAULT_ITERATIONS),
+                    intArg(args, 3, Runtime.getRuntime().availableProcessors()));
+        } else if (args[0].equals("policies")) {
+            policies(intArg(args, 1, BufferPool.DEFAULT_PAGES * 20), intArg(args, 2, DEFAULT_ITERATIONS),
+                    intArg(args, 3, 1));
+        } else if (args[0].equals("ring")) {
+            ring(intArg(args, 1, BufferPool.DEFAULT_PAGES * 20), intArg(args, 2, 3), intArg(args, 3, 2));
+        } else if (args[0].equals("locks")) {
+            locks(intArg(args, 1, 8), intArg(args, 2, 4), intArg(args, 3, 200));
+        } else if (args[0].equals("deadlocks")) {
+            deadlocks(intArg(args, 1, 4), intArg(args, 2, 4), intArg(args, 3, 100));
+        } else {
+            usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: java simpledb.Benchmark scan [rows] [columns] [iterations] [page size]");
+        System.err.println("       java simpledb.Benchmark mmapscan|aggregate|index [rows] [columns] [iterations]");
+        System.err.println("       java simpledb.Benchmark readahead [rows] [columns] [iterations] [pages]");
+        System.err.println("       java simpledb.Benchmark pax|slotted|compress [directory] [iterations]");
+        System.err.println("       java simpledb.Benchmark load|parallelscan [rows] [columns] [iterations] [threads]");
+        System.err.println("       java simpledb.Benchmark hits [pages] [iterations] [threads]");
+        System.err.println("       java simpledb.Benchmark policies [pool pages] [rounds] [lookups per page]");
+        System.err.println("       java simpledb.Benchmark ring [pool pages] [scans] [threads]");
+        System.err.println("       java simpledb.Benchmark locks|deadlocks [threads] [pages] [transactions]");
+    }
+
+    private static int intArg(String args[], int i, int def) {
+        return args.length > i ? Integer.parseInt(args[i]) : def;
+    }
+
+    /**
+     * Creates a HeapFile of the given size filled with random integers and
+     * registers it with the catalog.
+     */
+    static HeapFile createTable(int rows, int columns) throws IOException {
+        return createTable(rows, columns, BufferPool.PAGE_SIZE);
+    }
+
+    /** As createTable(rows, columns), with pages of the given size. */
+    static HeapFile createTable(int rows, int columns, int pageSize) throws IOException {
+        Random r = new Random(42);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>(columns);
+            for (int j = 0; j < columns; j++) {
+                tuple.add(r.nextInt(1 << 16));
+            }
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, pageSize, columns);
+        return Utility.openHeapFile(columns, f, pageSize);
+    }
+
+    /** Scans the whole table once and returns the number of tuples seen. */
+    static int scanOnce(HeapFile hf) throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Runs SELECT SUM(column1) FROM table WHERE column0 >= 32768 once and
+     * returns the number of result tuples (1).
+     */
+    static int aggregateOnce(HeapFile hf) throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        Filter filter = new Filter(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1 << 15)), scan);
+        Aggregate agg = new Aggregate(filter, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        int count = 0;
+        agg.open();
+        while (agg.hasNext()) {
+            agg.next();
+            count++;
+        }
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Full table scans through a cold BufferPool, so every page of every
+     * iteration goes through DbFile.readPage. The pool's budget is the same
+     * number of bytes whatever the page size.
+     */
+    static void scan(int rows, int columns, int iterations, boolean mapped, int pageSize)
+            throws Exception {
+        HeapFile hf = createTable(rows, columns, pageSize);
+        hf.setMemoryMapped(mapped);
+        String name = mapped ? "mmapscan" : "scan";
+        System.out.println(name + ": " + rows + " rows, " + columns + " columns, "
+                + hf.numPages() + " pages of " + pageSize + " bytes");
+        timeScans(name, hf, rows, iterations);
+    }
+
+    /**
+     * Cold-pool scan, filter and aggregate pipelines; see aggregateOnce().
+     */
+    static void aggregate(int rows, int columns, int iterations) throws Exception {
+        HeapFile hf = createTable(rows, columns);
+        System.out.println("aggregate: " + rows + " rows, " + columns + " columns, "
+                + hf.numPages() + " pages");
+        timeScans("aggregate", hf, rows, iterations, true);
+    }
+
+    /**
+     * Runs SELECT * FROM table WHERE column0 >= lo AND column0 < hi (or
+     * column0 = lo if lo == hi) once, through the index or through a scan
+     * and filters, and returns the number of result tuples.
+     */
+    static int rangeOnce(HeapFile hf, BTreeFile index, int lo, int hi)
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        Predicate.Op op = (lo == hi) ? Predicate.Op.EQUALS : Predicate.Op.GREATER_THAN_OR_EQ;
+        DbIterator it;
+        if (index != null) {
+            it = new IndexScan(tid, index, op, new IntField(lo), "");
+        } else {
+            it = new Filter(new Predicate(0, op, new IntField(lo)), new SeqScan(tid, hf.getId(), ""));
+        }
+        if (lo != hi) {
+            it = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(hi)), it);
+        }
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Point lookups and 1% range queries on column0, through a B+tree index
+     * on it and through SeqScan and Filter, each against a fresh pool.
+     */
+    static void index(int rows, int columns, int iterations) throws Exception {
+        HeapFile hf = createTable(rows, columns);
+        File f = File.createTempFile("bench", ".idx");
+        f.deleteOnExit();
+        long start = System.nanoTime();
+        BTreeFile index = BTreeFile.create(f, hf, 0);
+        System.out.printf("index: %d rows, %d columns, %d pages, index of %d pages built in %.2f ms%n",
+                rows, columns, hf.numPages(), index.numPages(), (System.nanoTime() - start) / 1e6);
+
+        Random r = new Random(7);
+        int width = (1 << 16) / 100;
+        for (int query = 0; query < 2; query++) {
+            String name = (query == 0) ? "point" : "range";
+            for (int method = 0; method < 2; method++) {
+                BTreeFile using = (method == 0) ? index : null;
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                rangeOnce(hf, using, 0, query * width);
+
+                long total = 0;
+                long best = Long.MAX_VALUE;
+                long matched = 0;
+                for (int i = 0; i < iterations; i++) {
+                    int lo = r.nextInt((1 << 16) - width);
+                    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                    long t0 = System.nanoTime();
+                    matched += rangeOnce(hf, using, lo, lo + query * width);
+                    long elapsed = System.nanoTime() - t0;
+                    total += elapsed;
+                    best = Math.min(best, elapsed);
+                }
+                System.out.printf("%s-%s: avg %.3f ms, best %.3f ms, %.1f tuples/query%n",
+                        name, (method == 0) ? "index" : "scan", total / 1e6 / iterations,
+                        best / 1e6, matched / (double) iterations);
+            }
+        }
+    }
+
+    /**
+     * Reads column 0 of every tuple of table once, or if aggregate is set
+     * runs SELECT SUM(last column) FROM table WHERE column0 >= 0 once.
+     * Returns the number of tuples read.
+     */
+    static int columnsOnce(DbFile table, boolean aggregate)
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        int count = 0;
+        long sum = 0;
+        if (aggregate) {
+            int last = table.getTupleDesc().numFields() - 1;
+            Filter filter = new Filter(
+                    new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), scan);
+            Aggregate agg = new Aggregate(filter, last, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            agg.open();
+            while (agg.hasNext()) {
+                sum += agg.next().getInt(0);
+                count++;
+            }
+            agg.close();
+        } else {
+            scan.open();
+            while (scan.hasNext()) {
+                sum += scan.next().getInt(0);
+                count++;
+            }
+            scan.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return (sum == Long.MIN_VALUE) ? -1 : count;
+    }
+
+    /**
+     * Scan and aggregate throughput over the DBLP tables in dir (venues.dat
+     * and paperauths.dat, see dblp_simpledb.schema), first as HeapFiles and
+     * then converted to PaxFiles; see columnsOnce(). Each iteration runs
+     * against a fresh pool.
+     */
+    static void pax(String dir, int iterations) throws Exception {
+        String names[] = DBLP_TABLES;
+        TupleDesc schemas[] = DBLP_SCHEMAS;
+        for (int t = 0; t < names.length; t++) {
+            HeapFile hf = new HeapFile(new File(dir, names[t] + ".dat"), schemas[t]);
+            Database.getCatalog().addTable(hf, names[t]);
+            File f = File.createTempFile(names[t], ".pax");
+            f.deleteOnExit();
+            long start = System.nanoTime();
+            PaxFile pf = PaxFile.convert(hf, f);
+            Database.getCatalog().addTable(pf, names[t] + "_pax");
+            System.out.printf("pax: %s, %d pages, converted in %.2f ms%n",
+                    names[t], hf.numPages(), (System.nanoTime() - start) / 1e6);
+
+            for (int aggregate = 0; aggregate < 2; aggregate++) {
+                for (int layout = 0; layout < 2; layout++) {
+                    DbFile table = (layout == 0) ? hf : pf;
+                    String name = names[t] + "-" + (aggregate == 0 ? "scan" : "aggregate")
+                            + "-" + (layout == 0 ? "heap" : "pax");
+                    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                    int expected = columnsOnce(table, aggregate == 1);
+
+                    long total = 0;
+                    long best = Long.MAX_VALUE;
+                    for (int i = 0; i < iterations; i++) {
+                        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                        long t0 = System.nanoTime();
+                        int seen = columnsOnce(table, aggregate == 1);
+                        long elapsed = System.nanoTime() - t0;
+                        if (seen != expected) {
+                            throw new RuntimeException(name + " returned " + seen + " tuples, expected " + expected);
+                        }
+                        total += elapsed;
+                        best = Math.min(best, elapsed);
+                    }
+                    report(name, hf.numPages(), (aggregate == 0) ? expected : columnsOnce(table, false),
+                            total / iterations, best);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads every field of every tuple of table once, as a full SELECT *
+     * would. Returns the number of tuples read.
+     */
+    static int fieldsOnce(DbFile table)
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        int numFields = table.getTupleDesc().numFields();
+        int count = 0;
+        int hash = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            for (int i = 0; i < numFields; i++) {
+                hash += t.getField(i).hashCode();
+            }
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return (hash == Integer.MIN_VALUE) ? -1 : count;
+    }
+
+    /**
+     * File size and full scan time of the DBLP tables in dir as HeapFiles,
+     * with every string padded to STRING_LEN, and converted to SlottedFiles,
+     * which store strings at their length; see fieldsOnce(). paperauths has
+     * no strings and shows the cost of the slot directory, venues the
+     * savings. Each iteration runs against a fresh pool.
+     */
+    static void slotted(String dir, int iterations) throws Exception {
+        for (int t = 0; t < DBLP_TABLES.length; t++) {
+            HeapFile hf = new HeapFile(new File(dir, DBLP_TABLES[t] + ".dat"), DBLP_SCHEMAS[t]);
+            Database.getCatalog().addTable(hf, DBLP_TABLES[t]);
+            File f = File.createTempFile(DBLP_TABLES[t], ".slotted");
+            f.deleteOnExit();
+            long start = System.nanoTime();
+            SlottedFile sf = SlottedFile.convert(hf, f);
+            Database.getCatalog().addTable(sf, DBLP_TABLES[t] + "_slotted");
+            System.out.printf("slotted: %s, converted in %.2f ms; heap %d pages (%d bytes), slotted %d pages (%d bytes)%n",
+                    DBLP_TABLES[t], (System.nanoTime() - start) / 1e6, hf.numPages(),
+                    hf.getFile().length(), sf.numPages(), f.length());
+
+            for (int layout = 0; layout < 2; layout++) {
+                DbFile table = (layout == 0) ? hf : sf;
+                int pages = (layout == 0) ? hf.numPages() : sf.numPages();
+                String name = DBLP_TABLES[t] + "-scan-" + (layout == 0 ? "heap" : "slotted");
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                int expected = fieldsOnce(table);
+
+                long total = 0;
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < iterations; i++) {
+                    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                    long t0 = System.nanoTime();
+                    int seen = fieldsOnce(table);
+                    long elapsed = System.nanoTime() - t0;
+                    if (seen != expected) {
+                        throw new RuntimeException(name + " returned " + seen + " tuples, expected " + expected);
+                    }
+                    total += elapsed;
+                    best = Math.min(best, elapsed);
+                }
+                report(name, pages, expected, total / iterations, best);
+            }
+        }
+    }
+
+    /**
+     * Compression ratio and full scan time of the DBLP tables in dir as
+     * plain HeapFiles and as compressed HeapFiles; see fieldsOnce(). Each
+     * iteration runs against a fresh pool, so every page is read and, for
+     * the compressed table, decompressed.
+     */
+    static void compress(String dir, int iterations) throws Exception {
+        for (int t = 0; t < DBLP_TABLES.length; t++) {
+            HeapFile hf = new HeapFile(new File(dir, DBLP_TABLES[t] + ".dat"), DBLP_SCHEMAS[t]);
+            Database.getCatalog().addTable(hf, DBLP_TABLES[t]);
+            File f = File.createTempFile(DBLP_TABLES[t], ".cdat");
+            f.deleteOnExit();
+            CompressedPageFile.indexFile(f).deleteOnExit();
+            long start = System.nanoTime();
+            HeapFileEncoder.compress(hf.getFile(), f, hf.getPageSize());
+            long compressTime = System.nanoTime() - start;
+            HeapFile cf = new HeapFile(f, DBLP_SCHEMAS[t], hf.getPageSize(), true);
+            Database.getCatalog().addTable(cf, DBLP_TABLES[t] + "_compressed");
+            long compressedBytes = f.length() + CompressedPageFile.indexFile(f).length();
+            System.out.printf("compress: %s, %d pages, %d bytes -> %d bytes (ratio %.2f) in %.2f ms%n",
+                    DBLP_TABLES[t], hf.numPages(), hf.getFile().length(), compressedBytes,
+                    hf.getFile().length() / (double) compressedBytes, compressTime / 1e6);
+
+            for (int layout = 0; layout < 2; layout++) {
+                DbFile table = (layout == 0) ? hf : cf;
+                String name = DBLP_TABLES[t] + "-scan-" + (layout == 0 ? "heap" : "compressed");
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                int expected = fieldsOnce(table);
+
+                long total = 0;
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < iterations; i++) {
+                    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                    long t0 = System.nanoTime();
+                    int seen = fieldsOnce(table);
+                    long elapsed = System.nanoTime() - t0;
+                    if (seen != expected) {
+                        throw new RuntimeException(name + " returned " + seen + " tuples, expected " + expected);
+                    }
+                    total += elapsed;
+                    best = Math.min(best, elapsed);
+                }
+                report(name, hf.numPages(), expected, total / iterations, best);
+            }
+        }
+    }
+
+    /**
+     * Loads a text file of random integers with a BulkLoader of 1, 2, 4, ...
+     * up to the given number of worker threads.
+     */
+    static void load(int rows, int columns, int iterations, int threads) throws Exception {
+        File text = File.createTempFile("bench", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(42);
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                pw.print(r.nextInt());
+                pw.print(j < columns - 1 ? ',' : '\n');
+            }
+        }
+        pw.close();
+        File out = File.createTempFile("bench", ".dat");
+        out.deleteOnExit();
+        Type types[] = new Type[columns];
+        Arrays.fill(types, Type.INT_TYPE);
+        System.out.println("load: " + rows + " rows, " + columns + " columns, "
+                + text.length() + " bytes of text");
+
+        for (int n = 1; ; n = Math.min(n * 2, threads)) {
+            BulkLoader loader = new BulkLoader(types, BufferPool.PAGE_SIZE, ',');
+            loader.setThreads(n);
+            int pages = loader.load(text, out);
+            long total = 0;
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < iterations; i++) {
+                long t0 = System.nanoTime();
+                loader.load(text, out);
+                long elapsed = System.nanoTime() - t0;
+                total += elapsed;
+                best = Math.min(best, elapsed);
+            }
+            report("load-" + n, pages, rows, total / iterations, best);
+            if (n == threads) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Cold-pool scans of SELECT * FROM table WHERE column0 >= 32768 by a
+     * ParallelSeqScan with 1, 2, 4, ... up to the given number of workers.
+     * The pool is sized to the table, so rows much beyond DEFAULT_PAGES
+     * worth measure the disk rather than the workers.
+     */
+    static void parallelScan(int rows, int columns, int iterations, int threads) throws Exception {
+        HeapFile hf = createTable(rows, columns);
+        int pages = hf.numPages();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1 << 15));
+        System.out.println("parallelscan: " + rows + " rows, " + columns + " columns, "
+                + pages + " pages, " + Runtime.getRuntime().availableProcessors() + " processors");
+
+        for (int n = 1; ; n = Math.min(n * 2, threads)) {
+            int expected = -1;
+            long total = 0;
+            long best = Long.MAX_VALUE;
+            // the first run warms up the JIT and the OS page cache
+            for (int i = 0; i <= iterations; i++) {
+                Database.resetBufferPool(Math.max(pages, BufferPool.DEFAULT_PAGES));
+                TransactionId tid = new TransactionId();
+                ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "", n);
+                scan.addFilter(p);
+                long start = System.nanoTime();
+                int seen = 0;
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                    seen++;
+                }
+                scan.close();
+                long elapsed = System.nanoTime() - start;
+                Database.getBufferPool().transactionComplete(tid);
+                if (i == 0) {
+                    expected = seen;
+                    continue;
+                }
+                if (seen != expected) {
+                    throw new RuntimeException("scan returned " + seen + " tuples, expected " + expected);
+                }
+                total += elapsed;
+                best = Math.min(best, elapsed);
+            }
+            report("parallelscan-" + n, pages, rows, total / iterations, best);
+            if (n == threads) {
+                break;
+            }
+        }
+    }
+
+    /** getPage calls per thread and iteration of the hits benchmark. */
+    private static final int HITS_PER_THREAD = 200000;
+
+    /**
+     * BufferPool.getPage hit throughput with 1, 2, 4, ... up to the given
+     * number of threads, each its own transaction reading random pages of
+     * a table that fits in the pool.
+     */
+    static void hits(int pages, int iterations, int threads) throws Exception {
+        int rows = pages * (BufferPool.PAGE_SIZE * 8 / (4 * 8 + 1));
+        final HeapFile hf = createTable(rows, 1);
+        final int numPages = hf.numPages();
+        System.out.println("hits: " + numPages + " pages, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+
+        for (int n = 1; ; n = Math.min(n * 2, threads)) {
+            final BufferPool pool = Database.resetBufferPool(numPages);
+            long total = 0;
+            long best = Long.MAX_VALUE;
+            // the first run reads the table in and warms up the JIT
+            for (int i = 0; i <= iterations; i++) {
+                Thread workers[] = new Thread[n];
+                final Exception failure[] = new Exception[1];
+                for (int j = 0; j < n; j++) {
+                    final Random r = new Random(j);
+                    workers[j] = new Thread() {
+                        public void run() {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                for (int k = 0; k < HITS_PER_THREAD; k++) {
+                                    pool.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(numPages)),
+                                            Permissions.READ_ONLY);
+                                }
+                                pool.transactionComplete(tid);
+                            } catch (Exception e) {
+                                failure[0] = e;
+                            }
+                        }
+                    };
+                }
+                long start = System.nanoTime();
+                for (Thread t : workers) {
+                    t.start();
+                }
+                for (Thread t : workers) {
+                    t.join();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                if (i > 0) {
+                    total += elapsed;
+                    best = Math.min(best, elapsed);
+                }
+            }
+            long avg = total / iterations;
+            System.out.printf("hits-%d: avg %.2f ms (%.0f getPage/s), best %.2f ms%n",
+                    n, avg / 1e6, (double) n * HITS_PER_THREAD / (avg / 1e9), best / 1e6);
+            if (n == threads) {
+                break;
+            }
+        }
+    }
+
+    /** The eviction policies the policies benchmark compares. */
+    private static final String POLICIES[] = { "lru", "clock", "lru2", "2q" };
+
+    /**
+     * Replays a trace of page accesses against each EvictionPolicy, with a
+     * pool of the given number of pages, and prints the hit ratios. In
+     * each round a table four times the size of the pool is scanned, and
+     * between any two of its pages the given number of lookups hit an
+     * index half the size of the pool, skewed towards its first pages.
+     */
+    static void policies(int poolPages, int rounds, int lookups) {
+        int scanPages = 4 * poolPages;
+        int hotPages = Math.max(1, poolPages / 2);
+        Random r = new Random(42);
+        ArrayList<PageId> trace = new ArrayList<PageId>();
+        ArrayList<Boolean> isLookup = new ArrayList<Boolean>();
+        for (int i = 0; i < rounds; i++) {
+            for (int pg = 0; pg < scanPages; pg++) {
+                trace.add(new HeapPageId(1, pg));
+                isLookup.add(false);
+                for (int j = 0; j < lookups; j++) {
+                    trace.add(new HeapPageId(2, (int) (hotPages * Math.pow(r.nextDouble(), 3))));
+                    isLookup.add(true);
+                }
+            }
+        }
+        System.out.println("policies: " + trace.size() + " accesses, pool of " + poolPages
+                + " pages, scans of " + scanPages + ", lookups on " + hotPages);
+
+        for (String name : POLICIES) {
+            // the first replay warms up the JIT
+            replay(BufferPool.newEvictionPolicy(name), trace, isLookup, poolPages);
+            long start = System.nanoTime();
+            long hits[] = replay(BufferPool.newEvictionPolicy(name), trace, isLookup, poolPages);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%s: hit ratio %.1f%% (lookups %.1f%%, scans %.1f%%), %.0f ns/access%n",
+                    name, 100.0 * (hits[0] + hits[1]) / trace.size(),
+                    100.0 * hits[1] / Math.max(1, hits[3]), 100.0 * hits[0] / Math.max(1, hits[2]),
+                    (double) elapsed / trace.size());
+        }
+    }
+
+    /**
+     * Replays a trace against policy as if it ran a pool of the given
+     * number of pages, all of them clean.
+     *
+     * @return the hits on scan and lookup pages, then the accesses to each
+     */
+    static long[] replay(EvictionPolicy policy, List<PageId> trace, List<Boolean> isLookup,
+            int poolPages) {
+        EvictionPolicy.Candidates all = new EvictionPolicy.Candidates() {
+            public boolean isEvictable(PageId pid) {
+                return true;
+            }
+        };
+        HashSet<PageId> cached = new HashSet<PageId>();
+        long retVal[] = new long[4];
+        for (int i = 0; i < trace.size(); i++) {
+            PageId pid = trace.get(i);
+            int kind = isLookup.get(i) ? 1 : 0;
+            retVal[kind + 2]++;
+            if (cached.contains(pid)) {
+                retVal[kind]++;
+                policy.used(pid);
+                continue;
+            }
+            if (cached.size() == poolPages) {
+                PageId victim = policy.victim(all);
+                policy.removed(victim);
+                cached.remove(victim);
+            }
+            policy.added(pid);
+            cached.add(pid);
+        }
+        return retVal;
+    }
+
+    /**
+     * Point queries on a table half the size of the pool, 10 per
+     * millisecond by each of the given number of threads, while the main thread scans a table four times the
+     * size of the pool; first with scan rings off, then on. Prints the hit
+     * ratio of the point queries, and the time the scans took.
+     */
+    static void ring(int poolPages, int scans, int threads) throws Exception {
+        int rowsPerPage = BufferPool.PAGE_SIZE * 8 / (4 * 8 + 1);
+        HeapFile hot = createTable(poolPages / 2 * rowsPerPage, 1);
+        final int hotPages = hot.numPages();
+        final AtomicInteger hotReads = new AtomicInteger();
+        final HeapFile counted = new HeapFile(hot.getFile(), hot.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                hotReads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(counted, "hot");
+        HeapFile big = createTable(4 * poolPages * rowsPerPage, 1);
+        System.out.println("ring: pool of " + poolPages + " pages, lookups on " + hotPages
+                + ", scans of " + big.numPages());
+
+        int defaultRing = BufferPool.getScanRingPages();
+        for (int ringPages : new int[] { 0, defaultRing }) {
+            BufferPool.setScanRingPages(ringPages);
+            final BufferPool pool = Database.resetBufferPool(poolPages);
+            TransactionId warm = new TransactionId();
+            for (int i = 0; i < hotPages; i++) {
+                pool.getPage(warm, new HeapPageId(counted.getId(), i), Permissions.READ_ONLY);
+            }
+            pool.transactionComplete(warm);
+            hotReads.set(0);
+
+            final AtomicBoolean done = new AtomicBoolean();
+            final long lookups[] = new long[threads];
+            final Exception failure[] = new Exception[1];
+            Thread workers[] = new Thread[threads];
+            for (int j = 0; j < threads; j++) {
+                final int me = j;
+                workers[j] = new Thread() {
+                    public void run() {
+                        Random r = new Random(me);
+                        try {
+                            while (!done.get()) {
+                                TransactionId tid = new TransactionId();
+                                for (int k = 0; k < 10; k++) {
+                                    pool.getPage(tid, new HeapPageId(counted.getId(), r.nextInt(hotPages)),
+                                            Permissions.READ_ONLY);
+                                }
+                                pool.transactionComplete(tid);
+                                lookups[me] += 10;
+                                Thread.sleep(1);
+                            }
+                        } catch (Exception e) {
+                            failure[0] = e;
+                        }
+                    }
+                };
+                workers[j].start();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                scanOnce(big);
+            }
+            long elapsed = System.nanoTime() - start;
+            done.set(true);
+            long total = 0;
+            for (int j = 0; j < threads; j++) {
+                workers[j].join();
+                total += lookups[j];
+            }
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            System.out.printf("ring-%d: lookup hit ratio %.2f%% (%d lookups, %d reads), scans avg %.2f ms%n",
+                    ringPages, 100.0 * (total - hotReads.get()) / Math.max(1, total), total, hotReads.get(),
+                    elapsed / 1e6 / scans);
+        }
+        BufferPool.setScanRingPages(defaultRing);
+    }
+
+    /**
+     * Lock contention: each of the given number of threads runs the given
+     * number of transactions, each of which write locks one of a few pages,
+     * holds the lock for a millisecond and commits. Prints the latency of
+     * the lock requests, the CPU time the threads used and the aborts.
+     */
+    static void locks(int threads, int pages, final int transactions) throws Exception {
+        final HeapFile hf = createTable(pages * (BufferPool.PAGE_SIZE * 8 / (4 * 8 + 1)), 1);
+        final int numPages = hf.numPages();
+        final BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong cpuNanos = new AtomicLong();
+        final AtomicInteger aborts = new AtomicInteger();
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        System.out.println("locks: " + threads + " threads, " + numPages + " pages, "
+                + transactions + " transactions each");
+
+        Thread workers[] = new Thread[threads];
+        for (int j = 0; j < threads; j++) {
+            final Random r = new Random(j);
+            workers[j] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < transactions; i++) {
+                            TransactionId tid = new TransactionId();
+                            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                            long start = System.nanoTime();
+                            try {
+                                pool.getPage(tid, pid, Permissions.READ_WRITE);
+                            } catch (TransactionAbortedException e) {
+                                aborts.incrementAndGet();
+                                pool.transactionComplete(tid, false);
+                                continue;
+                            } finally {
+                                latency.record(System.nanoTime() - start);
+                            }
+                            Thread.sleep(1);
+                            pool.transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        if (mx.isCurrentThreadCpuTimeSupported()) {
+                            cpuNanos.addAndGet(mx.getCurrentThreadCpuTime());
+                        }
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("locks: %.2f ms, %.2f ms CPU (%.2f cores busy), %d aborts%n",
+                elapsed / 1e6, cpuNanos.get() / 1e6, (double) cpuNanos.get() / elapsed, aborts.get());
+        System.out.println("lock latency: " + latency);
+    }
+
+    /**
+     * Deadlocks: each of the given number of threads runs the given number
+     * of transactions, each of which write locks two of a few pages in
+     * random order, a millisecond apart, and commits. Prints the aborts,
+     * how long the aborted requests waited and the deadlocks the pool found.
+     */
+    static void deadlocks(int threads, int pages, final int transactions) throws Exception {
+        final HeapFile hf = createTable(pages * (BufferPool.PAGE_SIZE * 8 / (4 * 8 + 1)), 1);
+        final int numPages = hf.numPages();
+        final BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final LatencyHistogram abortLatency = new LatencyHistogram();
+        final AtomicInteger aborts = new AtomicInteger();
+        System.out.println("deadlocks: " + threads + " threads, " + numPages + " pages, "
+                + transactions + " transactions each");
+
+        Thread workers[] = new Thread[threads];
+        for (int j = 0; j < threads; j++) {
+            final Random r = new Random(j);
+            workers[j] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < transactions; i++) {
+                            TransactionId tid = new TransactionId();
+                            int first = r.nextInt(numPages);
+                            int second = (first + 1 + r.nextInt(numPages - 1)) % numPages;
+                            long start = 0;
+                            try {
+                                pool.getPage(tid, new HeapPageId(hf.getId(), first), Permissions.READ_WRITE);
+                                Thread.sleep(1);
+                                start = System.nanoTime();
+                                pool.getPage(tid, new HeapPageId(hf.getId(), second), Permissions.READ_WRITE);
+                            } catch (TransactionAbortedException e) {
+                                if (start != 0) {
+                                    abortLatency.record(System.nanoTime() - start);
+                                }
+                                aborts.incrementAndGet();
+                                pool.transactionComplete(tid, false);
+                                continue;
+                            }
+                            pool.transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("deadlocks: %.2f ms, %d aborts, %d deadlocks found in %d checks%n",
+                elapsed / 1e6, aborts.get(), pool.getDeadlocks(), pool.getDeadlockChecks());
+        System.out.println("aborted request wait: " + abortLatency);
+    }
+
+    /**
+     * Cold-pool scans with read-ahead off and then at the given depth,
+     * followed by the pool's prefetch counters for the second run.
+     */
+    static void readAhead(int rows, int columns, int iterations, int depth) throws Exception {
+        HeapFile hf = createTable(rows, columns);
+        System.out.println("readahead: " + rows + " rows, " + columns + " columns, "
+                + hf.numPages() + " pages, depth " + depth);
+        PagePrefetcher.setReadAheadPages(0);
+        timeScans("readahead-off", hf, rows, iterations);
+        PagePrefetcher.setReadAheadPages(depth);
+        BufferPool pool = timeScans("readahead-" + depth, hf, rows, iterations);
+        System.out.println("last iteration: prefetched " + pool.getPrefetchIssued()
+                + ", hits " + pool.getPrefetchHits() + ", wasted " + pool.getPrefetchWasted());
+        System.out.println("io: " + pool.getPageReader());
+    }
+
+    /**
+     * Runs one warm-up scan and then the timed iterations, each against a
+     * fresh pool. Returns the pool used by the last iteration.
+     */
+    static BufferPool timeScans(String name, HeapFile hf, int rows, int iterations) throws Exception {
+        return timeScans(name, hf, rows, iterations, false);
+    }
+
+    /**
+     * As timeScans(name, hf, rows, iterations), timing aggregateOnce()
+     * instead of scanOnce() if aggregate is set.
+     */
+    static BufferPool timeScans(String name, HeapFile hf, int rows, int iterations,
+            boolean aggregate) throws Exception {
+        int pages = hf.numPages();
+        int expected = aggregate ? 1 : rows;
+
+        // warm up the JIT and the OS page cache
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        if (aggregate) {
+            aggregateOnce(hf);
+        } else {
+            scanOnce(hf);
+        }
+
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        long allocated = allocatedBytes();
+        long[] gc = gcCountAndTime();
+        for (int i = 0; i < iterations; i++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long start = System.nanoTime();
+            int seen = aggregate ? aggregateOnce(hf) : scanOnce(hf);
+            long elapsed = System.nanoTime() - start;
+            if (seen != expected) {
+                throw new RuntimeException("scan returned " + seen + " tuples, expected " + expected);
+            }
+            total += elapsed;
+            best = Math.min(best, elapsed);
+        }
+        report(name, pages, rows, total / iterations, best);
+        reportGc(name, iterations, allocated, gc);
+        return Database.getBufferPool();
+    }
+
+    static void report(String name, int pages, int rows, long avgNanos, long bestNanos) {
+        System.out.printf("%s: avg %.2f ms (%.0f pages/s, %.0f tuples/s), best %.2f ms%n",
+                name, avgNanos / 1e6, pages / (avgNanos / 1e9), rows / (avgNanos / 1e9),
+                bestNanos / 1e6);
+    }
+
+    /**
+     * Prints per-iteration allocation and GC activity since the given
+     * allocatedBytes() and gcCountAndTime() readings.
+     */
+    static void reportGc(String name, int iterations, long allocatedBefore, long[] gcBefore) {
+        long allocated = allocatedBytes();
+        long[] gc = gcCountAndTime();
+        String alloc = (allocated < 0 || allocatedBefore < 0) ? "n/a"
+                : String.format("%.2f MB", (allocated - allocatedBefore) / 1e6 / iterations);
+        System.out.printf("%s: allocated %s/iteration, %.2f collections/iteration, %.2f ms GC/iteration%n",
+                name, alloc, (gc[0] - gcBefore[0]) / (double) iterations,
+                (gc[1] - gcBefore[1]) / (double) iterations);
+    }
+
+    /** @return bytes allocated so far by the current thread, or -1 if the JVM can't tell */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /** @return total collection count and milliseconds across all collectors */
+    static long[] gcCountAndTime() {
+        long[] result = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result[0] += Math.max(0, gc.getCollectionCount());
+            result[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+}
@@ -2,6 +2,12 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,9 +17,19 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Hits take no pool-wide lock: the page table is a concurrent map of
+ * frames, and the lock manager is striped by PageId. Only misses, evictions
+ * and commits synchronize on the pool itself. Which page is evicted is up
+ * to an EvictionPolicy, CLOCK unless the constructor or the
+ * simpledb.EvictionPolicy system property ("clock", "lru", "lru2" or "2q") says
+ * otherwise. Large scans read through a ScanRing instead, so that they
+ * don't evict everybody else's pages. A transaction waits for a lock for
+ * as long as it takes, unless the wait closes a deadlock.
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Bytes per page, including header, of tables that don't ask for a
+        different page size. */
     public static final int PAGE_SIZE = 4096;
 
     /** Default number of pages passed to the constructor. This is used by
@@ -21,22 +37,197 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private Hashtable<PageId, Page> myPages;
-    private int maxPages;
-    private ArrayList<PageId> myQueue;
+    /** Number of stripes of the lock manager. */
+    private static final int LOCK_STRIPES = 64;
+
+    /** Default ScanRing size: 256KB of default size pages, as in PostgreSQL. */
+    private static final int DEFAULT_SCAN_RING_PAGES = 64;
+
+    private static volatile int scanRingPages =
+            Integer.getInteger("simpledb.ScanRing", DEFAULT_SCAN_RING_PAGES);
+
+    /** Milliseconds a lock request waits before its transaction is aborted; 0 for no limit. */
+    private static volatile long lockTimeout = Long.getLong("simpledb.LockTimeout", 0);
+
+    /**
+     * The few frames a large scan reads its pages into, after the example
+     * of PostgreSQL's buffer access strategies. Once the ring is full, each
+     * page the scan reads takes the place of the oldest page in the ring
+     * rather than one the EvictionPolicy picks, so a scan of a table much
+     * larger than the pool leaves the rest of the pool alone. A page in the
+     * ring that somebody else uses leaves the ring and is cached as usual.
+     * <p>
+     * A ring belongs to one scan, but the scan's worker and read-ahead
+     * threads may all use it; it is only touched with the pool locked.
+     *
+     * @see #newScanRing
+     */
+    public static class ScanRing {
+        private final int myCapacity;
+        /** The ring's pages, oldest first; some may have left the ring since. */
+        private final ArrayDeque<PageId> myPages;
+        private long myRecycled;
+
+        private ScanRing(int capacity) {
+            this.myCapacity = capacity;
+            this.myPages = new ArrayDeque<PageId>(capacity);
+        }
+
+        /** @return the number of pages the ring holds */
+        public int getCapacity() {
+            return myCapacity;
+        }
+
+        /** @return the number of pages evicted to make room for the scan's next one */
+        public synchronized long getRecycled() {
+            return myRecycled;
+        }
+    }
+
+    /**
+     * A cached page. The page table maps a PageId to its frame for as long
+     * as the page is cached; the page in it is swapped when a transaction
+     * replaces or rolls back its copy, under the frame's own monitor.
+     */
+    private static class Frame {
+        volatile Page page;
+        /** Brought in by read-ahead and not asked for by a transaction yet. */
+        volatile boolean prefetched;
+        /** The scan ring the page was read into, while only that scan uses it. */
+        volatile ScanRing ring;
+
+        Frame(Page page) {
+            this.page = page;
+        }
+    }
+
+    private ConcurrentHashMap<PageId, Frame> myPages;
+    /** Memory budget, and the part of it in use, in bytes of page data.
+        Pages are charged by their table's page size. */
+    private long maxBytes;
+    private long usedBytes;
     private theLock myLock;
+    private final EvictionPolicy myPolicy;
+    /** Asks the page table which of the policy's pages are clean. */
+    private final EvictionPolicy.Candidates myCandidates = new EvictionPolicy.Candidates() {
+        public boolean isEvictable(PageId pid) {
+            Frame frame = myPages.get(pid);
+            return frame != null && frame.page.isDirty() == null;
+        }
+    };
+
+    /** Number of frames with prefetched set. */
+    private final AtomicInteger myPrefetched = new AtomicInteger();
+    private final AtomicLong prefetchIssued = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchWasted = new AtomicLong();
+
+    /** Reads the pages that miss. */
+    private final PageReader myReader;
+    /** Counts page writes and discards, so that read-ahead, which reads
+        without a lock, can tell its copy of a page may be out of date. */
+    private long diskChanges;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of
+     * {@link #PAGE_SIZE} bytes.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
         // some code goes here
-        maxPages = numPages;
-        myPages = new Hashtable<PageId, Page>();
-        myQueue = new ArrayList<PageId>();
+        this((long) numPages * PAGE_SIZE);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to maxBytes bytes of pages, of
+     * whatever page sizes their tables use. A single page larger than the
+     * whole budget is still cached on its own.
+     *
+     * @param maxBytes memory budget of this buffer pool, in bytes.
+     */
+    public BufferPool(long maxBytes) {
+        this(maxBytes, newEvictionPolicy(System.getProperty("simpledb.EvictionPolicy", "clock")));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to maxBytes bytes of pages and
+     * evicts the pages policy chooses.
+     *
+     * @param maxBytes memory budget of this buffer pool, in bytes.
+     * @param policy a new policy, not shared with another pool
+     */
+    public BufferPool(long maxBytes, EvictionPolicy policy) {
+        this.maxBytes = maxBytes;
+        myPages = new ConcurrentHashMap<PageId, Frame>();
         myLock = new theLock();
+        myPolicy = policy;
+        myReader = new PageReader();
+    }
+
+    /**
+     * @param name "clock", "lru", "lru2" or "2q"
+     * @return a new EvictionPolicy of the given name
+     * @throws IllegalArgumentException if there's no policy of that name
+     */
+    public static EvictionPolicy newEvictionPolicy(String name) {
+        if (name.equalsIgnoreCase("clock")) {
+            return new ClockPolicy();
+        } else if (name.equalsIgnoreCase("lru")) {
+            return new LruKPolicy(1);
+        } else if (name.equalsIgnoreCase("lru2")) {
+            return new LruKPolicy(2);
+        } else if (name.equalsIgnoreCase("2q")) {
+            return new TwoQueuePolicy();
+        }
+        throw new IllegalArgumentException("no eviction policy " + name);
+    }
+
+    /** @return the policy that chooses the pages this pool evicts */
+    public EvictionPolicy getEvictionPolicy() {
+        return myPolicy;
+    }
+
+    /** @return the number of pages in a new ScanRing, before capping */
+    public static int getScanRingPages() {
+        return scanRingPages;
+    }
+
+    /** Sets the number of pages in a new ScanRing; 0 turns scan rings off. */
+    public static void setScanRingPages(int pages) {
+        scanRingPages = Math.max(0, pages);
+    }
+
+    /** @return milliseconds a lock request waits before giving up, or 0 if it doesn't */
+    public static long getLockTimeout() {
+        return lockTimeout;
+    }
+
+    /**
+     * Sets how long a lock request waits before its transaction is
+     * aborted. Deadlocks are broken as soon as they form, so this is only
+     * a limit on legitimate waits; 0, the default, means none.
+     */
+    public static void setLockTimeout(long millis) {
+        lockTimeout = Math.max(0, millis);
+    }
+
+    /**
+     * Makes a ring for a large scan of pages of the given size. The ring
+     * holds getScanRingPages() pages, or more if read-ahead runs further
+     * ahead than that, but no more than an eighth of the pool.
+     *
+     * @return the new ring, or null if scan rings are off or an eighth of
+     *   the pool can't hold the pages read-ahead keeps in flight
+     */
+    public ScanRing newScanRing(int pageSize) {
+        if (scanRingPages <= 0) {
+            return null;
+        }
+        int inFlight = 2 * PagePrefetcher.getReadAheadPages() + 2;
+        int pages = Math.max(scanRingPages, inFlight);
+        pages = (int) Math.min(pages, maxBytes / pageSize / 8);
+        return (pages < inFlight) ? null : new ScanRing(pages);
     }
 
     /**
@@ -57,201 +248,772 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
+        return getPage(tid, pid, perm, null);
+    }
 
-        boolean freeLock = myLock.getLock(pid, tid, perm);
-        long lockAcquireTime = System.currentTimeMillis();
+    /**
+     * As getPage(tid, pid, perm), reading the page, if it misses, into the
+     * given scan ring.
+     *
+     * @param ring the ring of the scan asking for the page, or null
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, ring, lockTimeout);
+    }
 
-        while (!freeLock) {
-            long waitingTime = System.currentTimeMillis();
+    /**
+     * As getPage(tid, pid, perm), giving up on the lock after the given
+     * time rather than getLockTimeout().
+     *
+     * @param timeoutMillis milliseconds to wait for the lock; 0 for no limit
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, long timeoutMillis)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null, Math.max(0, timeoutMillis));
+    }
 
-            freeLock = myLock.getLock(pid, tid, perm);
+    /**
+     * Takes the lock getPage(tid, pid, perm) would, without reading the
+     * page. A scan whose pages several threads read has its calling thread
+     * lock them this way first, so that the readers never wait for a lock;
+     * see ParallelSeqScan.
+     *
+     * @throws TransactionAbortedException as getPage would; all of tid's
+     *   locks are released
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        lock(tid, pid, perm, lockTimeout);
+    }
 
-            /** This just means we're timing out big time AKA deadlock. */
-            if ((waitingTime - lockAcquireTime) > 300) {
-                /** Add this line because people on Piazza said so. */
-                ArrayList<PageId> pids = myLock.getAppropriatePageIds(tid);
-                for (PageId p : pids) {
-                    myLock.releasePage(tid, p);
-                }
+    private Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring,
+            long timeoutMillis) throws TransactionAbortedException, DbException {
+        lock(tid, pid, perm, timeoutMillis);
+        Frame frame = myPages.get(pid);
+        if (frame != null) {
+            return this.use(pid, frame, ring);
+        }
 
-                throw new TransactionAbortedException();
+        /** Misses are read without holding the pool, so hits and misses on
+         *  other pages go on meanwhile. Our lock keeps writers off the page;
+         *  someone else may read and cache it at the same time, though, in
+         *  which case the first copy cached wins. */
+        Page retVal = myReader.read(pid);
+        synchronized (this) {
+            frame = myPages.get(pid);
+            if (frame != null) {
+                return this.use(pid, frame, ring);
             }
+            this.recycle(ring);
+            this.reserve(pageBytes(pid));
+            this.cachePage(pid, retVal, ring);
+            return retVal;
+        }
+    }
+
+    /** Locks pid for tid, or aborts tid if it is chosen to break a deadlock or times out. */
+    private void lock(TransactionId tid, PageId pid, Permissions perm, long timeoutMillis)
+        throws TransactionAbortedException {
+        boolean freeLock;
+        try {
+            freeLock = myLock.lock(pid, tid, perm, timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            freeLock = false;
         }
-        if (myPages.containsKey(pid)) {
 
-            if (this.myQueue.remove(pid)) {
-                this.myQueue.add(pid);
+        /** We were chosen to break a deadlock, or timed out. */
+        if (!freeLock) {
+            /** Add this line because people on Piazza said so. */
+            ArrayList<PageId> pids = myLock.getAppropriatePageIds(tid);
+            for (PageId p : pids) {
+                myLock.releasePage(tid, p);
             }
 
-            return myPages.get(pid);
-        } else {
-            Page retVal = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+            throw new TransactionAbortedException();
+        }
+    }
 
-            if (myPages.size() >= maxPages) {
-                this.evictPage();
-            } else {
-                myPages.put(pid, retVal);
-                this.myQueue.add(pid);
+    /**
+     * Tells the policy a page was used, and returns it. A page used from
+     * outside the ring it was read into leaves the ring.
+     */
+    private Page use(PageId pid, Frame frame, ScanRing ring) {
+        myPolicy.used(pid);
+        if (frame.ring != null && frame.ring != ring) {
+            frame.ring = null;
+        }
+        if (frame.prefetched) {
+            synchronized (frame) {
+                if (frame.prefetched) {
+                    frame.prefetched = false;
+                    myPrefetched.decrementAndGet();
+                    prefetchHits.incrementAndGet();
+                }
             }
-
-            return retVal;
         }
+        return frame.page;
     }
 
-    public class theLock {
+    /**
+     * Reads a page into the pool ahead of its use, without taking a lock on
+     * behalf of any transaction; the page is locked as usual when a
+     * transaction later asks for it through getPage. Returns right away: the
+     * read is queued to the pool's PageReader, and the page is cached by
+     * whichever thread does the read. The request is dropped if the page is
+     * already cached or being read, if the reader's queue is full, if the
+     * page has vanished, or if no clean page can be evicted to make room.
+     * <p>
+     * A scan that reaches this page while its read is still queued takes
+     * the read over, see PageReader.read, so read-ahead never makes a miss
+     * wait longer; the scan's own work on the tuples of earlier pages still
+     * overlaps the reads already under way.
+     *
+     * @return the read, which completes once the page is cached or dropped,
+     *   or null if the request was dropped without reading
+     * @see PagePrefetcher
+     */
+    Future<Page> prefetchPage(PageId pid) {
+        return prefetchPage(pid, null, null);
+    }
 
-        /** Two hash tables. One to map pages to transactions for shared locks. 
-        /*  The other is pages to transactions for exclusive locks. */
-        private Hashtable<PageId, ArrayList<TransactionId>> pageToTransactionShared;
-        private Hashtable<PageId, TransactionId> pageToTransactionExclusive;
+    /**
+     * As prefetchPage(pid), reading the page into the given scan ring. If
+     * the cursor has reached the page by the time it is read, the page is
+     * left for the cursor's own getPage to cache.
+     */
+    Future<Page> prefetchPage(final PageId pid, final ScanRing ring,
+            final PagePrefetcher.Cursor cursor) {
+        final int bytes = pageBytes(pid);
+        final long changes;
+        synchronized (this) {
+            // don't let read-ahead crowd out more than half of the pool
+            if (myPages.containsKey(pid) || (long) (myPrefetched.get() + 1) * bytes > maxBytes / 2) {
+                return null;
+            }
+            changes = diskChanges;
+        }
+        if (myReader.getQueueDepth() >= myReader.getQueueCapacity()) {
+            return null;
+        }
 
-        public theLock() {
-            pageToTransactionExclusive = new Hashtable<PageId, TransactionId>();
-            pageToTransactionShared = new Hashtable<PageId, ArrayList<TransactionId>>();
-        }
-
-        public synchronized ArrayList<PageId> getAppropriatePageIds(TransactionId t) {
-            ArrayList<PageId> retVal = new ArrayList<PageId>();
-            /** See what transactions our pages have locked up. */
-            for (PageId pid : pageToTransactionShared.keySet()) {
-                ArrayList<TransactionId> sharedTransactions = pageToTransactionShared.get(pid);
-                if (sharedTransactions != null) {
-
-                    /** If a page has our transaction locked up, GET RID OF
-                    /*  THAT SHIT! */
-                    if (sharedTransactions.contains(t)) {
-                        /** Outsource this to our other method. */
-                        if (!retVal.contains(pid)) {
-                            retVal.add(pid);
-                        }
+        return myReader.readAsync(pid, new PageReader.Listener() {
+            public void pageRead(Page page) {
+                if (cursor != null && cursor.currentPage() >= pid.pageNumber()) {
+                    return;
+                }
+                synchronized (BufferPool.this) {
+                    // a page written since we started may be newer than our copy
+                    if (myPages.containsKey(pid) || diskChanges != changes) {
+                        return;
+                    }
+                    try {
+                        recycle(ring);
+                        reserve(bytes);
+                    } catch (DbException e) {
+                        return;
                     }
+                    cachePage(pid, page, ring).prefetched = true;
+                    myPrefetched.incrementAndGet();
+                    prefetchIssued.incrementAndGet();
                 }
             }
+        });
+    }
 
-            for (PageId pid : pageToTransactionExclusive.keySet()) {
-                TransactionId t1 = pageToTransactionExclusive.get(pid);
-                if (t1 != null) {
-                    if (t1.equals(t)) {
-                        if (!retVal.contains(pid)) {
-                            retVal.add(pid);
-                        }
+    /** @return the I/O engine that reads this pool's misses, with its counters */
+    public PageReader getPageReader() {
+        return myReader;
+    }
+
+    /** @return the memory budget of this pool, in bytes */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** @return bytes of page data currently cached */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /** @return bytes the specified page takes up in the pool */
+    private int pageBytes(PageId pid) {
+        try {
+            return Database.getCatalog().getPageSize(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            // the table is gone; it must have used the default size
+            return PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Evicts pages until a page of the given size fits within the budget,
+     * or the pool is empty.
+     */
+    private void reserve(int bytes) throws DbException {
+        while (usedBytes + bytes > maxBytes && !myPages.isEmpty()) {
+            this.evictPage();
+        }
+    }
+
+    /** Adds a page that is not in the pool yet, as most recently used. */
+    private Frame cachePage(PageId pid, Page page) {
+        Frame frame = new Frame(page);
+        myPages.put(pid, frame);
+        myPolicy.added(pid);
+        usedBytes += pageBytes(pid);
+        return frame;
+    }
+
+    /** As cachePage(pid, page), adding the page to ring if there is one. */
+    private Frame cachePage(PageId pid, Page page, ScanRing ring) {
+        Frame frame = this.cachePage(pid, page);
+        if (ring != null) {
+            frame.ring = ring;
+            ring.myPages.add(pid);
+        }
+        return frame;
+    }
+
+    /**
+     * Makes room in a full ring for one more page, evicting the ring's
+     * oldest page if it is still the ring's and clean. A page that left the
+     * ring, or is dirty, is dropped from the ring and stays cached.
+     */
+    private void recycle(ScanRing ring) {
+        if (ring == null) {
+            return;
+        }
+        while (ring.myPages.size() >= ring.myCapacity) {
+            PageId oldest = ring.myPages.poll();
+            Frame frame = myPages.get(oldest);
+            if (frame != null && frame.ring == ring) {
+                frame.ring = null;
+                if (frame.page.isDirty() == null) {
+                    this.uncachePage(oldest);
+                    synchronized (ring) {
+                        ring.myRecycled++;
                     }
                 }
             }
+        }
+    }
 
-
-            return retVal;
+    /** Drops a cached page, counting it as wasted if read-ahead brought it
+        in and nobody used it. */
+    private void uncachePage(PageId pid) {
+        Frame frame = myPages.remove(pid);
+        if (frame != null) {
+            myPolicy.removed(pid);
+            usedBytes -= pageBytes(pid);
+            synchronized (frame) {
+                if (frame.prefetched) {
+                    frame.prefetched = false;
+                    myPrefetched.decrementAndGet();
+                    prefetchWasted.incrementAndGet();
+                }
+            }
         }
+    }
+
+    /** @return number of pages read into the pool by read-ahead */
+    public long getPrefetchIssued() {
+        return prefetchIssued.get();
+    }
+
+    /** @return number of read-ahead pages that a transaction later asked for */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /** @return number of read-ahead pages evicted or discarded unused */
+    public long getPrefetchWasted() {
+        return prefetchWasted.get();
+    }
 
-       
-        public synchronized boolean getLock(PageId p, TransactionId t, Permissions perm) {
+    /** @return number of blocked lock requests checked for a deadlock */
+    public long getDeadlockChecks() {
+        return myLock.getDeadlockChecks();
+    }
 
-            ArrayList<TransactionId> sharedT = pageToTransactionShared.get(p);
-            TransactionId exclusiveT = pageToTransactionExclusive.get(p);
+    /** @return number of deadlocks broken by aborting one of their transactions */
+    public long getDeadlocks() {
+        return myLock.getDeadlocks();
+    }
 
-            boolean isValid = true;
-            boolean usedSharedLock = false;
-            boolean usedExclusiveLock = false;
+    /**
+     * The lock manager. Page locks are kept in LOCK_STRIPES stripes by
+     * PageId hash, each with its own latch, so transactions locking
+     * different pages rarely meet; each transaction's pages are also kept
+     * on the side, so that releasing them doesn't search every lock.
+     * <p>
+     * A request that can't be granted joins its page's queue and sleeps on
+     * its own monitor until a release grants it. Queued requests are
+     * granted in order, and a new request never overtakes a queued one, so
+     * a stream of readers can't starve a writer. The one exception is
+     * upgrades: a holder of a shared lock that asks for the exclusive lock
+     * goes ahead of the requests that don't hold the page, since those
+     * would otherwise wait for it while it waits for them.
+     * <p>
+     * Waiting requests make up a waits-for graph, which is searched for a
+     * cycle each time a request blocks. A cycle is a deadlock, and its
+     * transaction holding the fewest locks is aborted on the spot; a wait
+     * without a cycle lasts as long as it has to.
+     */
+    public class theLock {
 
-            /** Checks to see if transactions have a shared lock on this page. */
-            if (sharedT != null) {
-                usedSharedLock = true;
+        /**
+         * A request waiting in a page's queue. It is granted or aborted
+         * under its own monitor, which its thread waits on, so that either
+         * can happen without the latch of the page's stripe.
+         */
+        private class LockRequest {
+            final TransactionId tid;
+            final boolean exclusive;
+            /** Whether tid holds a shared lock on the page already. */
+            final boolean upgrade;
+            volatile boolean granted;
+            volatile boolean aborted;
+            /** The transactions this one waits for, guarded by myGraph. */
+            Set<TransactionId> blockers = Collections.emptySet();
+
+            LockRequest(TransactionId tid, boolean exclusive, boolean upgrade) {
+                this.tid = tid;
+                this.exclusive = exclusive;
+                this.upgrade = upgrade;
             }
 
-            /** Checks to see if a transaction has an exclusive lock on this page. */
-            if (exclusiveT != null) {
-                usedExclusiveLock = true;
+            /** @return false if the request was aborted instead */
+            synchronized boolean grant() {
+                if (aborted) {
+                    return false;
+                }
+                granted = true;
+                notifyAll();
+                return true;
             }
 
-            if (perm.equals(Permissions.READ_WRITE)) {
+            /** @return false if the request was granted instead */
+            synchronized boolean abort() {
+                if (granted) {
+                    return false;
+                }
+                aborted = true;
+                notifyAll();
+                return true;
+            }
 
+            /**
+             * Waits until the request is granted or aborted, or
+             * timeoutMillis have passed if timeoutMillis is positive.
+             */
+            synchronized void await(long timeoutMillis) throws InterruptedException {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                while (!granted && !aborted) {
+                    if (timeoutMillis <= 0) {
+                        wait();
+                    } else {
+                        long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                        if (millis <= 0) {
+                            return;
+                        }
+                        wait(millis);
+                    }
+                }
+            }
+        }
 
-                /** If transactions have a shared lock on this page. */
-                if (usedSharedLock) {
+        /** The holders of one page's locks, and the requests waiting for them. */
+        private class PageLock {
+            ArrayList<TransactionId> shared = new ArrayList<TransactionId>(2);
+            TransactionId exclusive;
+            LinkedList<LockRequest> waiters = new LinkedList<LockRequest>();
 
-                    /** This edge case is that only one transaction has a shared
-                    /*  on this page. However, we have to make sure that said tranaction
-                    /*  is actually OUR transaction. If not, BOOT. */
-                    if (sharedT.size() == 1 && !sharedT.contains(t)) {
-                        isValid = false;
-                        return isValid;
-                    }
+            boolean isFree() {
+                return shared.isEmpty() && exclusive == null && waiters.isEmpty();
+            }
 
-                    /** Can't get exclusive lock because more than one transaction
-                    /*  has control of the shared lock .*/
-                    if (sharedT.size() > 1) {
-                        isValid = false;
-                        return isValid;
-                    }
+            boolean isHeldBy(TransactionId t) {
+                return shared.contains(t) || (exclusive != null && exclusive.equals(t));
+            }
 
+            /**
+             * @return whether t may have the lock, setting aside the queue:
+             *   a shared lock unless someone else holds the page exclusively,
+             *   an exclusive one unless someone else holds it at all
+             */
+            boolean isCompatible(TransactionId t, boolean wantExclusive) {
+                if (exclusive != null && !exclusive.equals(t)) {
+                    return false;
                 }
+                return !wantExclusive || shared.isEmpty()
+                        || (shared.size() == 1 && shared.contains(t));
+            }
 
-                /** If a transaction does have an exclusive lock, make sure that
-                /*  that transaction is OUR transaction. If not, BOOT. */
-                if (usedExclusiveLock && !exclusiveT.equals(t)) {
-                    isValid = false;
-                    return isValid;
-                } else { 
+            void grant(TransactionId t, boolean wantExclusive) {
+                if (wantExclusive) {
+                    exclusive = t;
+                } else if (!shared.contains(t)) {
+                    shared.add(t);
+                }
+            }
 
-                    /** AKA we are clear! */
-                    isValid = true;
+            /**
+             * Grants queued requests in order, up to the first that must
+             * still wait, and drops aborted ones; then brings the waits of
+             * the rest up to date.
+             */
+            void grantWaiters() {
+                while (!waiters.isEmpty()) {
+                    LockRequest head = waiters.getFirst();
+                    if (!head.aborted && !isCompatible(head.tid, head.exclusive)) {
+                        break;
+                    }
+                    waiters.removeFirst();
+                    if (head.grant()) {
+                        grant(head.tid, head.exclusive);
+                    }
+                    myGraph.remove(head);
+                }
+                myGraph.update(this);
+            }
 
-                    pageToTransactionExclusive.put(p, t);
+            /**
+             * @return the transactions r waits for: the holders it conflicts
+             *   with, and those of the requests ahead of it in the queue
+             */
+            Set<TransactionId> blockers(LockRequest r) {
+                HashSet<TransactionId> retVal = new HashSet<TransactionId>();
+                if (exclusive != null && !exclusive.equals(r.tid)) {
+                    retVal.add(exclusive);
+                }
+                if (r.exclusive) {
+                    for (TransactionId s : shared) {
+                        if (!s.equals(r.tid)) {
+                            retVal.add(s);
+                        }
+                    }
+                }
+                for (LockRequest q : waiters) {
+                    if (q == r) {
+                        break;
+                    }
+                    if (!q.aborted && (q.exclusive || r.exclusive) && !q.tid.equals(r.tid)) {
+                        retVal.add(q.tid);
+                    }
+                }
+                return retVal;
+            }
+        }
+
+        /** The locks of the pages hashing to one stripe, guarded by its latch. */
+        private class Stripe {
+            final ReentrantLock latch = new ReentrantLock();
+            final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+        }
 
-                    return isValid;
+        /**
+         * Who waits for whom. Each waiting transaction's edges are those of
+         * its request, which the page's queue updates, with the stripe
+         * latched, whenever it changes; so the graph is always the union of
+         * the queues as they are, and a cycle in it is a real deadlock.
+         * Only a request that blocks adds edges from its transaction, and
+         * only it and a grant add edges to it, so a new cycle always goes
+         * through the transaction that just blocked, and breaking the
+         * cycles through it leaves none.
+         * <p>
+         * A transaction waits for one page at a time: its requests come
+         * from one thread, and scans that read on several threads lock
+         * their pages on the calling thread first (see lockPage).
+         */
+        private class WaitsForGraph {
+            private final HashMap<TransactionId, LockRequest> myWaiting =
+                    new HashMap<TransactionId, LockRequest>();
+            private long myChecks;
+            private long myDeadlocks;
+
+            synchronized void update(PageLock lock) {
+                for (LockRequest r : lock.waiters) {
+                    if (!r.aborted) {
+                        r.blockers = lock.blockers(r);
+                        myWaiting.put(r.tid, r);
+                    }
                 }
+            }
 
-            } else {
+            synchronized void remove(LockRequest r) {
+                if (myWaiting.get(r.tid) == r) {
+                    myWaiting.remove(r.tid);
+                }
+            }
 
-                if (!usedExclusiveLock || exclusiveT.equals(t)) {
-                    if (sharedT == null) {
-                        sharedT = new ArrayList<TransactionId>();
+            /**
+             * Breaks the cycles through r's transaction, if there are any:
+             * for each, aborts the request of the transaction in it that
+             * holds the fewest locks, or of the youngest of those.
+             */
+            synchronized void breakCycle(LockRequest r) {
+                if (myWaiting.get(r.tid) != r) {
+                    // granted or aborted already
+                    return;
+                }
+                myChecks++;
+                /** Aborting a victim may leave another cycle through r, so
+                 *  search again until there is none or r is the victim. */
+                while (myWaiting.get(r.tid) == r) {
+                    ArrayList<TransactionId> cycle = new ArrayList<TransactionId>();
+                    cycle.add(r.tid);
+                    if (!findCycle(r.tid, cycle, new HashSet<TransactionId>())) {
+                        return;
                     }
+                    myDeadlocks++;
+                    abortVictim(cycle);
+                }
+            }
 
-                    if (!sharedT.contains(t)) {
-                        sharedT.add(t);
+            private void abortVictim(ArrayList<TransactionId> cycle) {
+                TransactionId victim = null;
+                int victimLocks = 0;
+                for (TransactionId t : cycle) {
+                    Set<PageId> pages = pagesByTransaction.get(t);
+                    int locks = (pages == null) ? 0 : pages.size();
+                    if (victim == null || locks < victimLocks
+                            || (locks == victimLocks && t.getId() > victim.getId())) {
+                        victim = t;
+                        victimLocks = locks;
                     }
+                }
+                LockRequest request = myWaiting.remove(victim);
+                request.abort();
+            }
 
-                    pageToTransactionShared.put(p, sharedT);
+            /**
+             * Extends path, which ends at a waiting transaction, until it
+             * leads back to its start.
+             *
+             * @return whether it does; path then holds the cycle
+             */
+            private boolean findCycle(TransactionId start, ArrayList<TransactionId> path,
+                    HashSet<TransactionId> visited) {
+                LockRequest last = myWaiting.get(path.get(path.size() - 1));
+                for (TransactionId t : last.blockers) {
+                    if (t.equals(start)) {
+                        return true;
+                    }
+                    if (myWaiting.containsKey(t) && visited.add(t)) {
+                        path.add(t);
+                        if (findCycle(start, path, visited)) {
+                            return true;
+                        }
+                        path.remove(path.size() - 1);
+                    }
+                }
+                return false;
+            }
 
-                    isValid = true;
-                    return isValid;
+            synchronized long getChecks() {
+                return myChecks;
+            }
 
-                } else {
-                    isValid = false;
-                    return isValid;
-                }
+            synchronized long getDeadlocks() {
+                return myDeadlocks;
             }
         }
 
+        private final Stripe[] stripes;
+        private final ConcurrentHashMap<TransactionId, Set<PageId>> pagesByTransaction;
+        private final WaitsForGraph myGraph;
+
+        public theLock() {
+            stripes = new Stripe[LOCK_STRIPES];
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                stripes[i] = new Stripe();
+            }
+            pagesByTransaction = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+            myGraph = new WaitsForGraph();
+        }
 
-        public synchronized void releasePage(TransactionId t, PageId p) {
+        private Stripe stripeFor(PageId p) {
+            int h = p.hashCode();
+            h ^= (h >>> 16);
+            return stripes[(h & 0x7fffffff) % LOCK_STRIPES];
+        }
 
-            ArrayList<TransactionId> sharedTransactions = pageToTransactionShared.get(p);
-            if (sharedTransactions != null) {
-                sharedTransactions.remove(t);
-                pageToTransactionShared.put(p, sharedTransactions);
+        /** @return the pages t holds a lock on */
+        public ArrayList<PageId> getAppropriatePageIds(TransactionId t) {
+            Set<PageId> pages = pagesByTransaction.get(t);
+            if (pages == null) {
+                return new ArrayList<PageId>();
             }
+            return new ArrayList<PageId>(pages);
+        }
 
-            pageToTransactionExclusive.remove(p);
+        /** @return number of times a blocked request was checked for a deadlock */
+        public long getDeadlockChecks() {
+            return myGraph.getChecks();
         }
 
-        public synchronized boolean holdsLock(TransactionId t, PageId p) {
-            TransactionId exclusiveT = pageToTransactionExclusive.get(p);
-            if (exclusiveT != null && exclusiveT.equals(t)) {
-                return true;
+        /** @return number of deadlocks found, and broken by aborting a transaction */
+        public long getDeadlocks() {
+            return myGraph.getDeadlocks();
+        }
+
+        /**
+         * Grants t the lock on p for perm if it can be granted right away,
+         * without waiting.
+         *
+         * @return whether the lock was granted
+         */
+        public boolean getLock(PageId p, TransactionId t, Permissions perm) {
+            try {
+                return lock(p, t, perm, -1);
+            } catch (InterruptedException e) {
+                // we never waited
+                Thread.currentThread().interrupt();
+                return false;
             }
+        }
 
+        /**
+         * Grants t the lock on p for perm, waiting for it in p's queue if
+         * it can't be granted right away: until it is granted, t is chosen
+         * to break a deadlock, or timeoutMillis have passed. A timeout of
+         * zero waits for as long as it takes, a negative one doesn't wait.
+         *
+         * @return whether the lock was granted; if not, t has left the queue
+         * @throws InterruptedException if the thread is interrupted while
+         *   it waits; t has left the queue
+         */
+        public boolean lock(PageId p, TransactionId t, Permissions perm, long timeoutMillis)
+                throws InterruptedException {
+            boolean wantExclusive = perm.equals(Permissions.READ_WRITE);
+            Stripe stripe = stripeFor(p);
+            LockRequest request = null;
+            stripe.latch.lock();
+            try {
+                PageLock lock = stripe.locks.get(p);
+                if (lock == null) {
+                    lock = new PageLock();
+                    stripe.locks.put(p, lock);
+                }
+                boolean upgrade = wantExclusive && lock.shared.contains(t);
+                /** Holders don't queue behind requests that don't hold the page. */
+                if (lock.isCompatible(t, wantExclusive)
+                        && (lock.waiters.isEmpty() || lock.isHeldBy(t))) {
+                    lock.grant(t, wantExclusive);
+                    if (!lock.waiters.isEmpty()) {
+                        /** The waiters may conflict with us in a new way. */
+                        myGraph.update(lock);
+                    }
+                } else if (timeoutMillis < 0) {
+                    if (lock.isFree()) {
+                        stripe.locks.remove(p);
+                    }
+                    return false;
+                } else {
+                    request = new LockRequest(t, wantExclusive, upgrade);
+                    int i = lock.waiters.size();
+                    if (upgrade) {
+                        for (i = 0; i < lock.waiters.size() && lock.waiters.get(i).upgrade; i++) {
+                        }
+                    }
+                    lock.waiters.add(i, request);
+                    myGraph.update(lock);
+                }
+            } finally {
+                stripe.latch.unlock();
+            }
 
-            ArrayList<TransactionId> transactionPages = pageToTransactionShared.get(p);
-            if (transactionPages != null && transactionPages.contains(t)) {
-                return true;
+            if (request != null) {
+                myGraph.breakCycle(request);
+                boolean interrupted = false;
+                try {
+                    request.await(timeoutMillis);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                /** Give up, unless the request was granted in the meantime. */
+                if (request.abort()) {
+                    leave(stripe, p, request);
+                    if (interrupted) {
+                        throw new InterruptedException();
+                    }
+                    return false;
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Set<PageId> pages = pagesByTransaction.get(t);
+            if (pages == null) {
+                pages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+                Set<PageId> raced = pagesByTransaction.putIfAbsent(t, pages);
+                if (raced != null) {
+                    pages = raced;
+                }
             }
+            pages.add(p);
+            return true;
+        }
 
-            return false;
+        /** Takes an aborted request out of p's queue. */
+        private void leave(Stripe stripe, PageId p, LockRequest request) {
+            stripe.latch.lock();
+            try {
+                PageLock lock = stripe.locks.get(p);
+                if (lock != null) {
+                    lock.waiters.remove(request);
+                    /** The requests behind us may be grantable now. */
+                    lock.grantWaiters();
+                    if (lock.isFree()) {
+                        stripe.locks.remove(p);
+                    }
+                }
+                myGraph.remove(request);
+            } finally {
+                stripe.latch.unlock();
+            }
         }
 
+        /** Releases whatever locks t holds on p, and grants what can be granted. */
+        public void releasePage(TransactionId t, PageId p) {
+            Stripe stripe = stripeFor(p);
+            stripe.latch.lock();
+            try {
+                PageLock lock = stripe.locks.get(p);
+                if (lock != null) {
+                    lock.shared.remove(t);
+                    if (lock.exclusive != null && lock.exclusive.equals(t)) {
+                        lock.exclusive = null;
+                    }
+                    lock.grantWaiters();
+                    if (lock.isFree()) {
+                        stripe.locks.remove(p);
+                    }
+                }
+            } finally {
+                stripe.latch.unlock();
+            }
+            Set<PageId> pages = pagesByTransaction.get(t);
+            if (pages != null) {
+                pages.remove(p);
+                if (pages.isEmpty()) {
+                    pagesByTransaction.remove(t, pages);
+                }
+            }
+        }
 
+        public boolean holdsLock(TransactionId t, PageId p) {
+            Stripe stripe = stripeFor(p);
+            stripe.latch.lock();
+            try {
+                PageLock lock = stripe.locks.get(p);
+                return lock != null && lock.isHeldBy(t);
+            } finally {
+                stripe.latch.unlock();
+            }
+        }
     }
 
     /**
@@ -294,25 +1056,28 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
-    public void transactionComplete(TransactionId tid, boolean commit)
+    public synchronized void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        Collection<Page> pages = myPages.values();
         if (commit) {
-            for (Page p : pages) {
+            for (Frame frame : myPages.values()) {
+                Page p = frame.page;
                 if (p.isDirty() == null) {
                     p.setBeforeImage();
                 } else {
                     if (p.isDirty().equals(tid)) {
                         flushPage(p.getId());
+                        // the committed contents are the new before image
+                        p.setBeforeImage();
                     }
                 }
             }
         } else {
-            for (Page p : pages) {  
-                if (p.isDirty() != null && p.isDirty().equals(tid)) {
-                    PageId pid = p.getId();
-                    Page beforeImage = p.getBeforeImage();
-                    myPages.put(pid, beforeImage);
+            for (Frame frame : myPages.values()) {
+                synchronized (frame) {
+                    Page p = frame.page;
+                    if (p.isDirty() != null && p.isDirty().equals(tid)) {
+                        frame.page = p.getBeforeImage();
+                    }
                 }
             }
         }
@@ -332,6 +1097,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * Any indexes on the table get an entry for the new tuple.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -342,24 +1108,32 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
 
-        HeapFile myHeapFile = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        DbFile myHeapFile = Database.getCatalog().getDbFile(tableId);
         ArrayList<Page> insertTuple = myHeapFile.insertTuple(tid, t);
-        for (Page p : insertTuple) {
-            p.markDirty(true, tid);
-            PageId pid = p.getId();
-            if (!this.myPages.containsKey(pid)) {
-                this.myPages.put(pid, p); /** LRU stuff */
-                if (this.myPages.size() > maxPages) {
-                    this.evictPage();
-                }
-                this.myQueue.add(pid);
-            } else {
-                if (this.myQueue.remove(pid)) {
-                    this.myQueue.add(pid);
+        synchronized (this) {
+            for (Page p : insertTuple) {
+                p.markDirty(true, tid);
+                PageId pid = p.getId();
+                Frame frame = this.myPages.get(pid);
+                if (frame == null) {
+                    this.reserve(pageBytes(pid));
+                    this.cachePage(pid, p); /** LRU stuff */
+                } else {
+                    // a freshly appended page may already have been pulled in
+                    // by read-ahead; the modified copy is the one to keep
+                    synchronized (frame) {
+                        frame.page = p;
+                    }
+                    this.use(pid, frame, null);
                 }
             }
         }
 
+        /** Index pages are fetched and dirtied through getPage, so they are
+         *  already cached. */
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            index.insertEntry(tid, t.getField(index.getKeyField()), t.getRecordId());
+        }
     }
 
     /**
@@ -370,7 +1144,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit.  Does not need to update cached versions of any pages that have 
      * been dirtied, as it is not possible that a new page was created during the deletion
-     * (note difference from addTuple).
+     * (note difference from addTuple). The tuple's entries are removed from
+     * any indexes on its table.
      *
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
@@ -380,7 +1155,10 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
             int tid2 = t.getRecordId().getPageId().getTableId();
-            HeapFile myHeapFile = (HeapFile) Database.getCatalog().getDbFile(tid2);
+            DbFile myHeapFile = Database.getCatalog().getDbFile(tid2);
+            for (IndexFile index : Database.getCatalog().getIndexes(tid2)) {
+                index.deleteEntry(tid, t.getField(index.getKeyField()), t.getRecordId());
+            }
             Page modifiedPage = myHeapFile.deleteTuple(tid, t);
             modifiedPage.markDirty(true, tid);
 
@@ -408,12 +1186,8 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
 	// not necessary for proj1
-        if (this.myPages.containsKey(pid)) {
-            this.myPages.remove(pid);
-            if (this.myQueue.contains(pid)) {
-                this.myQueue.remove(pid);
-            }
-        }
+        this.uncachePage(pid);
+        diskChanges++;
     }
 
     /**
@@ -423,9 +1197,10 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for proj1
-        Page thePage = this.myPages.get(pid);
+        Page thePage = this.myPages.get(pid).page;
         if (thePage.isDirty() != null) {
             Database.getCatalog().getDbFile(pid.getTableId()).writePage(thePage);   
+            diskChanges++;
         }
     }
 
@@ -444,38 +1219,11 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
 
-        int dirtyPages = 0;
-        boolean isEvicted = false;
-
-        for (Page p : myPages.values()) {
-            if (p.isDirty() != null) {
-                dirtyPages++;
-            }
-        }
-
-        /** This condition just means that all pages ended up being dirty. */
-        if (dirtyPages == maxPages) {
-            throw new DbException("All dirty. Get that shit out of here.");
-        }
-        
-        while (!isEvicted) {
-            for (int i = 0; i < myQueue.size(); i++) {
-                PageId pid = myQueue.get(i);
-                if (myPages.get(pid).isDirty() == null) {
-                    try {
-                        flushPage(pid);
-                        myPages.remove(pid);
-                        myQueue.remove(i);
-                        isEvicted = true;
-                        break;                    
-                    } catch (IOException e) {
-                        System.out.println("Exception Thrown:" + e.getMessage());
-                    }
-
-                }
-            }
-                   
+        PageId victim = myPolicy.victim(myCandidates);
+        if (victim == null) {
+            throw new DbException("No clean page to evict.");
         }
+        this.uncachePage(victim);
     }
 
 }
@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader turns delimited text, one tuple per line, into a page file in
+ * the format of HeapPage and HeapFile, using every core: lines are read in
+ * chunks of a fixed number of pages' worth, the chunks are parsed and laid
+ * out as pages on a pool of worker threads, and the finished pages are
+ * written in order, one large sequential write per chunk.
+ * <p>
+ * Only a few chunks per worker are in flight at any time, so memory use
+ * does not depend on the size of the input. While it loads, the loader
+ * also gathers what TableStats needs (the number of tuples, the range of
+ * each INT column and a uniform sample of the tuples), so the statistics
+ * of a freshly loaded table don't cost another scan; see getTableStats.
+ * <p>
+ * The number of workers defaults to the number of processors, and can be
+ * set with the simpledb.LoadThreads system property or setThreads.
+ *
+ * @see HeapFileEncoder#convert(File, File, int, int, Type[], char)
+ */
+public class BulkLoader {
+
+    /** Pages laid out by one task; 64 pages of 4KB make a 256KB write. */
+    static final int PAGES_PER_CHUNK = 64;
+    /** Chunks in flight per worker: one being parsed, one waiting to be written. */
+    private static final int CHUNKS_PER_THREAD = 2;
+    /** Tuples the histograms of getTableStats are built from. */
+    static final int SAMPLE_SIZE = 10000;
+
+    private final TupleDesc myTupleDesc;
+    private final int myPageSize;
+    private final char mySeparator;
+    private final int myRecordSize;
+    private final int myRecordsPerPage;
+    private final int myHeaderBytes;
+    private int myThreads = Integer.getInteger("simpledb.LoadThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    // what the last load gathered
+    private int myNumTuples;
+    private int myMins[];
+    private int myMaxs[];
+    /** The sample being gathered, largest key first, see Sample. */
+    private PriorityQueue<Sample> mySampled;
+    private ArrayList<Tuple> mySample;
+
+    /**
+     * @param types the types of the fields on each line
+     * @param pageSize the number of bytes per page in the output file
+     * @param fieldSeparator the character between the fields of a line
+     */
+    public BulkLoader(Type[] types, int pageSize, char fieldSeparator) {
+        this.myTupleDesc = new TupleDesc(types);
+        this.myPageSize = pageSize;
+        this.mySeparator = fieldSeparator;
+        this.myRecordSize = myTupleDesc.getSize();
+        this.myRecordsPerPage = (pageSize * 8) / (myRecordSize * 8 + 1);
+        this.myHeaderBytes = (myRecordsPerPage + 7) / 8;
+        if (myRecordsPerPage == 0) {
+            throw new IllegalArgumentException("a " + myRecordSize
+                    + " byte tuple doesn't fit on a " + pageSize + " byte page");
+        }
+    }
+
+    public int getThreads() {
+        return myThreads;
+    }
+
+    /** Sets the number of worker threads later loads parse with. */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        this.myThreads = threads;
+    }
+
+    /**
+     * Loads the lines of inFile into outFile.
+     * @return the number of pages written
+     * @throws IOException if a file can't be read or written, or a line is
+     *   malformed
+     */
+    public int load(File inFile, File outFile) throws IOException {
+        final BufferedReader br = new BufferedReader(new FileReader(inFile), 1 << 16);
+        try {
+            return load(new Iterator<String>() {
+                private String next;
+
+                public boolean hasNext() {
+                    if (next == null) {
+                        try {
+                            next = br.readLine();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return next != null;
+                }
+
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    String retVal = next;
+                    next = null;
+                    return retVal;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }, outFile);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Loads the given lines into outFile. Blank lines are skipped. As with
+     * HeapFileEncoder, an empty input still gets one (empty) page.
+     * @return the number of pages written
+     * @throws IOException if outFile can't be written or a line is malformed
+     */
+    public int load(Iterator<String> lines, File outFile) throws IOException {
+        int chunkLines = PAGES_PER_CHUNK * myRecordsPerPage;
+        int maxInFlight = myThreads * CHUNKS_PER_THREAD;
+        ExecutorService workers = Executors.newFixedThreadPool(myThreads);
+        LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+        FileOutputStream os = new FileOutputStream(outFile);
+        FileChannel out = os.getChannel();
+        start();
+        int npages = 0;
+        try {
+            int chunkNo = 0;
+            int lineNo = 0;
+            boolean done = false;
+            while (!done) {
+                String chunk[] = new String[chunkLines];
+                int n = 0;
+                int firstLine = lineNo;
+                while (n < chunkLines && lines.hasNext()) {
+                    chunk[n++] = lines.next();
+                    lineNo++;
+                }
+                done = !lines.hasNext();
+                if (n > 0) {
+                    inFlight.add(workers.submit(new Parser(chunkNo++, firstLine, chunk, n)));
+                }
+                /** Write finished chunks in order; wait for the oldest one
+                 *  only if there are too many in flight. */
+                while (!inFlight.isEmpty()
+                        && (done || inFlight.size() >= maxInFlight || inFlight.getFirst().isDone())) {
+                    npages += write(out, get(inFlight.removeFirst()));
+                }
+            }
+            if (npages == 0) {
+                ByteBuffer empty = ByteBuffer.wrap(new byte[myPageSize]);
+                while (empty.hasRemaining()) {
+                    out.write(empty);
+                }
+                npages++;
+            }
+        } finally {
+            workers.shutdownNow();
+            os.close();
+        }
+        return npages;
+    }
+
+    private static Chunk get(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while loading");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Writes the pages of c at the end of out, and adds up its statistics. */
+    private int write(FileChannel out, Chunk c) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(c.pages, 0, c.numPages * myPageSize);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        myNumTuples += c.numTuples;
+        for (int i = 0; i < myMins.length; i++) {
+            myMins[i] = Math.min(myMins[i], c.mins[i]);
+            myMaxs[i] = Math.max(myMaxs[i], c.maxs[i]);
+        }
+        mySampled.addAll(c.sample);
+        while (mySampled.size() > SAMPLE_SIZE) {
+            mySampled.poll();
+        }
+        return c.numPages;
+    }
+
+    private void start() {
+        myNumTuples = 0;
+        myMins = new int[myTupleDesc.numFields()];
+        myMaxs = new int[myTupleDesc.numFields()];
+        Arrays.fill(myMins, Integer.MAX_VALUE);
+        Arrays.fill(myMaxs, Integer.MIN_VALUE);
+        mySampled = new PriorityQueue<Sample>(SAMPLE_SIZE + 1, Sample.LARGEST_FIRST);
+        mySample = null;
+    }
+
+    /**
+     * Returns the statistics of the table the last load wrote, without
+     * scanning it: the tuple count is exact, and the histograms are filled
+     * from a uniform sample of the tuples, spread over the exact range of
+     * each INT column.
+     *
+     * @param dbFile the file the table was loaded into
+     * @param ioCostPerPage the cost per page of IO, as in TableStats
+     */
+    public TableStats getTableStats(DbFile dbFile, int ioCostPerPage) {
+        if (mySampled == null) {
+            throw new IllegalStateException("nothing has been loaded");
+        }
+        if (mySample == null) {
+            mySample = new ArrayList<Tuple>(mySampled.size());
+            for (Sample s : mySampled) {
+                mySample.add(s.tuple);
+            }
+        }
+        int mins[] = new int[myMins.length];
+        int maxs[] = new int[myMaxs.length];
+        for (int i = 0; i < mins.length; i++) {
+            // an empty table has no range; any will do
+            mins[i] = (myNumTuples == 0) ? 0 : myMins[i];
+            maxs[i] = (myNumTuples == 0) ? 0 : myMaxs[i];
+        }
+        return new TableStats(dbFile, ioCostPerPage, myNumTuples, mins, maxs, mySample);
+    }
+
+    /**
+     * A sampled tuple and its random key. The tuples with the SAMPLE_SIZE
+     * smallest keys are a uniform sample of the table, and the smallest keys
+     * of two chunks together are those of their union, so each chunk can
+     * pick its own and the writer merges them.
+     */
+    private static class Sample {
+        static final Comparator<Sample> LARGEST_FIRST = new Comparator<Sample>() {
+            public int compare(Sample a, Sample b) {
+                return Double.compare(b.key, a.key);
+            }
+        };
+
+        final double key;
+        final Tuple tuple;
+
+        Sample(double key, Tuple tuple) {
+            this.key = key;
+            this.tuple = tuple;
+        }
+    }
+
+    /** The pages laid out from a run of lines, and their statistics. */
+    private static class Chunk {
+        final byte pages[];
+        int numPages;
+        int numTuples;
+        final int mins[];
+        final int maxs[];
+        final PriorityQueue<Sample> sample;
+
+        Chunk(int pageSize, int numPages, int numFields) {
+            this.pages = new byte[pageSize * numPages];
+            this.numPages = numPages;
+            this.mins = new int[numFields];
+            this.maxs = new int[numFields];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxs, Integer.MIN_VALUE);
+            this.sample = new PriorityQueue<Sample>(16, Sample.LARGEST_FIRST);
+        }
+    }
+
+    /** Parses one chunk of lines into pages, on a worker thread. */
+    private class Parser implements Callable<Chunk> {
+        private final int chunkNo;
+        private final int firstLine;
+        private final String lines[];
+        private final int numLines;
+
+        Parser(int chunkNo, int firstLine, String lines[], int numLines) {
+            this.chunkNo = chunkNo;
+            this.firstLine = firstLine;
+            this.lines = lines;
+            this.numLines = numLines;
+        }
+
+        public Chunk call() throws IOException {
+            int numFields = myTupleDesc.numFields();
+            int pages = (numLines + myRecordsPerPage - 1) / myRecordsPerPage;
+            Chunk c = new Chunk(myPageSize, pages, numFields);
+            ByteBuffer buf = ByteBuffer.wrap(c.pages);
+            // seeded by position, so that a load always picks the same sample
+            Random r = new Random(chunkNo);
+            int ints[] = new int[numFields];
+            String strings[] = new String[numFields];
+
+            for (int l = 0; l < numLines; l++) {
+                String line = lines[l];
+                lines[l] = null;
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                int page = c.numTuples / myRecordsPerPage;
+                int slot = c.numTuples % myRecordsPerPage;
+                int pos = page * myPageSize + myHeaderBytes + slot * myRecordSize;
+
+                int start = 0;
+                for (int i = 0; i < numFields; i++) {
+                    int end = line.indexOf(mySeparator, start);
+                    if (i < numFields - 1 && end < 0) {
+                        throw malformed(l, line, "fewer than " + numFields + " fields");
+                    } else if (i == numFields - 1 && end >= 0) {
+                        throw malformed(l, line, "more than " + numFields + " fields");
+                    } else if (end < 0) {
+                        end = line.length();
+                    }
+                    String s = line.substring(start, end).trim();
+                    start = end + 1;
+                    if (myTupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                        try {
+                            ints[i] = Integer.parseInt(s);
+                        } catch (NumberFormatException e) {
+                            throw malformed(l, line, "bad integer \"" + s + "\"");
+                        }
+                        buf.putInt(pos, ints[i]);
+                        c.mins[i] = Math.min(c.mins[i], ints[i]);
+                        c.maxs[i] = Math.max(c.maxs[i], ints[i]);
+                    } else {
+                        if (s.length() > Type.STRING_LEN) {
+                            s = s.substring(0, Type.STRING_LEN);
+                        }
+                        strings[i] = s;
+                        buf.putInt(pos, s.length());
+                        for (int j = 0; j < s.length(); j++) {
+                            c.pages[pos + 4 + j] = (byte) s.charAt(j);
+                        }
+                    }
+                    pos += myTupleDesc.getFieldType(i).getLen();
+                }
+                c.pages[page * myPageSize + (slot >>> 3)] |= 1 << (slot & 7);
+                c.numTuples++;
+
+                double key = r.nextDouble();
+                if (c.sample.size() < SAMPLE_SIZE || key < c.sample.peek().key) {
+                    Tuple t = new Tuple(myTupleDesc);
+                    for (int i = 0; i < numFields; i++) {
+                        if (myTupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                            t.setField(i, new IntField(ints[i]));
+                        } else {
+                            t.setField(i, new StringField(strings[i], Type.STRING_LEN));
+                        }
+                    }
+                    c.sample.add(new Sample(key, t));
+                    if (c.sample.size() > SAMPLE_SIZE) {
+                        c.sample.poll();
+                    }
+                }
+            }
+            // blank lines leave room at the end
+            c.numPages = (c.numTuples + myRecordsPerPage - 1) / myRecordsPerPage;
+            return c;
+        }
+
+        private IOException malformed(int l, String line, String why) {
+            return new IOException("line " + (firstLine + l + 1) + " has " + why + ": " + line);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -26,12 +27,14 @@ public class Catalog {
         FileNames = new LinkedHashMap<Integer, String>();
         PrimaryKeyNames = new LinkedHashMap<Integer, String>();
         ReverseFileNames = new LinkedHashMap<String, Integer>();
+        IndexStorage = new LinkedHashMap<Integer, IndexFile>();
     }
 
     private LinkedHashMap<Integer, DbFile> FileStorage;
     private LinkedHashMap<Integer, String> FileNames;
     private LinkedHashMap<Integer, String> PrimaryKeyNames;
     private LinkedHashMap<String, Integer> ReverseFileNames;
+    private LinkedHashMap<Integer, IndexFile> IndexStorage;
 
     /**
      * Add a new table to the catalog.
@@ -45,6 +48,10 @@ public class Catalog {
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
         int key = file.getId();
+        DbFile previous = FileStorage.get(key);
+        if (previous != null && previous != file) {
+            closeFile(previous);
+        }
         FileStorage.put(key, file);
         FileNames.put(key, name);
         PrimaryKeyNames.put(key, pkeyField);
@@ -66,6 +73,47 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index to the catalog. Its pages can then be found through
+     * getDbFile(index.getId()) like those of a table, and BufferPool keeps
+     * it up to date as tuples are inserted into and deleted from the table
+     * index.getTableId().
+     */
+    public void addIndex(IndexFile index) {
+        IndexFile previous = IndexStorage.put(index.getId(), index);
+        if (previous != null && previous != index) {
+            closeFile(previous);
+        }
+    }
+
+    /**
+     * Returns the indexes on the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public ArrayList<IndexFile> getIndexes(int tableid) {
+        ArrayList<IndexFile> retVal = new ArrayList<IndexFile>();
+        for (IndexFile index : IndexStorage.values()) {
+            if (index.getTableId() == tableid) {
+                retVal.add(index);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns an index on the specified field of the specified table, or
+     * null if there is none.
+     */
+    public IndexFile getIndex(int tableid, int field) {
+        for (IndexFile index : IndexStorage.values()) {
+            if (index.getTableId() == tableid && index.getKeyField() == field) {
+                return index;
+            }
+        }
+        return null;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -87,28 +135,49 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        if (FileStorage.containsKey(tableid)) {
-            return FileStorage.get(tableid).getTupleDesc();
-        } else {
-            throw new NoSuchElementException("No such element.");
-        }
+        return getDbFile(tableid).getTupleDesc();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or of the specified index.
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable, or of an index passed to addIndex
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
         if (FileStorage.containsKey(tableid)) {
             return FileStorage.get(tableid);
+        } else if (IndexStorage.containsKey(tableid)) {
+            return IndexStorage.get(tableid);
         } else {
             throw new NoSuchElementException("No such element.");
         }
     }
 
+    /**
+     * Returns the page size of the specified table, as recorded by its
+     * DbFile; see the pagesize option of {@link #loadSchema}.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDbFile(tableid).getPageSize();
+    }
+
+    /**
+     * Returns the dictionary the given field of the specified table is
+     * encoded with, or null if it is stored as is; see the dict option of
+     * {@link #loadSchema}.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public StringDictionary getDictionary(int tableid, int field) throws NoSuchElementException {
+        return getTupleDesc(tableid).getDictionary(field);
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         return PrimaryKeyNames.get(tableid);
@@ -124,16 +193,66 @@ public class Catalog {
         return FileNames.get(id);
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables and indexes from the catalog, closing their backing files */
     public void clear() {
+        for (DbFile file : FileStorage.values()) {
+            closeFile(file);
+        }
+        for (DbFile file : IndexStorage.values()) {
+            closeFile(file);
+        }
+        IndexStorage.clear();
         FileNames.clear();
         PrimaryKeyNames.clear();
         FileStorage.clear();
         ReverseFileNames.clear();
     }
     
+    /** Releases any OS resources (file handles, channels) held by a DbFile. */
+    private void closeFile(DbFile file) {
+        if (file instanceof Closeable) {
+            try {
+                ((Closeable) file).close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form
+     * <pre>
+     *   name (field type [pk], field type, ...) [option ...]
+     * </pre>
+     * where the optional trailing words configure the table's storage:
+     * <ul>
+     * <li> mmap -- serve page reads from a read-only memory mapping of the file
+     * <li> pagesize=N -- the table's pages are N bytes instead of
+     *      BufferPool.PAGE_SIZE; the data file must have been written with
+     *      the same page size
+     * <li> index -- keep a B+tree index on the primary key, in name.field.idx
+     * <li> index=field -- keep a B+tree index on the given field; may be
+     *      repeated
+     * <li> hash=field -- keep a hash index on the given field, in
+     *      name.field.hash; may be repeated
+     * <li> pax -- store the table column by column, in name.pax, converted
+     *      from name.dat; see PaxFile. Can't be combined with indexes or
+     *      mmap.
+     * <li> slotted -- store strings at their actual length on slotted
+     *      pages, in name.slotted, converted from name.dat; see
+     *      SlottedFile. Can't be combined with indexes or mmap.
+     * <li> compressed -- store the table's pages compressed, in name.cdat
+     *      and its page offset index name.cdat.pages, compressed from
+     *      name.dat; see CompressedPageFile. Can't be combined with mmap,
+     *      pax or slotted.
+     * <li> dict=field -- dictionary-encode the given STRING field: pages
+     *      store a 4 byte code per value, and the dictionary is kept in
+     *      name.field.dict; may be repeated. The encoded table is written to
+     *      name.ddat from name.dat. Can't be combined with pax or slotted.
+     * </ul>
+     * An index, PAX, slotted, compressed or dictionary-encoded file that is
+     * missing or older than the table is rebuilt.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -147,6 +266,7 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -174,9 +294,80 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                boolean mmap = false;
+                boolean pax = false;
+                boolean slotted = false;
+                boolean compressed = false;
+                int pageSize = BufferPool.PAGE_SIZE;
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String> hashed = new ArrayList<String>();
+                ArrayList<String> encoded = new ArrayList<String>();
+                for (String option : options) {
+                    if (option.length() == 0)
+                        continue;
+                    if (option.toLowerCase().equals("mmap"))
+                        mmap = true;
+                    else if (option.toLowerCase().equals("pax"))
+                        pax = true;
+                    else if (option.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (option.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else if (option.toLowerCase().startsWith("pagesize="))
+                        pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                    else if (option.toLowerCase().equals("index") && primaryKey.length() > 0)
+                        indexed.add(primaryKey);
+                    else if (option.toLowerCase().startsWith("index="))
+                        indexed.add(option.substring("index=".length()));
+                    else if (option.toLowerCase().startsWith("hash="))
+                        hashed.add(option.substring("hash=".length()));
+                    else if (option.toLowerCase().startsWith("dict="))
+                        encoded.add(option.substring("dict=".length()));
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, pageSize);
+                if (encoded.size() > 0) {
+                    if (pax || slotted) {
+                        System.out.println("Invalid catalog entry : " + line + " (pax and slotted tables can't be dictionary-encoded)");
+                        System.exit(0);
+                    }
+                    tabHf = loadEncoded(tabHf, encoded, baseFolder+"/"+name);
+                }
+                if (compressed) {
+                    if (mmap || pax || slotted) {
+                        System.out.println("Invalid catalog entry : " + line + " (compressed tables can't be mmap, pax or slotted)");
+                        System.exit(0);
+                    }
+                    tabHf = loadCompressed(tabHf, new File(baseFolder+"/"+name + ".cdat"));
+                }
+                if (pax || slotted) {
+                    if (mmap || indexed.size() > 0 || hashed.size() > 0 || (pax && slotted)) {
+                        System.out.println("Invalid catalog entry : " + line + " (pax and slotted tables can't have indexes, mmap or each other)");
+                        System.exit(0);
+                    }
+                    if (slotted) {
+                        addTable(loadSlotted(tabHf, new File(baseFolder+"/"+name + ".slotted")), name, primaryKey);
+                        System.out.println("Added slotted table : " + name + " with schema " + t);
+                        continue;
+                    }
+                    addTable(loadPax(tabHf, new File(baseFolder+"/"+name + ".pax")), name, primaryKey);
+                    System.out.println("Added PAX table : " + name + " with schema " + t);
+                    continue;
+                }
+                tabHf.setMemoryMapped(mmap);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : indexed) {
+                    loadIndex(tabHf, t.fieldNameToIndex(field), new File(baseFolder+"/"+name+"."+field+".idx"), false);
+                    System.out.println("Added index : " + name + "." + field);
+                }
+                for (String field : hashed) {
+                    loadIndex(tabHf, t.fieldNameToIndex(field), new File(baseFolder+"/"+name+"."+field+".hash"), true);
+                    System.out.println("Added hash index : " + name + "." + field);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -184,7 +375,101 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NoSuchElementException e) {
+            // an index on a field the table doesn't have
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        } catch (IllegalArgumentException e) {
+            // a malformed or too small pagesize
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Opens the B+tree or hash index on the given field of table, rebuilding
+     * it if it is stale.
+     */
+    private void loadIndex(HeapFile table, int field, File f, boolean hash) throws IOException {
+        Type keyType = table.getTupleDesc().getFieldType(field);
+        if (f.exists() && f.length() > 0 && f.lastModified() >= table.getFile().lastModified()) {
+            if (hash) {
+                addIndex(new HashFile(f, table.getId(), field, keyType));
+            } else {
+                addIndex(new BTreeFile(f, table.getId(), field, keyType));
+            }
+            return;
+        }
+        try {
+            if (hash) {
+                HashFile.create(f, table, field);
+            } else {
+                BTreeFile.create(f, table, field);
+            }
+        } catch (DbException e) {
+            throw new IOException("couldn't build " + f + ": " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("couldn't build " + f + ": " + e.getMessage());
+        }
+    }
+
+    /** Opens the PAX copy of table in f, converting the table if f is stale. */
+    private PaxFile loadPax(HeapFile table, File f) throws IOException {
+        if (f.exists() && f.lastModified() >= table.getFile().lastModified()) {
+            return new PaxFile(f, table.getTupleDesc(), table.getPageSize());
+        }
+        return PaxFile.convert(table, f);
+    }
+
+    /**
+     * Opens the copy of table in base.ddat with the given fields
+     * dictionary-encoded, their dictionaries in base.field.dict; encodes the
+     * table again, with fresh dictionaries, if base.ddat is stale.
+     */
+    private HeapFile loadEncoded(HeapFile table, ArrayList<String> fields, String base) throws IOException {
+        TupleDesc td = table.getTupleDesc();
+        File f = new File(base + ".ddat");
+        boolean stale = !f.exists() || f.lastModified() < table.getFile().lastModified();
+        Type types[] = new Type[td.numFields()];
+        String names[] = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = td.getFieldName(i);
+        }
+        StringDictionary dictionaries[] = new StringDictionary[td.numFields()];
+        for (String field : fields) {
+            int i = td.fieldNameToIndex(field);
+            if (types[i] != Type.STRING_TYPE) {
+                throw new IllegalArgumentException("can't dictionary-encode non-string field " + field);
+            }
+            File dictFile = new File(base + "." + field + ".dict");
+            if (stale) {
+                dictFile.delete();
+            }
+            dictionaries[i] = new StringDictionary(dictFile);
+        }
+        TupleDesc encodedTd = new TupleDesc(types, names, dictionaries);
+        if (stale) {
+            HeapFileEncoder.dictionaryEncode(table.getFile(), f, td, encodedTd, table.getPageSize());
+        }
+        return new HeapFile(f, encodedTd, table.getPageSize());
+    }
+
+    /** Opens the compressed copy of table in f, compressing the table if f is stale. */
+    private HeapFile loadCompressed(HeapFile table, File f) throws IOException {
+        File index = CompressedPageFile.indexFile(f);
+        if (!f.exists() || !index.exists() || f.lastModified() < table.getFile().lastModified()) {
+            HeapFileEncoder.compress(table.getFile(), f, table.getPageSize());
+        }
+        return new HeapFile(f, table.getTupleDesc(), table.getPageSize(), true);
+    }
+
+    /** Opens the slotted copy of table in f, converting the table if f is stale. */
+    private SlottedFile loadSlotted(HeapFile table, File f) throws IOException {
+        if (f.exists() && f.lastModified() >= table.getFile().lastModified()) {
+            return new SlottedFile(f, table.getTupleDesc(), table.getPageSize());
         }
+        return SlottedFile.convert(table, f);
     }
 }
 
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The CLOCK approximation of LRU. Pages sit in a ring of slots, each with a
+ * reference bit that a hit sets; the hand sweeps the ring clearing bits, and
+ * evicts the first evictable page whose bit was already clear. Hits only
+ * look the page up and set its bit, so they take no lock at all.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced = true;
+
+        Entry(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Entry> myEntries = new ConcurrentHashMap<PageId, Entry>();
+    /** The ring; null where a page has left. */
+    private final ArrayList<Entry> mySlots = new ArrayList<Entry>();
+    /** Empty slots, reused before the ring grows. */
+    private final ArrayList<Integer> myFreeSlots = new ArrayList<Integer>();
+    private int myHand;
+
+    public synchronized void added(PageId pid) {
+        int slot;
+        if (myFreeSlots.isEmpty()) {
+            slot = mySlots.size();
+            mySlots.add(null);
+        } else {
+            slot = myFreeSlots.remove(myFreeSlots.size() - 1);
+        }
+        Entry e = new Entry(pid, slot);
+        mySlots.set(slot, e);
+        myEntries.put(pid, e);
+    }
+
+    public void used(PageId pid) {
+        Entry e = myEntries.get(pid);
+        if (e != null) {
+            e.referenced = true;
+        }
+    }
+
+    public synchronized void removed(PageId pid) {
+        Entry e = myEntries.remove(pid);
+        if (e != null) {
+            mySlots.set(e.slot, null);
+            myFreeSlots.add(e.slot);
+        }
+    }
+
+    public synchronized PageId victim(Candidates candidates) {
+        int n = mySlots.size();
+        /** The first time round clears the bits, so the second must find a
+         *  page if there is one. */
+        for (int i = 0; i < 2 * n; i++) {
+            if (myHand >= n) {
+                myHand = 0;
+            }
+            Entry e = mySlots.get(myHand++);
+            if (e == null) {
+                continue;
+            }
+            if (e.referenced) {
+                e.referenced = false;
+            } else if (candidates.isEvictable(e.pid)) {
+                return e.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * CompressedPageFile stores the pages of a compressed HeapFile. Each page is
+ * compressed with PageCompressor (or kept as it is if it doesn't shrink),
+ * so pages take a variable number of bytes, and a page offset index in a
+ * side file (table.dat.pages) says where each one is: for page i, the
+ * long offset and int length of its bytes in the data file. A length equal
+ * to the page size means the page is stored uncompressed.
+ * <p>
+ * A page that is rewritten goes back where it was if it still fits, and is
+ * appended to the end of the file otherwise; the space it leaves behind is
+ * only reclaimed by compressing the table again (see
+ * HeapFileEncoder#compress). Compressed tables are meant for data that is
+ * mostly scanned.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, int, boolean)
+ */
+public class CompressedPageFile implements Closeable {
+
+    /** Bytes per page offset index entry: a long offset and an int length. */
+    private static final int ENTRY_SIZE = 12;
+
+    private final File myFile;
+    private final File myIndexFile;
+    private final int myPageSize;
+
+    private RandomAccessFile myRaf;
+    private FileChannel myChannel;
+    private RandomAccessFile myIndexRaf;
+
+    private long myOffsets[];
+    private int myLengths[];
+    private int myNumPages;
+    /** Where the next appended page goes. */
+    private long myEnd;
+
+    /**
+     * Opens the compressed pages in f, whose page offset index is in
+     * f.pages. A missing file is an empty table.
+     */
+    public CompressedPageFile(File f, int pageSize) throws IOException {
+        this.myFile = f;
+        this.myIndexFile = indexFile(f);
+        this.myPageSize = pageSize;
+        this.myRaf = new RandomAccessFile(f, "rw");
+        this.myChannel = myRaf.getChannel();
+        try {
+            this.myIndexRaf = new RandomAccessFile(myIndexFile, "rw");
+            load();
+        } catch (IOException e) {
+            myRaf.close();
+            if (myIndexRaf != null) {
+                myIndexRaf.close();
+            }
+            throw e;
+        }
+    }
+
+    /** Reads the page offset index, checking every entry against the data file. */
+    private void load() throws IOException {
+        int pages = (int) (myIndexRaf.length() / ENTRY_SIZE);
+        myOffsets = new long[Math.max(pages, 16)];
+        myLengths = new int[myOffsets.length];
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(myIndexFile)));
+        try {
+            for (int i = 0; i < pages; i++) {
+                myOffsets[i] = in.readLong();
+                myLengths[i] = in.readInt();
+                if (myLengths[i] <= 0 || myLengths[i] > myPageSize
+                        || myOffsets[i] + myLengths[i] > myChannel.size()) {
+                    throw new IOException("bad entry for page " + i + " in " + myIndexFile);
+                }
+                myEnd = Math.max(myEnd, myOffsets[i] + myLengths[i]);
+            }
+        } finally {
+            in.close();
+        }
+        myNumPages = pages;
+    }
+
+    /** @return the page offset index of the compressed pages in f */
+    static File indexFile(File f) {
+        return new File(f.getPath() + ".pages");
+    }
+
+    public synchronized int numPages() {
+        return myNumPages;
+    }
+
+    /** @return the bytes the table takes on disk, pages and index together */
+    public synchronized long size() throws IOException {
+        return myChannel.size() + myIndexRaf.length();
+    }
+
+    /**
+     * Reads and decompresses page pgNo.
+     * @return the page's pageSize bytes
+     */
+    public byte[] read(int pgNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            if (pgNo < 0 || pgNo >= myNumPages) {
+                throw new EOFException("no page " + pgNo + " in " + myFile);
+            }
+            offset = myOffsets[pgNo];
+            length = myLengths[pgNo];
+        }
+        byte[] stored = new byte[length];
+        ByteBuffer buf = ByteBuffer.wrap(stored);
+        while (buf.hasRemaining()) {
+            if (myChannel.read(buf, offset + buf.position()) < 0) {
+                throw new EOFException("short read at offset " + offset);
+            }
+        }
+        if (length == myPageSize) {
+            return stored;
+        }
+        byte[] retVal = new byte[myPageSize];
+        if (PageCompressor.decompress(stored, 0, length, retVal) != myPageSize) {
+            throw new IOException("page " + pgNo + " of " + myFile + " has the wrong size");
+        }
+        return retVal;
+    }
+
+    /**
+     * Compresses and writes the first pageSize bytes of data as page pgNo,
+     * which is either an existing page or the one just past the last page.
+     */
+    public synchronized void write(int pgNo, byte[] data) throws IOException {
+        if (pgNo < 0 || pgNo > myNumPages) {
+            throw new IOException("can't write page " + pgNo + " of a "
+                    + myNumPages + " page compressed file");
+        }
+        // one byte short, so that a compressed page never looks uncompressed
+        byte[] stored = new byte[myPageSize - 1];
+        int length = PageCompressor.compress(data, myPageSize, stored);
+        if (length < 0) {
+            stored = data;
+            length = myPageSize;
+        }
+
+        long offset;
+        if (pgNo < myNumPages && length <= myLengths[pgNo]) {
+            offset = myOffsets[pgNo];
+        } else {
+            offset = myEnd;
+            myEnd += length;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(stored, 0, length);
+        while (buf.hasRemaining()) {
+            myChannel.write(buf, offset + buf.position());
+        }
+
+        // the index entry goes after the data it points to
+        if (pgNo == myNumPages) {
+            if (myNumPages == myOffsets.length) {
+                long offsets[] = new long[myNumPages * 2];
+                int lengths[] = new int[myNumPages * 2];
+                System.arraycopy(myOffsets, 0, offsets, 0, myNumPages);
+                System.arraycopy(myLengths, 0, lengths, 0, myNumPages);
+                myOffsets = offsets;
+                myLengths = lengths;
+            }
+            myNumPages++;
+        }
+        myOffsets[pgNo] = offset;
+        myLengths[pgNo] = length;
+        myIndexRaf.seek((long) pgNo * ENTRY_SIZE);
+        myIndexRaf.writeLong(offset);
+        myIndexRaf.writeInt(length);
+    }
+
+    public synchronized void close() throws IOException {
+        myRaf.close();
+        myIndexRaf.close();
+    }
+
+    /**
+     * Compresses the uncompressed HeapFile heapFile, with pages of pageSize
+     * bytes, into out and its page offset index, writing both sequentially.
+     *
+     * @return the number of pages compressed
+     */
+    static int compress(File heapFile, File out, int pageSize) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(heapFile)));
+        OutputStream data = new BufferedOutputStream(new FileOutputStream(out));
+        DataOutputStream index = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile(out))));
+        int pages = (int) (heapFile.length() / pageSize);
+        try {
+            byte[] page = new byte[pageSize];
+            byte[] stored = new byte[pageSize - 1];
+            long offset = 0;
+            for (int i = 0; i < pages; i++) {
+                in.readFully(page);
+                int length = PageCompressor.compress(page, pageSize, stored);
+                if (length < 0) {
+                    data.write(page);
+                    length = pageSize;
+                } else {
+                    data.write(stored, 0, length);
+                }
+                index.writeLong(offset);
+                index.writeInt(length);
+                offset += length;
+            }
+        } finally {
+            in.close();
+            data.close();
+            index.close();
+        }
+        return pages;
+    }
+}
@@ -54,8 +54,16 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** As resetBufferPool(int), with a budget in bytes rather than pages,
+        see {@link BufferPool#BufferPool(long)} */
+    public static BufferPool resetBufferPool(long bytes) {
+        _instance._bufferpool = new BufferPool(bytes);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._catalog.clear();
     	_instance = new Database();
     }
 
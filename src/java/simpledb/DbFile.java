@@ -84,4 +84,18 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile, including any
+     * header. Files may use different page sizes; the BufferPool accounts
+     * for each cached page by its file's page size.
+     * @return bytes per page of this DbFile.
+     */
+    public int getPageSize();
+
+    /**
+     * Returns the number of pages in this DbFile, which is what a scan of it
+     * has to read.
+     */
+    public int numPages();
 }
@@ -0,0 +1,81 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded column: the value together
+ * with its code in the column's StringDictionary. There is one
+ * DictionaryField per code, shared by every tuple that holds the value, so
+ * reading such a column allocates nothing.
+ * <p>
+ * Equality against another value of the same dictionary compares codes
+ * instead of strings, and the hash code is the string's (computed once), so
+ * DictionaryFields and plain StringFields with the same value still meet
+ * in a hash table, e.g. in a GROUP BY or a hash join.
+ */
+public class DictionaryField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient StringDictionary myDictionary;
+	private int myCode;
+	private int myHash;
+
+	/**
+	 * Constructor; see StringDictionary#field for getting the field of a
+	 * code.
+	 */
+	DictionaryField(StringDictionary dictionary, int code, String value) {
+		super(value, Type.STRING_LEN);
+		this.myDictionary = dictionary;
+		this.myCode = code;
+		this.myHash = value.hashCode();
+	}
+
+	public StringDictionary getDictionary() {
+		return myDictionary;
+	}
+
+	/** @return this value's code in getDictionary() */
+	public int getCode() {
+		return myCode;
+	}
+
+	/**
+	 * @return the code of val in this field's dictionary, without touching
+	 *   its string if it is already a field of the dictionary; -1 if the
+	 *   dictionary doesn't have it.
+	 */
+	private int codeOf(Field val) {
+		if (val instanceof DictionaryField
+				&& ((DictionaryField) val).myDictionary == myDictionary) {
+			return ((DictionaryField) val).myCode;
+		}
+		return (myDictionary == null) ? -1 : myDictionary.lookup(((StringField) val).getValue());
+	}
+
+	public int hashCode() {
+		return myHash;
+	}
+
+	public boolean equals(Object field) {
+		if (field instanceof DictionaryField
+				&& ((DictionaryField) field).myDictionary == myDictionary
+				&& myDictionary != null) {
+			return ((DictionaryField) field).myCode == myCode;
+		}
+		return super.equals(field);
+	}
+
+	/**
+	 * As StringField#compare, but EQUALS and NOT_EQUALS compare codes.
+	 */
+	public boolean compare(Predicate.Op op, Field val) {
+		if (myDictionary != null) {
+			if (op == Predicate.Op.EQUALS) {
+				return codeOf(val) == myCode;
+			} else if (op == Predicate.Op.NOT_EQUALS) {
+				return codeOf(val) != myCode;
+			}
+		}
+		return super.compare(op, val);
+	}
+}
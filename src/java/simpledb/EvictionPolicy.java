@@ -0,0 +1,42 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which page the BufferPool evicts when it needs
+ * room. The pool tells the policy about every page it caches, uses and
+ * drops; the policy keeps whatever order it needs to answer victim() in
+ * constant time, give or take the pages it has to pass over because they
+ * can't be evicted.
+ * <p>
+ * added(), removed() and victim() are called with the pool locked, but
+ * used() is called on every hit without it, by any number of threads at
+ * once, so implementations must make it thread safe and should make it
+ * cheap.
+ *
+ * @see BufferPool#newEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /** Tells the policy which of its pages can be evicted right now. */
+    public interface Candidates {
+        /** @return whether the specified page may be evicted, i.e. is clean */
+        public boolean isEvictable(PageId pid);
+    }
+
+    /** The specified page was read into the pool. */
+    public void added(PageId pid);
+
+    /** The specified page, which is in the pool, was asked for. */
+    public void used(PageId pid);
+
+    /** The specified page left the pool, evicted or discarded. */
+    public void removed(PageId pid);
+
+    /**
+     * Chooses the page to evict next. The page stays in the policy until
+     * the pool calls removed() for it.
+     *
+     * @return a page that candidates says is evictable, or null if there
+     *   is none
+     */
+    public PageId victim(Candidates candidates);
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have an empty tuple
+ * slot, so that inserts can go straight to a candidate page instead of
+ * walking (and write-locking) the file from page 0.
+ * <p>
+ * The map is only a hint. A set bit means "this page may have room"; the
+ * caller must still check the page under its lock and clear the bit when the
+ * page turns out to be full. A cleared bit means the page was full the last
+ * time anyone looked. Pages the map has never seen, e.g. because the table
+ * was written by HeapFileEncoder or grew elsewhere, count as candidates.
+ * <p>
+ * The map lives in a side file next to the table (table.dat.fsm). It is
+ * written by {@link #save} when it has changed, and it is ignored on load if
+ * the table file was modified after it was written, since then it may be
+ * out of date.
+ */
+public class FreeSpaceMap {
+
+    private final File mySideFile;
+    private final BitSet myFree;
+    /** Number of pages the map has information about. */
+    private int myPages;
+    private boolean myDirty;
+
+    /**
+     * Loads the map for the given table file, or starts with every page
+     * marked as a candidate if there is no usable side file.
+     *
+     * @param dataFile the HeapFile's backing file
+     * @param numPages the current number of pages in dataFile
+     */
+    public FreeSpaceMap(File dataFile, int numPages) {
+        this.mySideFile = new File(dataFile.getPath() + ".fsm");
+        this.myFree = new BitSet();
+        this.myPages = 0;
+        if (mySideFile.exists() && mySideFile.lastModified() >= dataFile.lastModified()) {
+            try {
+                load(numPages);
+            } catch (IOException e) {
+                myFree.clear();
+                myPages = 0;
+            }
+        }
+        grow(numPages);
+    }
+
+    private void load(int numPages) throws IOException {
+        DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mySideFile)));
+        try {
+            int pages = dis.readInt();
+            if (pages < 0 || pages > numPages) {
+                throw new IOException("free space map covers " + pages
+                        + " pages, table has " + numPages);
+            }
+            for (int i = 0; i < pages; i += 8) {
+                int b = dis.readUnsignedByte();
+                for (int j = 0; j < 8 && i + j < pages; j++) {
+                    myFree.set(i + j, (b & (1 << j)) != 0);
+                }
+            }
+            myPages = pages;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /** Marks any pages past the end of the map as candidates. */
+    private void grow(int numPages) {
+        if (numPages > myPages) {
+            myFree.set(myPages, numPages);
+            myPages = numPages;
+            myDirty = true;
+        }
+    }
+
+    /**
+     * @return the lowest page number >= from, and < numPages, that may have
+     *   a free slot, or -1 if there is none.
+     */
+    public synchronized int nextCandidate(int from, int numPages) {
+        grow(numPages);
+        int next = myFree.nextSetBit(from);
+        return (next >= numPages) ? -1 : next;
+    }
+
+    /** Records whether the specified page has at least one empty slot. */
+    public synchronized void setHasFree(int pgNo, boolean free) {
+        grow(pgNo + 1);
+        if (myFree.get(pgNo) != free) {
+            myFree.set(pgNo, free);
+            myDirty = true;
+        }
+    }
+
+    /** Writes the map to its side file if it changed since it was loaded. */
+    public synchronized void save() throws IOException {
+        if (!myDirty) {
+            return;
+        }
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mySideFile)));
+        try {
+            dos.writeInt(myPages);
+            for (int i = 0; i < myPages; i += 8) {
+                int b = 0;
+                for (int j = 0; j < 8 && i + j < myPages; j++) {
+                    if (myFree.get(i + j)) {
+                        b |= 1 << j;
+                    }
+                }
+                dos.writeByte(b);
+            }
+        } finally {
+            dos.close();
+        }
+        myDirty = false;
+    }
+}
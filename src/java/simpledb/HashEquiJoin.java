@@ -58,6 +58,7 @@ public class HashEquiJoin extends Operator {
         map.clear();
         while (child1.hasNext()) {
             t1 = child1.next();
+            t1.detach();
             ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
             if (list == null) {
                 list = new ArrayList<Tuple>();
@@ -74,6 +75,7 @@ public class HashEquiJoin extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        super.open();
         child1.open();
         child2.open();
         loadMap();
@@ -0,0 +1,605 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * HashFile is a hash index over one field of a table, for equality lookups.
+ * Like BTreeFile it is a DbFile whose HashPages are read and locked through
+ * the BufferPool, and whose tuples are the entries (key, page, slot).
+ * <p>
+ * The index uses linear hashing. With 2^level + split buckets, a key whose
+ * hash is h lives in bucket h mod 2^level, or h mod 2^(level+1) if that
+ * bucket has already been split this round. Every time an insert has to add
+ * an overflow page to a bucket, bucket number split is split in two, so the
+ * index grows one bucket at a time instead of rehashing everything at once.
+ * <p>
+ * Page 0 is the meta page. Bucket pages are allocated a splitpoint (all the
+ * buckets of one doubling) at a time, and overflow pages one at a time,
+ * both at the end of the file; spares[k] counts the overflow pages that came
+ * before the buckets of splitpoint k, so bucket b is on page
+ * 1 + b + spares[k]. Pages are never freed: an overflow page emptied by a
+ * split stays in its bucket's chain for later inserts.
+ *
+ * @see HashPage
+ */
+public class HashFile implements IndexFile, Closeable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bulk-loaded buckets are filled to this fraction of a page. */
+    static final double FILL_FACTOR = 0.75;
+    /** Pages read by a lookup: the meta page and the bucket's first page. */
+    static final int LOOKUP_PAGES = 2;
+
+    private File myFile;
+    private int myTableId;
+    private int myKeyField;
+    private TupleDesc myTupleDesc;
+    private int myPageSize;
+
+    private transient RandomAccessFile myRaf;
+    private transient FileChannel myChannel;
+    /** Number of pages in the file, or -1 if it has to be read from disk again. */
+    private transient volatile int myNumPages = -1;
+
+    /**
+     * Constructs an index backed by the specified file, which may be empty.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param tableid the table being indexed
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     * @param keyType the type of that field
+     */
+    public HashFile(File f, int tableid, int keyField, Type keyType) {
+        this(f, tableid, keyField, keyType, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * As {@link #HashFile(File, int, int, Type)}, with pages of the given size.
+     */
+    public HashFile(File f, int tableid, int keyField, Type keyType, int pageSize) {
+        if (pageSize < HashPage.META_SIZE || pageSize < HashPage.HEADER_SIZE + 2 * (keyType.getLen() + 8)) {
+            throw new IllegalArgumentException("page size " + pageSize + " too small for an index");
+        }
+        this.myFile = f;
+        this.myTableId = tableid;
+        this.myKeyField = keyField;
+        this.myPageSize = pageSize;
+        this.myTupleDesc = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" });
+    }
+
+    /**
+     * Builds a new index over the given field of a table that is already in
+     * the catalog, replacing whatever f held, and registers it with the
+     * catalog. As with BTreeFile.create, the table is read in a transaction
+     * of its own and the index is written straight to f, with enough
+     * buckets to fill them to FILL_FACTOR.
+     */
+    public static HashFile create(File f, HeapFile table, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        new FileOutputStream(f).close();
+        HashFile index = new HashFile(f, table.getId(), keyField,
+                table.getTupleDesc().getFieldType(keyField));
+        Database.getCatalog().addIndex(index);
+
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        TransactionId tid = new TransactionId();
+        try {
+            DbFileIterator it = table.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                keys.add(t.getField(keyField));
+                rids.add(t.getRecordId());
+            }
+            it.close();
+        } finally {
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+        index.bulkLoad(keys, rids);
+        return index;
+    }
+
+    /** Writes an index holding the given entries to this (empty) index. */
+    private void bulkLoad(ArrayList<Field> keys, ArrayList<RecordId> rids) throws IOException {
+        HashPage meta = newPage(0);
+        meta.makeMeta();
+        int perBucket = Math.max(1, (int) (newPage(1).capacity() * FILL_FACTOR));
+        int buckets = Math.max(1, (keys.size() + perBucket - 1) / perBucket);
+        meta.level = 31 - Integer.numberOfLeadingZeros(buckets);
+        meta.split = buckets - (1 << meta.level);
+
+        // group the entries by bucket
+        int bucketOf[] = new int[keys.size()];
+        int start[] = new int[buckets + 1];
+        for (int i = 0; i < bucketOf.length; i++) {
+            bucketOf[i] = bucketFor(meta, hash(keys.get(i)));
+            start[bucketOf[i] + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            start[b + 1] += start[b];
+        }
+        int order[] = new int[bucketOf.length];
+        int fill[] = start.clone();
+        for (int i = 0; i < bucketOf.length; i++) {
+            order[fill[bucketOf[i]]++] = i;
+        }
+
+        // reserve every bucket page; overflow pages follow them
+        extendTo(firstFreePage(meta));
+        for (int b = 0; b < buckets; b++) {
+            HashPage page = newPage(bucketPage(meta, b));
+            for (int j = start[b]; j < start[b + 1]; j++) {
+                if (!page.hasRoom()) {
+                    HashPage next = newPage(firstFreePage(meta));
+                    meta.overflowPages++;
+                    page.overflow = next.getId().pageNumber();
+                    writePage(page);
+                    page = next;
+                }
+                RecordId rid = rids.get(order[j]);
+                page.addEntry(keys.get(order[j]), rid.getPageId().pageNumber(), rid.tupleno());
+            }
+            writePage(page);
+        }
+        writePage(meta);
+    }
+
+    private HashPage newPage(int pgNo) throws IOException {
+        return new HashPage(new HashPageId(getId(), pgNo), new byte[myPageSize]);
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return myFile;
+    }
+
+    /** @return an ID uniquely identifying this index, see HeapFile#getId */
+    public int getId() {
+        return myFile.getAbsoluteFile().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return myTableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return myKeyField;
+    }
+
+    /** @return the TupleDesc of the index entries: (key, page, slot) */
+    public TupleDesc getTupleDesc() {
+        return myTupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return myPageSize;
+    }
+
+    // see IndexFile.java for javadocs
+    public int lookupPages() {
+        return LOOKUP_PAGES;
+    }
+
+    /** Only EQUALS. */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (myChannel == null || !myChannel.isOpen()) {
+            if (myRaf != null) {
+                myRaf.close();
+            }
+            myRaf = new RandomAccessFile(myFile, "rw");
+            myChannel = myRaf.getChannel();
+        }
+        return myChannel;
+    }
+
+    /** Closes the channel backing this index; it is reopened on next use. */
+    public synchronized void close() throws IOException {
+        if (myRaf != null) {
+            myRaf.close();
+        }
+        myRaf = null;
+        myChannel = null;
+        myNumPages = -1;
+    }
+
+    /** @return the number of pages in this index */
+    public int numPages() {
+        int retVal = myNumPages;
+        if (retVal < 0) {
+            synchronized (this) {
+                if (myNumPages < 0) {
+                    myNumPages = (int) (myFile.length() / myPageSize);
+                }
+                retVal = myNumPages;
+            }
+        }
+        return retVal;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[myPageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) myPageSize * pid.pageNumber();
+        try {
+            FileChannel channel = getChannel();
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, offset + buf.position());
+                if (n < 0) {
+                    throw new EOFException("short read at offset " + offset);
+                }
+            }
+            return new HashPage((HashPageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page " + pid.pageNumber()
+                    + " does not exist in " + myFile, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData(), 0, myPageSize);
+        long offset = (long) myPageSize * pgNo;
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+        page.markDirty(false, null);
+        synchronized (this) {
+            if (pgNo >= numPages()) {
+                myNumPages = pgNo + 1;
+            }
+        }
+    }
+
+    /**
+     * Makes sure the file has at least the given number of pages, appending
+     * empty bucket pages. Page numbers are handed out by the meta page, not
+     * by the file length, so pages appended for a transaction that aborts
+     * are simply handed out again.
+     */
+    private synchronized void extendTo(int pages) throws IOException {
+        FileChannel channel = getChannel();
+        for (int pgNo = numPages(); pgNo < pages; pgNo++) {
+            ByteBuffer buf = ByteBuffer.wrap(new byte[myPageSize]);
+            while (buf.hasRemaining()) {
+                channel.write(buf, (long) pgNo * myPageSize + buf.position());
+            }
+            myNumPages = pgNo + 1;
+        }
+    }
+
+    /** @return the hash of key, with its bits mixed so any mask of it is usable */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** @return the bucket that holds keys with the given hash */
+    static int bucketFor(HashPage meta, int hash) {
+        int bucket = hash & ((1 << meta.level) - 1);
+        if (bucket < meta.split) {
+            bucket = hash & ((1 << (meta.level + 1)) - 1);
+        }
+        return bucket;
+    }
+
+    /** @return the splitpoint bucket was allocated in: 0 for bucket 0, k for buckets 2^(k-1) to 2^k - 1 */
+    static int splitpoint(int bucket) {
+        return 32 - Integer.numberOfLeadingZeros(bucket);
+    }
+
+    /** @return the number of the first page of the given bucket */
+    static int bucketPage(HashPage meta, int bucket) {
+        return 1 + bucket + meta.spares[splitpoint(bucket)];
+    }
+
+    /** @return the page number the next overflow page or splitpoint gets */
+    static int firstFreePage(HashPage meta) {
+        int reserved = (meta.split == 0) ? 1 << meta.level : 1 << (meta.level + 1);
+        return 1 + reserved + meta.overflowPages;
+    }
+
+    private HashPage getHashPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(getId(), pgNo), perm);
+    }
+
+    /** Returns the meta page, writing the meta page and bucket 0 of a new file first. */
+    private HashPage getMeta(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if (numPages() == 0) {
+            synchronized (this) {
+                if (numPages() == 0) {
+                    try {
+                        HashPage meta = newPage(0);
+                        meta.makeMeta();
+                        extendTo(firstFreePage(meta));
+                        writePage(meta);
+                    } catch (IOException e) {
+                        throw new DbException("couldn't create meta page of " + myFile + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return getHashPage(tid, 0, perm);
+    }
+
+    /** Hands out a new page, which the caller links into a chain. */
+    private HashPage allocatePage(TransactionId tid, HashPage meta, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = firstFreePage(meta);
+        meta.overflowPages++;
+        extendTo(pgNo + 1);
+        HashPage page = getHashPage(tid, pgNo, Permissions.READ_WRITE);
+        page.clearEntries();
+        page.overflow = 0;
+        page.markDirty(true, tid);
+        dirtied.add(page);
+        return page;
+    }
+
+    /**
+     * Adds an entry for the tuple with the given key and RecordId. If the
+     * key's bucket is full, it gets an overflow page and the next bucket in
+     * line is split.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        HashPage meta = getMeta(tid, Permissions.READ_ONLY);
+        HashPage page = getHashPage(tid, bucketPage(meta, bucketFor(meta, hash(key))), Permissions.READ_WRITE);
+        while (!page.hasRoom() && page.overflow != 0) {
+            page = getHashPage(tid, page.overflow, Permissions.READ_WRITE);
+        }
+        if (!page.hasRoom()) {
+            // pages are marked dirty before anything else is fetched, so the
+            // BufferPool can't evict them while they are being changed
+            page.markDirty(true, tid);
+            dirtied.add(page);
+            meta = getMeta(tid, Permissions.READ_WRITE);
+            meta.markDirty(true, tid);
+            dirtied.add(meta);
+            HashPage extra = allocatePage(tid, meta, dirtied);
+            page.overflow = extra.getId().pageNumber();
+            extra.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+            split(tid, meta, dirtied);
+            return dirtied;
+        }
+        page.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+        page.markDirty(true, tid);
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    /**
+     * Splits bucket meta.split: its entries that belong in the new bucket
+     * 2^level + split under the next level's hash move there. The meta page
+     * must already be marked dirty.
+     */
+    private void split(TransactionId tid, HashPage meta, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        if (meta.split == 0) {
+            if (meta.level + 1 >= HashPage.MAX_SPLITPOINTS) {
+                return;
+            }
+            // a new round: reserve all of its bucket pages
+            meta.spares[meta.level + 1] = meta.overflowPages;
+            extendTo(1 + (1 << (meta.level + 1)) + meta.overflowPages);
+        }
+        int oldBucket = meta.split;
+        int newBucket = (1 << meta.level) + oldBucket;
+        int mask = (1 << (meta.level + 1)) - 1;
+        // advance the split pointer first, so that overflow pages allocated
+        // below go after this round's reserved bucket pages
+        meta.split++;
+        if (meta.split == 1 << meta.level) {
+            meta.level++;
+            meta.split = 0;
+        }
+
+        ArrayList<HashPage> chain = new ArrayList<HashPage>();
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        int pgNo = bucketPage(meta, oldBucket);
+        while (pgNo != 0) {
+            HashPage page = getHashPage(tid, pgNo, Permissions.READ_WRITE);
+            for (int i = 0; i < page.getNumEntries(); i++) {
+                keys.add(page.keys[i]);
+                pages.add(page.ridPages[i]);
+                slots.add(page.ridSlots[i]);
+            }
+            page.clearEntries();
+            page.markDirty(true, tid);
+            dirtied.add(page);
+            chain.add(page);
+            pgNo = page.overflow;
+        }
+
+        HashPage target = getHashPage(tid, bucketPage(meta, newBucket), Permissions.READ_WRITE);
+        target.clearEntries();
+        target.overflow = 0;
+        target.markDirty(true, tid);
+        dirtied.add(target);
+        int kept = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if ((hash(keys.get(i)) & mask) == oldBucket) {
+                if (!chain.get(kept).hasRoom()) {
+                    kept++;
+                }
+                chain.get(kept).addEntry(keys.get(i), pages.get(i), slots.get(i));
+            } else {
+                if (!target.hasRoom()) {
+                    HashPage extra = allocatePage(tid, meta, dirtied);
+                    target.overflow = extra.getId().pageNumber();
+                    target = extra;
+                }
+                target.addEntry(keys.get(i), pages.get(i), slots.get(i));
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for the tuple with the given key and RecordId.
+     *
+     * @return the modified page
+     * @throws DbException if the index has no such entry
+     */
+    public Page deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        int ridPage = rid.getPageId().pageNumber();
+        int ridSlot = rid.tupleno();
+        HashPage meta = getMeta(tid, Permissions.READ_ONLY);
+        int pgNo = bucketPage(meta, bucketFor(meta, hash(key)));
+        while (pgNo != 0) {
+            HashPage page = getHashPage(tid, pgNo, Permissions.READ_ONLY);
+            int pos = page.find(key, ridPage, ridSlot);
+            if (pos >= 0) {
+                page = getHashPage(tid, pgNo, Permissions.READ_WRITE);
+                page.removeEntry(pos);
+                page.markDirty(true, tid);
+                return page;
+            }
+            pgNo = page.overflow;
+        }
+        throw new DbException("no index entry for " + key + " at " + rid);
+    }
+
+    /**
+     * Adds the entry for tuple t, an index entry tuple (key, page, slot).
+     * Indexes are normally maintained through BufferPool.insertTuple, see
+     * {@link #insertEntry}.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertEntry(tid, t.getField(0), entryRecordId(t));
+    }
+
+    /**
+     * Removes the entry for tuple t, an index entry tuple (key, page, slot).
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        return deleteEntry(tid, t.getField(0), entryRecordId(t));
+    }
+
+    private RecordId entryRecordId(Tuple t) {
+        return new RecordId(new HeapPageId(myTableId, t.getInt(1)), t.getInt(2));
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("a hash index can't answer " + op);
+        }
+        return new EntryIterator(tid, operand);
+    }
+
+    /** Returns an iterator over all entries (key, page, slot), bucket by bucket. */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null);
+    }
+
+    /**
+     * Walks the chains of the buckets that may hold matches, copying each
+     * page's matching entries out when it is reached.
+     */
+    private class EntryIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        /** Key to look up, or null for all entries. */
+        private final Field operand;
+
+        private ArrayList<Tuple> buffered;
+        private int pos;
+        /** Next page of the current chain, or 0 at the end of it. */
+        private int nextPage;
+        private int nextBucket;
+        private int lastBucket;
+        private HashPage meta;
+
+        EntryIterator(TransactionId tid, Field operand) {
+            this.tid = tid;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            buffered = new ArrayList<Tuple>();
+            pos = 0;
+            meta = getMeta(tid, Permissions.READ_ONLY);
+            if (operand != null) {
+                nextBucket = bucketFor(meta, hash(operand));
+                lastBucket = nextBucket;
+            } else {
+                nextBucket = 0;
+                lastBucket = (1 << meta.level) + meta.split - 1;
+            }
+            nextPage = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (buffered == null) {
+                return false;
+            }
+            while (pos >= buffered.size()) {
+                if (nextPage == 0) {
+                    if (nextBucket > lastBucket) {
+                        return false;
+                    }
+                    nextPage = bucketPage(meta, nextBucket++);
+                }
+                HashPage page = getHashPage(tid, nextPage, Permissions.READ_ONLY);
+                buffered.clear();
+                pos = 0;
+                for (int i = 0; i < page.getNumEntries(); i++) {
+                    if (operand == null || page.keys[i].equals(operand)) {
+                        Tuple t = new Tuple(myTupleDesc);
+                        t.setField(0, page.keys[i]);
+                        t.setField(1, new IntField(page.ridPages[i]));
+                        t.setField(2, new IntField(page.ridSlots[i]));
+                        buffered.add(t);
+                    }
+                }
+                nextPage = page.overflow;
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return buffered.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            buffered = null;
+        }
+    }
+}
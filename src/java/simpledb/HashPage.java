@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of HashPage stores one page of a HashFile: either the meta
+ * page (always page 0), which holds the state of the linear hashing scheme,
+ * or a bucket page, which holds unsorted (key, RecordId) entries and the
+ * number of the next page in the bucket's overflow chain.
+ * <p>
+ * On disk a bucket page is laid out as
+ * <pre>
+ *   byte    page type (0 = bucket, 1 = meta)
+ *   int     number of entries
+ *   int     next overflow page number (0 = none)
+ *   entries key, RecordId page number, RecordId slot
+ * </pre>
+ * so an all-zero page is an empty bucket, and the meta page as
+ * <pre>
+ *   byte    page type
+ *   int     level, split, number of overflow pages
+ *   int[32] spares
+ * </pre>
+ * see HashFile for what these mean.
+ *
+ * @see HashFile
+ */
+public class HashPage implements Page {
+
+    static final int BUCKET = 0;
+    static final int META = 1;
+    static final int HEADER_SIZE = 1 + 4 + 4;
+    /** Bucket numbers have at most 31 bits, so there are at most 32 splitpoints. */
+    static final int MAX_SPLITPOINTS = 32;
+    static final int META_SIZE = 1 + 3 * 4 + MAX_SPLITPOINTS * 4;
+
+    HashPageId pid;
+    Type keyType;
+    int pageSize;
+    boolean meta;
+
+    // bucket pages
+    int numEntries;
+    int overflow;
+    Field keys[];
+    int ridPages[];
+    int ridSlots[];
+
+    // the meta page
+    int level;
+    int split;
+    int overflowPages;
+    int spares[];
+
+    byte[] oldData;
+    private TransactionId myDirtyTransactionId;
+
+    /**
+     * Create a HashPage from a set of bytes of data read from disk, in the
+     * format described above. The key type and page size are those of the
+     * index in the catalog.
+     */
+    public HashPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(0);
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.spares = new int[MAX_SPLITPOINTS];
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        try {
+            meta = buf.get() == META;
+            if (meta) {
+                level = buf.getInt();
+                split = buf.getInt();
+                overflowPages = buf.getInt();
+                for (int i = 0; i < MAX_SPLITPOINTS; i++) {
+                    spares[i] = buf.getInt();
+                }
+                keys = new Field[0];
+                ridPages = new int[0];
+                ridSlots = new int[0];
+            } else {
+                numEntries = buf.getInt();
+                overflow = buf.getInt();
+                if (numEntries < 0 || numEntries > capacity()) {
+                    throw new IOException("bad entry count " + numEntries + " on " + id);
+                }
+                keys = new Field[capacity()];
+                ridPages = new int[capacity()];
+                ridSlots = new int[capacity()];
+                for (int i = 0; i < numEntries; i++) {
+                    keys[i] = keyType.parse(buf);
+                    ridPages[i] = buf.getInt();
+                    ridSlots[i] = buf.getInt();
+                }
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("couldn't parse " + id + ": " + e.getMessage());
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("short page: " + data.length + " bytes");
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on a bucket page */
+    int capacity() {
+        return (pageSize - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    /** @return the key of entry i */
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return true if another entry fits on this bucket page */
+    boolean hasRoom() {
+        return numEntries < capacity();
+    }
+
+    /** Adds an entry to this bucket page, which must have room. */
+    void addEntry(Field key, int page, int slot) {
+        keys[numEntries] = key;
+        ridPages[numEntries] = page;
+        ridSlots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /** @return the position of the given entry on this page, or -1 */
+    int find(Field key, int page, int slot) {
+        for (int i = 0; i < numEntries; i++) {
+            if (ridPages[i] == page && ridSlots[i] == slot && keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Removes entry pos; the last entry takes its place. */
+    void removeEntry(int pos) {
+        numEntries--;
+        keys[pos] = keys[numEntries];
+        ridPages[pos] = ridPages[numEntries];
+        ridSlots[pos] = ridSlots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /** Removes all entries, keeping the overflow chain. */
+    void clearEntries() {
+        java.util.Arrays.fill(keys, null);
+        numEntries = 0;
+    }
+
+    /** Turns this page into a meta page for an index with a single bucket. */
+    void makeMeta() {
+        meta = true;
+        clearEntries();
+        overflow = 0;
+        level = 0;
+        split = 0;
+        overflowPages = 0;
+        java.util.Arrays.fill(spares, 0);
+    }
+
+    public HashPage getBeforeImage() {
+        try {
+            return new HashPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            if (meta) {
+                dos.writeByte(META);
+                dos.writeInt(level);
+                dos.writeInt(split);
+                dos.writeInt(overflowPages);
+                for (int i = 0; i < MAX_SPLITPOINTS; i++) {
+                    dos.writeInt(spares[i]);
+                }
+            } else {
+                dos.writeByte(BUCKET);
+                dos.writeInt(numEntries);
+                dos.writeInt(overflow);
+                for (int i = 0; i < numEntries; i++) {
+                    keys[i].serialize(dos);
+                    dos.writeInt(ridPages[i]);
+                    dos.writeInt(ridSlots[i]);
+                }
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.myDirtyTransactionId = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.myDirtyTransactionId;
+    }
+}
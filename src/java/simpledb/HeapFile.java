@@ -1,7 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -13,10 +17,36 @@ import java.util.*;
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
 
     private TupleDesc myTupleDesc;
     private File myFile;
+    /** Bytes per page of this file, including header. */
+    private int myPageSize;
+
+    /** Long-lived handle on the backing file; opened lazily, see getChannel(). */
+    private transient RandomAccessFile myRaf;
+    private transient FileChannel myChannel;
+
+    /** When set, readPage serves pages out of a read-only mapping of the file. */
+    private boolean myMemoryMapped;
+    private transient volatile MappedByteBuffer myMapping;
+    /** Held shared while a page is copied out of myMapping, and exclusively
+        while the file is truncated, which would leave it past the end. */
+    private final ReentrantReadWriteLock myMappingLock = new ReentrantReadWriteLock();
+
+    /** Set if pages are stored compressed, see CompressedPageFile. */
+    private boolean myCompressed;
+    private transient CompressedPageFile myCompressedPages;
+
+    /** Number of pages in the file, or -1 if it has to be read from disk again. */
+    private transient volatile int myNumPages = -1;
+
+    /** Pages that may have an empty slot; loaded lazily, see getFreeSpaceMap(). */
+    private transient FreeSpaceMap myFreeSpace;
+
+    /** Per-page bounds of the INT columns; loaded lazily, see getZoneMap(). */
+    private transient ZoneMap myZoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,8 +57,74 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of the
+     * given size. The file must have been written with the same page size,
+     * see HeapFileEncoder.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param pageSize
+     *            bytes per page, including header
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < td.getSize() + 1) {
+            throw new IllegalArgumentException("page size " + pageSize
+                    + " cannot hold a single tuple of " + td.getSize() + " bytes");
+        }
         this.myTupleDesc = td;
         this.myFile = f;
+        this.myPageSize = pageSize;
+        this.myNumPages = -1;
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of the
+     * given size, which may be compressed. A compressed file holds
+     * variable-size compressed pages located through a page offset index
+     * beside it, see CompressedPageFile and HeapFileEncoder#compress; pages
+     * are compressed by writePage and decompressed by readPage, so nothing
+     * above the file notices. Compressed files can't be memory mapped.
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize, boolean compressed) {
+        this(f, td, pageSize);
+        this.myCompressed = compressed;
+    }
+
+    /** @return true if this file's pages are stored compressed */
+    public boolean isCompressed() {
+        return this.myCompressed;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return this.myPageSize;
+    }
+
+    /**
+     * Switches this file between plain channel reads and memory-mapped reads.
+     * In mapped mode readPage copies pages straight out of the OS page
+     * cache, without a read system call; writes always go through the
+     * channel, and the mapping is extended lazily once pages are appended
+     * past its end.
+     */
+    public synchronized void setMemoryMapped(boolean mapped) {
+        if (mapped && myCompressed) {
+            throw new IllegalStateException("compressed files can't be memory mapped");
+        }
+        this.myMemoryMapped = mapped;
+        if (!mapped) {
+            this.myMapping = null;
+        }
+    }
+
+    /** @return true if readPage is served from a memory mapping. */
+    public boolean isMemoryMapped() {
+        return this.myMemoryMapped;
     }
 
     /**
@@ -65,47 +161,219 @@ public class HeapFile implements DbFile {
         return this.myTupleDesc;
     }
 
+    /**
+     * Returns the channel used for all page I/O on this file, (re)opening it
+     * if it has not been opened yet or was closed underneath us (e.g. by
+     * close() or by an interrupted reader).
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (myChannel == null || !myChannel.isOpen()) {
+            if (myRaf != null) {
+                myRaf.close();
+            }
+            myRaf = new RandomAccessFile(this.myFile, "rw");
+            myChannel = myRaf.getChannel();
+        }
+        return myChannel;
+    }
+
+    /** Returns the compressed pages of this file, opening them if need be. */
+    private synchronized CompressedPageFile getCompressedPages() throws IOException {
+        if (myCompressedPages == null) {
+            myCompressedPages = new CompressedPageFile(this.myFile, this.myPageSize);
+        }
+        return myCompressedPages;
+    }
+
+    /** Returns the free space map of this file, loading it on first use. */
+    synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (myFreeSpace == null) {
+            myFreeSpace = new FreeSpaceMap(this.myFile, this.numPages());
+        }
+        return myFreeSpace;
+    }
+
+    /** Returns the zone map of this file, loading it on first use. */
+    synchronized ZoneMap getZoneMap() {
+        if (myZoneMap == null) {
+            myZoneMap = new ZoneMap(this.myFile, this.myTupleDesc, this.numPages());
+        }
+        return myZoneMap;
+    }
+
+    /**
+     * Closes the channel backing this file and any dictionaries its fields
+     * are encoded with, and saves its free space map and zone map. The
+     * file stays usable; the next page access simply reopens it.
+     */
+    public synchronized void close() throws IOException {
+        if (myFreeSpace != null) {
+            myFreeSpace.save();
+        }
+        if (myZoneMap != null) {
+            myZoneMap.save();
+            // reloaded on next use, so that changes made to the file while we
+            // are closed make it stale
+            myZoneMap = null;
+        }
+        if (myRaf != null) {
+            myRaf.close();
+        }
+        if (myCompressedPages != null) {
+            myCompressedPages.close();
+        }
+        for (int i = 0; i < myTupleDesc.numFields(); i++) {
+            if (myTupleDesc.getDictionary(i) != null) {
+                myTupleDesc.getDictionary(i).close();
+            }
+        }
+        myRaf = null;
+        myChannel = null;
+        myMapping = null;
+        myCompressedPages = null;
+        // the file may be changed by someone else while we are closed
+        myNumPages = -1;
+    }
+
+    /**
+     * Returns a read-only view of one page of the mapped file, or null if the
+     * page lies beyond what can be mapped. Remaps the file when the page is
+     * past the end of the current mapping, i.e. after the file has grown.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        long offset = (long) myPageSize * pgNo;
+        long end = offset + myPageSize;
+        MappedByteBuffer mapping = myMapping;
+        if (mapping == null || end > mapping.capacity()) {
+            mapping = remap();
+            if (end > mapping.capacity()) {
+                return null;
+            }
+        }
+        ByteBuffer page = mapping.duplicate();
+        page.limit((int) end);
+        page.position((int) offset);
+        return page.slice();
+    }
+
+    /**
+     * Copies page pgNo out of the mapping. The page isn't decoded in place:
+     * writePage rewrites the mapped bytes under any tuple still reading
+     * them, and a truncate leaves them past the end of the file.
+     *
+     * @return false if the page lies beyond what can be mapped
+     */
+    private boolean readMapped(int pgNo, byte[] buf) throws IOException {
+        myMappingLock.readLock().lock();
+        try {
+            ByteBuffer mapped = mappedPage(pgNo);
+            if (mapped == null) {
+                return false;
+            }
+            mapped.get(buf);
+            return true;
+        } finally {
+            myMappingLock.readLock().unlock();
+        }
+    }
+
+    private synchronized MappedByteBuffer remap() throws IOException {
+        FileChannel channel = getChannel();
+        // a single mapping can address at most 2GB; pages past that are
+        // read through the channel instead
+        long size = Math.min(channel.size(), Integer.MAX_VALUE);
+        size -= size % myPageSize;
+        myMapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return myMapping;
+    }
+
+    /** Reads exactly buf.remaining() bytes starting at offset. */
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, offset);
+            if (n < 0) {
+                throw new EOFException("short read at offset " + offset);
+            }
+            offset += n;
+        }
+    }
+
+    /** Writes all of buf.remaining() bytes starting at offset. */
+    private void writeFully(ByteBuffer buf, long offset) throws IOException {
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            offset += channel.write(buf, offset);
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        HeapPage retVal = null;
+        long offset = (long) myPageSize * pid.pageNumber();
         try {
-            FileInputStream f = new FileInputStream(this.myFile);
-            int offset = BufferPool.PAGE_SIZE*pid.pageNumber();
-            byte[] read_in = new byte[BufferPool.PAGE_SIZE];
-            f.skip(offset);
-            f.read(read_in);
-            HeapPageId casted_pid = (HeapPageId) pid;
-            retVal = new HeapPage(casted_pid, read_in);
+            if (myCompressed) {
+                return new HeapPage((HeapPageId) pid, getCompressedPages().read(pid.pageNumber()));
+            }
+            byte[] read_in = new byte[myPageSize];
+            if (!myMemoryMapped || !readMapped(pid.pageNumber(), read_in)) {
+                readFully(ByteBuffer.wrap(read_in), offset);
+            }
+            return new HeapPage((HeapPageId) pid, read_in);
         } catch (IOException e) {
-            //who cares
+            throw new IllegalArgumentException("page " + pid.pageNumber()
+                    + " does not exist in " + this.myFile, e);
         }
-        return retVal;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
-
-        /** STILL NEED TO DO THIS SHIT */
-        int pagina = page.getId().pageNumber();
-        int offset = pagina * BufferPool.PAGE_SIZE;
-        byte[] writeData = new byte[BufferPool.PAGE_SIZE];
-        writeData = page.getPageData();
-        RandomAccessFile f = new RandomAccessFile(this.myFile, "rw");
-        f.seek(offset);
-        f.write(writeData, 0, BufferPool.PAGE_SIZE);
-        f.close();
+        int pgNo = page.getId().pageNumber();
+        // loading the zone map deletes a side file saved before this write
+        getZoneMap();
+        writePageData(pgNo, page.getPageData());
         page.markDirty(false, null);
+        // recovery may write pages past the end of the file
+        synchronized (this) {
+            if (pgNo >= numPages()) {
+                myNumPages = pgNo + 1;
+            }
+        }
+    }
+
+    /** Writes the first pageSize bytes of data as page pgNo. */
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        if (myCompressed) {
+            getCompressedPages().write(pgNo, data);
+        } else {
+            writeFully(ByteBuffer.wrap(data, 0, myPageSize), (long) myPageSize * pgNo);
+        }
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. The count is read from
+     * the file system once and then maintained in memory by the methods
+     * that extend the file.
      */
     public int numPages() {
         // some code goes here
-        int retVal = (int) Math.ceil(myFile.length()/BufferPool.PAGE_SIZE);
+        int retVal = myNumPages;
+        if (retVal < 0) {
+            synchronized (this) {
+                if (myNumPages < 0 && myCompressed) {
+                    try {
+                        myNumPages = getCompressedPages().numPages();
+                    } catch (IOException e) {
+                        throw new RuntimeException("couldn't open " + myFile, e);
+                    }
+                } else if (myNumPages < 0) {
+                    myNumPages = (int) (myFile.length() / myPageSize);
+                }
+                retVal = myNumPages;
+            }
+        }
         return retVal;
     }
 
@@ -115,31 +383,49 @@ public class HeapFile implements DbFile {
         // some code goes here
         BufferPool bPool = Database.getBufferPool();
         ArrayList<Page> retVal = new ArrayList<Page>();
-        for (int i = 0; i < this.numPages(); i++) {
-            HeapPage getPage = (HeapPage) bPool.getPage(tid, new HeapPageId(this.getId(), i), Permissions.READ_WRITE);
-            if (getPage.getNumEmptySlots() > 0) {
-                getPage.insertTuple(t);
-                retVal.add(getPage);
-                return retVal;
-            }
-        }
+        FreeSpaceMap freeSpace = getFreeSpaceMap();
+        ZoneMap zoneMap = getZoneMap();
+        int numPages = this.numPages();
 
+        /** Only visit pages the free space map says may have room. If none
+         *  of them does, append an empty page (which is then a candidate)
+         *  and go around again. */
+        while (true) {
+            for (int i = freeSpace.nextCandidate(0, numPages); i >= 0;
+                    i = freeSpace.nextCandidate(i + 1, numPages)) {
+                HeapPageId pid = new HeapPageId(this.getId(), i);
+                boolean heldBefore = bPool.holdsLock(tid, pid);
+                HeapPage getPage = (HeapPage) bPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (getPage.getNumEmptySlots() > 0) {
+                    getPage.insertTuple(t);
+                    zoneMap.include(i, t);
+                    if (getPage.getNumEmptySlots() == 0) {
+                        freeSpace.setHasFree(i, false);
+                    }
+                    retVal.add(getPage);
+                    return retVal;
+                }
 
-        /** Or we append shit. */
-        HeapPageId pid = new HeapPageId(this.getId(), this.numPages());
-        HeapPage newPage = new HeapPage(pid, HeapPage.createEmptyPageData());
-        newPage.insertTuple(t);
-        /* Find free page and retrieve it. */
-
-        /** WRITE THAT SHIT. */
-        RandomAccessFile f = new RandomAccessFile(this.myFile, "rw");
-        f.seek(this.numPages() * BufferPool.PAGE_SIZE);
-        f.write(newPage.getPageData(), 0, BufferPool.PAGE_SIZE);
-        f.close();
-        // not necessary for proj1
+                /** Stale hint: the page is full. We only looked at it, so let
+                 *  other transactions have it back. */
+                freeSpace.setHasFree(i, false);
+                if (!heldBefore) {
+                    bPool.releasePage(tid, pid);
+                }
+            }
 
-        retVal.add(newPage);
-        return retVal;
+            /** Or we append shit. The new page goes to disk empty; the tuple
+             *  is added to it through the BufferPool like any other insert,
+             *  so it is locked, logged and rolled back normally. */
+            synchronized (this) {
+                numPages = this.numPages();
+                writePageData(numPages, HeapPage.createEmptyPageData(myPageSize));
+                numPages++;
+                myNumPages = numPages;
+            }
+            freeSpace.setHasFree(numPages - 1, true);
+            zoneMap.setEmpty(numPages - 1);
+        }
     }
 
 
@@ -153,48 +439,368 @@ public class HeapFile implements DbFile {
         HeapPage page = (HeapPage) bPool.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
         page.markDirty(true, tid);
+        getFreeSpaceMap().setHasFree(rid.getPageId().pageNumber(), true);
+        getZoneMap().setStale(rid.getPageId().pageNumber());
         return page;
         // not necessary for proj1
     }
 
+    /**
+     * Fetches the tuple with the given RecordId, e.g. one found through an
+     * index, reading its page with a shared lock.
+     * @return the tuple, or null if its slot is empty
+     */
+    public Tuple getTuple(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        return page.getTuple(rid.tupleno());
+    }
+
+    /** Milliseconds compaction waits for a lock before it gives up and leaves
+     *  the page to the transaction holding it. */
+    private static final long COMPACT_LOCK_TIMEOUT = 300;
+
+    /**
+     * Compacts this file while other transactions keep using it: tuples on
+     * the pages at the end of the file are moved into empty slots on the
+     * pages before them, and the pages that end up empty are cut off the
+     * file, so later scans don't read them.
+     * <p>
+     * Each tail page is emptied in a transaction of its own, which locks
+     * pages through the BufferPool like any other. A moved tuple gets a new
+     * RecordId, and the entries of any indexes on the table are moved with
+     * it. If a transaction is aborted (say, to break a deadlock with a live
+     * one, or because a page stayed locked for more than
+     * COMPACT_LOCK_TIMEOUT), compaction stops there and only the pages
+     * emptied so far are reclaimed; running it again picks up where it
+     * left off.
+     *
+     * @return the number of pages reclaimed
+     * @throws DbException if the file is compressed, whose pages don't
+     *   have fixed offsets to truncate at
+     */
+    public int compact() throws DbException, IOException {
+        if (myCompressed) {
+            throw new DbException("can't compact compressed file " + myFile);
+        }
+        BufferPool bPool = Database.getBufferPool();
+        FreeSpaceMap freeSpace = getFreeSpaceMap();
+        int numPages = this.numPages();
+        int keep = pagesNeeded(numPages);
+        if (keep < 0) {
+            return 0;
+        }
+
+        /** Keep inserts off the pages we are about to empty. This is only a
+         *  hint, so emptiness is checked again before truncating. */
+        for (int i = keep; i < numPages; i++) {
+            freeSpace.setHasFree(i, false);
+        }
+        int emptied = numPages;
+        while (emptied > keep) {
+            TransactionId tid = new TransactionId();
+            boolean moved = false;
+            try {
+                moved = moveTuples(tid, emptied - 1, keep);
+            } catch (TransactionAbortedException e) {
+                // fall through; the moves of this page are rolled back
+            } finally {
+                bPool.transactionComplete(tid, moved);
+            }
+            if (!moved) {
+                break;
+            }
+            emptied--;
+        }
+        int retVal = truncate(numPages, emptied);
+        freeSpace.save();
+        return retVal;
+    }
+
+    /**
+     * @return how many pages the tuples in the first numPages pages of this
+     *   file fit on, or -1 if that many pages are in use anyway or some page
+     *   could not be read
+     */
+    private int pagesNeeded(int numPages) throws IOException {
+        BufferPool bPool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        int tuples = 0;
+        int slots = 0;
+        try {
+            for (int i = 0; i < numPages; i++) {
+                HeapPage page = (HeapPage) bPool.getPage(tid,
+                        new HeapPageId(this.getId(), i), Permissions.READ_ONLY, COMPACT_LOCK_TIMEOUT);
+                tuples += page.numSlots - page.getNumEmptySlots();
+                slots = page.numSlots;
+            }
+        } catch (DbException e) {
+            return -1;
+        } catch (TransactionAbortedException e) {
+            return -1;
+        } finally {
+            bPool.transactionComplete(tid, false);
+        }
+        int retVal = (slots == 0) ? 0 : (tuples + slots - 1) / slots;
+        return (retVal < numPages) ? retVal : -1;
+    }
+
+    /**
+     * Moves every tuple on page pgNo into an empty slot on the first keep
+     * pages of the file, as part of transaction tid.
+     * @return true if page pgNo is now empty, false if the first keep pages
+     *   ran out of room (which other transactions' inserts can cause)
+     */
+    private boolean moveTuples(TransactionId tid, int pgNo, int keep)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bPool = Database.getBufferPool();
+        FreeSpaceMap freeSpace = getFreeSpaceMap();
+        ZoneMap zoneMap = getZoneMap();
+        HeapPageId pid = new HeapPageId(this.getId(), pgNo);
+        int target = freeSpace.nextCandidate(0, keep);
+        for (int slot = 0; ; slot++) {
+            /** Fetched again each time: the page may have been evicted while
+             *  it was still clean. */
+            HeapPage page = (HeapPage) bPool.getPage(tid, pid, Permissions.READ_WRITE,
+                    COMPACT_LOCK_TIMEOUT);
+            if (slot >= page.numSlots) {
+                return true;
+            }
+            Tuple t = page.getTuple(slot);
+            if (t == null) {
+                continue;
+            }
+
+            Tuple copy = new Tuple(myTupleDesc);
+            for (int i = 0; i < myTupleDesc.numFields(); i++) {
+                copy.setField(i, t.getField(i));
+            }
+
+            HeapPageId toPid = null;
+            while (target >= 0) {
+                toPid = new HeapPageId(this.getId(), target);
+                HeapPage to = (HeapPage) bPool.getPage(tid, toPid, Permissions.READ_WRITE,
+                        COMPACT_LOCK_TIMEOUT);
+                if (to.getNumEmptySlots() > 0) {
+                    break;
+                }
+                freeSpace.setHasFree(target, false);
+                target = freeSpace.nextCandidate(target + 1, keep);
+            }
+            if (target < 0) {
+                return false;
+            }
+
+            /** Removes the tuple's index entries, too. The tail page is
+             *  dirty from here on, so it stays put in the BufferPool; the
+             *  target page is fetched again for the same reason as above. */
+            bPool.deleteTuple(tid, t);
+            freeSpace.setHasFree(pgNo, false);
+            HeapPage to = (HeapPage) bPool.getPage(tid, toPid, Permissions.READ_WRITE);
+            to.insertTuple(copy);
+            to.markDirty(true, tid);
+            zoneMap.include(target, copy);
+            if (to.getNumEmptySlots() == 0) {
+                freeSpace.setHasFree(target, false);
+            }
+            for (IndexFile index : Database.getCatalog().getIndexes(this.getId())) {
+                index.insertEntry(tid, copy.getField(index.getKeyField()), copy.getRecordId());
+            }
+        }
+    }
+
+    /**
+     * Cuts the empty pages at the end of the file off, down to keep pages,
+     * provided the file still has numPages pages.
+     * @return the number of pages cut off
+     */
+    private int truncate(int numPages, int keep) throws IOException {
+        BufferPool bPool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        int retVal = 0;
+        try {
+            /** Exclusive locks on the tail pages make sure nobody is using
+             *  them; a tuple inserted since they were emptied keeps its page
+             *  and every page before it. */
+            int end = numPages;
+            while (end > keep) {
+                HeapPage page = (HeapPage) bPool.getPage(tid,
+                        new HeapPageId(this.getId(), end - 1), Permissions.READ_WRITE,
+                        COMPACT_LOCK_TIMEOUT);
+                if (page.getNumEmptySlots() != page.numSlots) {
+                    break;
+                }
+                end--;
+            }
+            if (end == numPages) {
+                return 0;
+            }
+            for (int i = end; i < numPages; i++) {
+                bPool.discardPage(new HeapPageId(this.getId(), i));
+            }
+            myMappingLock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    /** A page appended in the meantime sits past the ones we
+                     *  hold locks on; leave the file alone. */
+                    if (this.numPages() != numPages) {
+                        return 0;
+                    }
+                    getChannel().truncate((long) myPageSize * end);
+                    myNumPages = end;
+                    myMapping = null;
+                }
+            } finally {
+                myMappingLock.writeLock().unlock();
+            }
+            retVal = numPages - end;
+        } catch (DbException e) {
+            // leave the file as it is
+        } catch (TransactionAbortedException e) {
+            // ditto
+        } finally {
+            bPool.transactionComplete(tid, false);
+        }
+        return retVal;
+    }
+
+    /** Page advances a scan must make in order before read-ahead kicks in. */
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /**
+     * Decides whether a full scan of this file should read through a
+     * ScanRing: it should if the file is larger than the pool, so that
+     * caching it would flush the whole pool and still not save the next
+     * scan a single read.
+     *
+     * @return a new ring for a scan of this file, or null
+     */
+    BufferPool.ScanRing newScanRing(BufferPool pool) {
+        if ((long) numPages() * myPageSize <= pool.getMaxBytes()) {
+            return null;
+        }
+        return pool.newScanRing(myPageSize);
+    }
+
     // TOOK WAY TOO FRIGGEN LONG TO WRITE JESUS CHRIST
-    public class InternalIterator implements DbFileIterator {
+    public class InternalIterator implements DbFileIterator, PagePrefetcher.Cursor {
         
         public InternalIterator(HeapFile h, TransactionId tid) {
+            this(h, tid, new ArrayList<Predicate>());
+        }
+
+        /**
+         * An iterator that skips the pages whose zone map shows they can't
+         * hold a tuple satisfying all of pagePredicates. Tuples on the pages
+         * it does read are returned whether they satisfy them or not.
+         */
+        public InternalIterator(HeapFile h, TransactionId tid, List<Predicate> pagePredicates) {
             this.myFile = h;
             this.transactionId = tid;
             this.openForSale = false;
+            this.pagePredicates = pagePredicates;
         }
         
         private TransactionId transactionId;
         private HeapFile myFile;
-        private int current_page;
+        private volatile int current_page;
         private boolean openForSale;
         private HeapPageId current_heapPageId;
         private HeapPage current_heapPage;
         private Iterator<Tuple> current_iterator;
+        private List<Predicate> pagePredicates;
+        /** The ring the scan reads into if the file is large, see newScanRing. */
+        private BufferPool.ScanRing ring;
+
+        /** Consecutive page advances seen; read-ahead starts once this
+            reaches SEQUENTIAL_THRESHOLD. */
+        private int sequentialRun;
+        /** Highest page number already handed to read-ahead. */
+        private int prefetchedThrough;
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            boolean retVal = false;
             if (!openForSale) { return false; }
-            if (current_iterator.hasNext()) {
+            /** Empty pages, and pages the zone map rules out, are passed
+             *  over until one has a tuple. */
+            while (!current_iterator.hasNext()) {
+                int pgNo = nextPage(current_page + 1);
+                if (pgNo < 0) {
+                    return false;
+                }
+                this.upThePage(pgNo);
+            }
+            return true;
+        }
+
+        /** @return the first page at or after pgNo that may have a match, or -1 */
+        private int nextPage(int pgNo) {
+            int numPages = myFile.numPages();
+            for (; pgNo < numPages; pgNo++) {
+                if (mayMatch(pgNo)) {
+                    return pgNo;
+                }
+            }
+            return -1;
+        }
+
+        private boolean mayMatch(int pgNo) {
+            if (pagePredicates.isEmpty()) {
                 return true;
             }
-            if (current_page < myFile.numPages()-1) {
-                this.upThePage();
-                retVal = current_iterator.hasNext();
+            ZoneMap zoneMap = myFile.getZoneMap();
+            for (Predicate p : pagePredicates) {
+                if (!zoneMap.mayMatch(pgNo, p)) {
+                    return false;
+                }
             }
-            return retVal;
+            return true;
         }
 
-        public void upThePage() throws DbException, TransactionAbortedException {
-            current_page++;
+        /**
+         * Moves the scan onto pgNo. The caller passes the page nextPage
+         * found rather than having it looked up again, since the zone map
+         * can narrow or the file shrink in between.
+         */
+        public void upThePage(int pgNo) throws DbException, TransactionAbortedException {
+            current_page = pgNo;
+            sequentialRun++;
+            readAhead();
             current_heapPageId = new HeapPageId(myFile.getId(), current_page);
-            current_heapPage = (HeapPage) Database.getBufferPool().getPage(transactionId, current_heapPageId, Permissions.READ_ONLY);
+            current_heapPage = (HeapPage) Database.getBufferPool().getPage(transactionId, current_heapPageId, Permissions.READ_ONLY, ring);
             current_iterator = current_heapPage.iterator();
+
+            /** Pages without uncommitted changes can be summarized exactly. */
+            ZoneMap zoneMap = myFile.getZoneMap();
+            if (zoneMap.needsSummary(current_page) && current_heapPage.isDirty() == null) {
+                zoneMap.summarize(current_heapPage);
+            }
+        }
+
+        /**
+         * Once the scan has moved through a few pages in order, keep reads
+         * of the next getReadAheadPages() pages it will read queued to the
+         * I/O threads.
+         */
+        private void readAhead() {
+            int depth = PagePrefetcher.getReadAheadPages();
+            if (depth <= 0 || sequentialRun < SEQUENTIAL_THRESHOLD) {
+                return;
+            }
+            int last = Math.min(current_page + depth, myFile.numPages() - 1);
+            BufferPool pool = Database.getBufferPool();
+            for (int p = Math.max(prefetchedThrough, current_page) + 1; p <= last; p++) {
+                if (mayMatch(p)) {
+                    PagePrefetcher.prefetch(pool, new HeapPageId(myFile.getId(), p), this, ring);
+                }
+            }
+            prefetchedThrough = Math.max(prefetchedThrough, last);
         }
         
+        public int currentPage() {
+            return current_page;
+        }
+
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
             if (hasNext()) { return current_iterator.next(); } else { throw new NoSuchElementException("Sorry."); }
@@ -207,10 +813,13 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            this.current_page = 0;
-            this.current_heapPageId = new HeapPageId(myFile.getId(), current_page);
-            this.current_heapPage = (HeapPage) Database.getBufferPool().getPage(transactionId, current_heapPageId, Permissions.READ_ONLY);
-            this.current_iterator = current_heapPage.iterator();
+            this.current_page = -1;
+            this.sequentialRun = 0;
+            this.prefetchedThrough = 0;
+            this.current_heapPageId = null;
+            this.current_heapPage = null;
+            this.current_iterator = Collections.<Tuple>emptyList().iterator();
+            this.ring = myFile.newScanRing(Database.getBufferPool());
             this.openForSale = true;
         }
 
@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -28,27 +31,38 @@ public class HeapFileEncoder {
    * @param numFields the number of fields in each input tuple
    * @throws IOException if the temporary/output file can't be opened
    */
-  public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-      File tempInput = File.createTempFile("tempTable", ".txt");
-      tempInput.deleteOnExit();
-      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-      for (ArrayList<Integer> tuple : tuples) {
-          int writtenFields = 0;
-          for (Integer field : tuple) {
-              writtenFields++;
-              if (writtenFields > numFields) {
+  public static void convert(final ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, final int numFields) throws IOException {
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      // the tuples are handed to the loader as lines one at a time, rather
+      // than all written out to a temporary text file first
+      new BulkLoader(ts, npagebytes, ',').load(new Iterator<String>() {
+          private int next = 0;
+
+          public boolean hasNext() {
+              return next < tuples.size();
+          }
+
+          public String next() {
+              ArrayList<Integer> tuple = tuples.get(next++);
+              if (tuple.size() > numFields) {
                   throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
                           Utility.listToString(tuple) + ")");
               }
-              bw.write(String.valueOf(field));
-              if (writtenFields < numFields) {
-                  bw.write(',');
+              StringBuilder sb = new StringBuilder();
+              for (Integer field : tuple) {
+                  if (sb.length() > 0) {
+                      sb.append(',');
+                  }
+                  sb.append(field);
               }
+              return sb.toString();
           }
-          bw.write('\n');
-      }
-      bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+
+          public void remove() {
+              throw new UnsupportedOperationException();
+          }
+      }, outFile);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -76,10 +90,12 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. The input is parsed and laid out in parallel, see
+    * BulkLoader, which can also gather the table's statistics.
     *
     * @see HeapPage
     * @see HeapFile
+    * @see BulkLoader
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
@@ -90,137 +106,106 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      new BulkLoader(Arrays.copyOf(typeAr, numFields), npagebytes, fieldSeparator)
+          .load(inFile, outFile);
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
+  /** Compress a page file written by convert, for use as a compressed
+   * HeapFile. <br>
+   *
+   * Every page is compressed with PageCompressor and written to outFile
+   * back to back, along with the page offset index that locates them
+   * (outFile.pages); inFile is left as it is.
+   *
+   * @see CompressedPageFile
+   * @see HeapFile#HeapFile(File, TupleDesc, int, boolean)
+   * @param inFile The page file to compress
+   * @param outFile The output file to write compressed pages to
+   * @param npagebytes The number of bytes per page in inFile
+   * @return the number of pages compressed
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static int compress(File inFile, File outFile, int npagebytes) throws IOException {
+      return CompressedPageFile.compress(inFile, outFile, npagebytes);
+  }
 
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+  /** Dictionary-encode a page file written by convert. <br>
+   *
+   * Reads the tuples of inFile, laid out as plainTd, and writes them to
+   * outFile laid out as encodedTd, the same schema with some STRING fields
+   * dictionary-encoded: those fields are written as their code in the
+   * field's dictionary, which gets a new code for every value it hasn't
+   * seen. Tuples are packed into as few pages as they fit in.
+   *
+   * @see TupleDesc#getDictionary
+   * @param inFile The page file to encode
+   * @param outFile The output file to write encoded pages to
+   * @param plainTd The schema of inFile, without dictionaries
+   * @param encodedTd The schema of outFile
+   * @param npagebytes The number of bytes per page in both files
+   * @return the number of pages written
+   * @throws IOException if the input/output file or a dictionary can't be
+   *   read or written
+   */
+  public static int dictionaryEncode(File inFile, File outFile, TupleDesc plainTd,
+                 TupleDesc encodedTd, int npagebytes) throws IOException {
+      int inSize = plainTd.getSize();
+      int inRecords = (npagebytes * 8) / (inSize * 8 + 1);
+      int inHeaderBytes = (inRecords + 7) / 8;
+      int outSize = encodedTd.getSize();
+      int outRecords = (npagebytes * 8) / (outSize * 8 + 1);
+      int outHeaderBytes = (outRecords + 7) / 8;
 
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
+      DataInputStream is = new DataInputStream(
+              new BufferedInputStream(new FileInputStream(inFile)));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      byte[] page = new byte[npagebytes];
+      ByteBuffer pageBuf = ByteBuffer.wrap(page);
+      byte[] outPage = new byte[npagebytes];
+      ByteBuffer outBuf = ByteBuffer.wrap(outPage);
+      int recordcount = 0;
+      int npages = 0;
+      try {
+          long inPages = inFile.length() / npagebytes;
+          for (long p = 0; p < inPages; p++) {
+              is.readFully(page);
+              for (int slot = 0; slot < inRecords; slot++) {
+                  if ((page[slot >>> 3] & (1 << (slot & 7))) == 0)
+                      continue;
+                  int inPos = inHeaderBytes + slot * inSize;
+                  int outPos = outHeaderBytes + recordcount * outSize;
+                  Tuple t = new Tuple(plainTd, pageBuf, inPos);
+                  for (int i = 0; i < plainTd.numFields(); i++) {
+                      StringDictionary dictionary = encodedTd.getDictionary(i);
+                      if (dictionary != null) {
+                          outBuf.putInt(outPos, dictionary.encode(t.getField(i)));
+                          outPos += Type.INT_TYPE.getLen();
+                      } else {
+                          int len = plainTd.getFieldType(i).getLen();
+                          System.arraycopy(page, inPos + plainTd.getOffset(i), outPage, outPos, len);
+                          outPos += len;
+                      }
+                  }
+                  outPage[recordcount >>> 3] |= 1 << (recordcount & 7);
+                  recordcount++;
 
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+                  if (recordcount == outRecords) {
+                      os.write(outPage);
+                      Arrays.fill(outPage, (byte) 0);
+                      recordcount = 0;
+                      npages++;
+                  }
+              }
+          }
+          // as in convert, an empty table still gets one (empty) page
+          if (recordcount > 0 || npages == 0) {
+              os.write(outPage);
+              npages++;
+          }
+      } finally {
+          is.close();
+          os.close();
+      }
+      return npages;
   }
 }
@@ -3,6 +3,7 @@ package simpledb;
 import java.util.*;
 import java.io.*;
 import java.lang.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -16,10 +17,23 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    /** Slot bitmap: bit (i % 64) of header[i / 64] is set if slot i is in
+        use. Same bit order as the header bytes on disk. */
+    long header[];
+    /** Length of the header on disk, in bytes. */
+    int headerSize;
     Tuple tuples[];
     int numSlots;
+    /** Bytes per page of this page's table, see Catalog#getPageSize. */
+    int pageSize;
 
+    /** The page as it was read (or last snapshotted by setBeforeImage).
+        Used slots whose entry in tuples[] is null are read from here, also
+        by the Tuples handed out for them, so it is never written to. */
+    ByteBuffer raw;
+
+    /** Before image, copied from raw when the page is first modified; null
+        while the page still matches raw. */
     byte[] oldData;
 
     /**
@@ -27,39 +41,64 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the table's page size, {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see Catalog#getPageSize
+     * <p>
+     * Tuples are not decoded here: the page keeps a reference to data and
+     * the Tuples it returns read their fields from it, so data must not be
+     * modified afterwards.
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding one page worth of bytes, in the
+     * same format as {@link #HeapPage(HeapPageId, byte[])}. Fields are read
+     * straight out of the buffer, which must not change as long as the page
+     * or its tuples are around; so it can't be a slice of a mapped file,
+     * which writes go to. The buffer's position is advanced past the page.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        if (data.remaining() < header_plus_slots()) {
+            throw new IOException("short page: " + data.remaining() + " bytes");
+        }
+        this.raw = data.slice();
+        data.position(data.position() + Math.min(data.remaining(), pageSize));
 
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        // allocate and read the header slots of this page
+        headerSize = getHeaderSize();
+        header = new long[(numSlots + 63) / 64];
+        for (int i = 0; i < headerSize; i++) {
+            header[i >>> 3] |= (raw.get(i) & 0xFFL) << ((i & 7) * 8);
+        }
+        // ignore whatever is in the padding bits after the last slot
+        if (numSlots % 64 != 0) {
+            header[header.length - 1] &= (1L << numSlots) - 1;
         }
-        dis.close();
 
-        setBeforeImage();
+        // the actual records are read on demand, see tupleAt()
+        tuples = new Tuple[numSlots];
+        oldData = null;
+    }
+
+    /** @return the number of bytes occupied by the header and the tuple slots */
+    private int header_plus_slots() {
+        return getHeaderSize() + numSlots * td.getSize();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -67,8 +106,8 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        int tuple_size = Database.getCatalog().getTupleDesc(this.pid.getTableId()).getSize();
-        int retVal = (int) Math.floor((BufferPool.PAGE_SIZE*8) / (tuple_size * 8 + 1));
+        int tuple_size = this.td.getSize();
+        int retVal = (pageSize*8) / (tuple_size * 8 + 1);
         return retVal;
 
     }
@@ -81,7 +120,7 @@ public class HeapPage implements Page {
         
         // some code goes here
         int num_tuple_slots = this.getNumTuples();
-        int retVal = (int) Math.ceil(num_tuple_slots / (float) 8);
+        int retVal = (num_tuple_slots + 7) / 8;
         return retVal;
                  
     }
@@ -90,7 +129,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, oldData != null ? oldData : rawBytes());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -100,7 +139,29 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        // an unmodified page already is its own before image
+        if (oldData != null) {
+            raw = ByteBuffer.wrap(getPageData());
+            oldData = null;
+            // every used slot can be read from the new raw bytes
+            tuples = new Tuple[numSlots];
+        }
+    }
+
+    /** @return a private copy of the bytes this page was built from */
+    private byte[] rawBytes() {
+        byte[] copy = new byte[pageSize];
+        ByteBuffer view = raw.duplicate();
+        view.position(0);
+        view.get(copy, 0, Math.min(copy.length, view.remaining()));
+        return copy;
+    }
+
+    /** Saves the before image ahead of the first change to this page. */
+    private void snapshot() {
+        if (oldData == null) {
+            oldData = rawBytes();
+        }
     }
 
     /**
@@ -112,37 +173,30 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     * Tuples that were inserted into this page are returned as is; the rest
+     * are read straight out of the raw page bytes, see
+     * {@link Tuple#Tuple(TupleDesc, ByteBuffer, int)}.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null && isSlotUsed(slotId)) {
+            t = new Tuple(td, raw, headerSize + slotId * td.getSize());
+            t.setRecordId(new RecordId(pid, slotId));
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty;
+     * see {@link #iterator} for the lifetime of the returned tuple.
+     * @throws NoSuchElementException if there is no such slot
+     */
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots) {
+            throw new NoSuchElementException("no slot " + slotId + " on " + pid);
         }
-
-        return t;
+        return tupleAt(slotId);
     }
 
     /**
@@ -157,14 +211,19 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
+        // nothing has changed since the page was read
+        if (oldData == null) {
+            return rawBytes();
+        }
+
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
+        for (int i=0; i<headerSize; i++) {
             try {
-                dos.writeByte(header[i]);
+                dos.writeByte((int) (header[i >>> 3] >>> ((i & 7) * 8)));
             } catch (IOException e) {
                 // this really shouldn't happen
                 e.printStackTrace();
@@ -187,11 +246,30 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot that was never decoded: copy its bytes as is
+            if (tuples[i] == null) {
+                byte[] slot = new byte[td.getSize()];
+                ByteBuffer view = raw.duplicate();
+                view.position(headerSize + i * td.getSize());
+                view.get(slot);
+                try {
+                    dos.write(slot);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
+            // non-empty slot; dictionary-encoded fields are written as their code
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    StringDictionary dictionary = td.getDictionary(j);
+                    if (dictionary != null) {
+                        dos.writeInt(dictionary.encode(f));
+                    } else {
+                        f.serialize(dos);
+                    }
                 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -200,7 +278,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (headerSize + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -227,7 +305,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * As {@link #createEmptyPageData()}, for a table with the given page
+     * size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        int len = pageSize;
         return new byte[len]; //all 0
     }
 
@@ -250,22 +336,43 @@ public class HeapPage implements Page {
         if (rid.getPageId() != this.pid) {
             throw new DbException("Boooo!");
         }
+        this.snapshot();
         this.markSlotUsed(slotID, false);
         this.tuples[slotID] = null;
     }
 
     private int nextFreeSlot() throws DbException {
-        for (int i = 0; i < header.length; i++) {
-            for (int within_slot = 0; within_slot < 8; within_slot++) {
-                int actualSlotNum = (i * 8) + within_slot;
-                if (!isSlotUsed(actualSlotNum)) {
-                    return actualSlotNum;
+        for (int w = 0; w < header.length; w++) {
+            long free = ~header[w];
+            if (free != 0) {
+                int slot = w * 64 + Long.numberOfTrailingZeros(free);
+                if (slot < numSlots) {
+                    return slot;
                 }
             }
         }
         throw new DbException("No free slots.");
     }
 
+    /**
+     * @return the first used slot at or after from, or -1 if there is none
+     */
+    private int nextUsedSlot(int from) {
+        int w = from >>> 6;
+        if (w >= header.length) {
+            return -1;
+        }
+        // the bits of the first word below from don't count
+        long used = header[w] & (-1L << from);
+        while (used == 0) {
+            if (++w == header.length) {
+                return -1;
+            }
+            used = header[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(used);
+    }
+
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
@@ -278,6 +385,8 @@ public class HeapPage implements Page {
         // not necessary for lab1
         
         int freeSlotId = this.nextFreeSlot();
+        this.snapshot();
+        t.detach();
         this.tuples[freeSlotId] = t;
         this.markSlotUsed(freeSlotId, true);
         RecordId newRID = new RecordId(this.pid, freeSlotId);
@@ -318,10 +427,8 @@ public class HeapPage implements Page {
         // some code goes here
 
         int retVal = this.numSlots;
-        for (int i=0; i < this.numSlots; i++) {
-            if (isSlotUsed(i)) {
-                retVal--;
-            }
+        for (int w = 0; w < header.length; w++) {
+            retVal -= Long.bitCount(header[w]);
         }
         return retVal;
     }
@@ -331,9 +438,10 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        int header_slot = (int) Math.floor(i/(float) 8);
-        int within_slot = i%8;
-        return ( header[header_slot] & (byte)(1L << within_slot) ) != 0;
+        if (i < 0 || i >= numSlots) {
+            return false;
+        }
+        return (header[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
@@ -342,17 +450,11 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        int header_slot = (int) Math.floor(i/(float) 8);
-        int within_slot = i%8;
-        byte where_header = header[header_slot];
-        int answer = 0;
         if (value) {
-            answer = 1 << within_slot;
-            answer = where_header | answer;
+            header[i >>> 6] |= 1L << i;
         } else {
-            answer = where_header & ~(1 << within_slot);
+            header[i >>> 6] &= ~(1L << i);
         }
-        header[header_slot] = (byte) answer;
     }
 
     /**
@@ -363,22 +465,20 @@ public class HeapPage implements Page {
         // some code goes here
         Iterator<Tuple> it = new Iterator<Tuple>() {
 
-            int current_index = 0;
-            int tuple_size = tuples.length;
+            int current_index = nextUsedSlot(0);
 
             @Override
             public boolean hasNext() {
-                boolean retVal = false;
-                if (current_index < tuple_size && tuples[current_index] != null) {
-                    retVal = true;
-                }
-                return retVal;
+                return current_index >= 0;
             }
             
             @Override
             public Tuple next() {
-                Tuple retVal = tuples[current_index];
-                current_index++;
+                if (current_index < 0) {
+                    throw new NoSuchElementException();
+                }
+                Tuple retVal = tupleAt(current_index);
+                current_index = nextUsedSlot(current_index + 1);
                 return retVal;
             }
 
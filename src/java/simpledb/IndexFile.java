@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The interface for secondary indexes on disk. An index is a DbFile of its
+ * own whose tuples are entries (key, page, slot): the value of one field of
+ * a tuple of the indexed table, and that tuple's RecordId. Indexes are
+ * registered with {@link Catalog#addIndex}; BufferPool then keeps them in
+ * sync with their table, and {@link IndexScan} reads a table through them.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ */
+public interface IndexFile extends DbFile {
+    /** @return the id of the indexed table */
+    public int getTableId();
+
+    /** @return the index of the indexed field in the table's TupleDesc */
+    public int getKeyField();
+
+    /** @return true if {@link #indexIterator} can answer predicates with op */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * @return the number of pages a lookup reads before it reaches the first
+     *   matching entry; used by the planner to cost index scans
+     */
+    public int lookupPages();
+
+    /**
+     * Adds an entry for the tuple with the given key and RecordId, locking
+     * the index pages it changes through the BufferPool.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Removes the entry for the tuple with the given key and RecordId.
+     *
+     * @return the modified page
+     * @throws DbException if the index has no such entry
+     */
+    public Page deleteEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns an iterator over the entries (key, page, slot) whose key
+     * satisfies "key op operand".
+     *
+     * @throws IllegalArgumentException if !supports(op)
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand);
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by looking them up in a
+ * {@link IndexFile} rather than reading the whole table. Tuples come out in
+ * key order for a BTreeFile, and in no particular order for a HashFile.
+ * <p>
+ * It is a SeqScan over the indexed table as far as the rest of the plan is
+ * concerned: it has the same TupleDesc and table name.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a scan of the tuples t of the indexed table for which
+     * "t.getField(index.getKeyField()) op operand" holds.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in.
+     * @param op
+     *            an operator the index supports, see IndexFile#supports.
+     * @param operand
+     *            the value to compare the indexed field with.
+     * @param tableAlias
+     *            the alias of the indexed table, see SeqScan.
+     * @throws IllegalArgumentException if the index can't answer op
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate.Op op, Field operand,
+            String tableAlias) {
+        super(tid, index.getTableId(), tableAlias);
+        if (!index.supports(op)) {
+            throw new IllegalArgumentException("an index can't answer " + op);
+        }
+        this.myTid = tid;
+        this.myIndex = index;
+        this.myOp = op;
+        this.myOperand = operand;
+    }
+
+    private TransactionId myTid;
+    private IndexFile myIndex;
+    private Predicate.Op myOp;
+    private Field myOperand;
+    private HeapFile myTable;
+    private DbFileIterator myEntries;
+    /** Tuple to be returned by the next call to next(), once found. */
+    private Tuple myNext;
+
+    /** @return the index this scan reads */
+    public IndexFile getIndex() {
+        return myIndex;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.myTable = (HeapFile) Database.getCatalog().getDbFile(myIndex.getTableId());
+        this.myEntries = myIndex.indexIterator(myTid, myOp, myOperand);
+        this.myEntries.open();
+        this.myNext = null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        while (myNext == null && myEntries != null && myEntries.hasNext()) {
+            Tuple entry = myEntries.next();
+            RecordId rid = new RecordId(new HeapPageId(myTable.getId(), entry.getInt(1)), entry.getInt(2));
+            myNext = myTable.getTuple(myTid, rid);
+        }
+        return myNext != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple retVal = myNext;
+        myNext = null;
+        return retVal;
+    }
+
+    public void close() {
+        if (myEntries != null) {
+            myEntries.close();
+        }
+        myEntries = null;
+        myNext = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        myEntries.rewind();
+        myNext = null;
+    }
+}
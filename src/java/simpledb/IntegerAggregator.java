@@ -56,21 +56,21 @@ public class IntegerAggregator implements Aggregator {
         if (this.myGbField == Aggregator.NO_GROUPING)  {
             key = null; /** No one really cares what the hell this is. */
         } else {
-            field = tup.getField(this.myGbField);
-                    /** Need to cast field in order to get its value. It's either int or String. */
-            if (field.getType() == Type.INT_TYPE) {
-                IntField intfield = (IntField) field;
-                key = intfield.getValue();
+                    /** Ints are grouped by value. Strings are grouped by the field
+                     *  itself, so that the values of a dictionary-encoded column
+                     *  are hashed and compared by code. */
+            if (tup.getTupleDesc().getFieldType(this.myGbField) == Type.INT_TYPE) {
+                key = tup.getInt(this.myGbField);
             } else {
-                StringField stringfield = (StringField) field;
-                key = stringfield.getValue();
+                field = tup.getField(this.myGbField);
+                key = field;
             }
         }
 
 
 
         /** We are getting the "incoming" value. */
-        int incoming_value = ((IntField) tup.getField(this.myAField)).getValue();
+        int incoming_value = tup.getInt(this.myAField);
         
         int value_so_far;
         if (!this.myAggregates.containsKey(key)) {
@@ -148,7 +148,7 @@ public class IntegerAggregator implements Aggregator {
             if (this.myGbField == Aggregator.NO_GROUPING) {
                 groupBy = new IntField(0); /** Nobody cares. */
             } else if (this.myGbFieldType == Type.STRING_TYPE) {
-                groupBy = new StringField((String) obj, this.myGbFieldType.getLen());
+                groupBy = (Field) obj;
             } else /**Then we have a string. */ {
                 groupBy = new IntField((Integer) obj);
             }
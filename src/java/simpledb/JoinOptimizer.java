@@ -267,6 +267,11 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
 
+        /** Single-table queries: nothing to order. */
+        if (joins.isEmpty()) {
+            return joins;
+        }
+
         PlanCache planCache = new PlanCache();
 
         /** Go through all the joins. */
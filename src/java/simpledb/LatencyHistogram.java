@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with power-of-two buckets: bucket 0 counts
+ * latencies under 1 microsecond, and bucket i > 0 those from 2^(i-1) up to
+ * 2^i microseconds. Recording is lock free, so it can be done on every I/O.
+ *
+ * @see PageReader
+ */
+public class LatencyHistogram {
+
+    public static final int NUM_BUCKETS = 32;
+
+    private final AtomicLongArray myCounts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong myTotalNanos = new AtomicLong();
+
+    /** Counts one latency of the given number of nanoseconds. */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        myCounts.incrementAndGet(bucket);
+        myTotalNanos.addAndGet(nanos);
+    }
+
+    /** @return the number of latencies in bucket i */
+    public long getCount(int i) {
+        return myCounts.get(i);
+    }
+
+    /** @return the number of latencies recorded */
+    public long getCount() {
+        long retVal = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            retVal += myCounts.get(i);
+        }
+        return retVal;
+    }
+
+    /** @return the upper bound of bucket i, in microseconds */
+    public static long getBucketLimit(int i) {
+        return 1L << i;
+    }
+
+    /** @return the mean latency in microseconds, or 0 if there are none */
+    public double getMean() {
+        long n = getCount();
+        return (n == 0) ? 0 : myTotalNanos.get() / 1e3 / n;
+    }
+
+    /**
+     * @return the upper bound, in microseconds, of the bucket the given
+     *   fraction (say 0.99) of latencies fall at or below
+     */
+    public long getPercentile(double fraction) {
+        long n = getCount();
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += myCounts.get(i);
+            if (seen > 0 && seen >= fraction * n) {
+                return getBucketLimit(i);
+            }
+        }
+        return 0;
+    }
+
+    /** @return the count, mean and percentiles, then the non-empty buckets */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d, mean %.1f us, p50 < %d us, p99 < %d us",
+                getCount(), getMean(), getPercentile(0.5), getPercentile(0.99)));
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (myCounts.get(i) > 0) {
+                sb.append(" [<").append(getBucketLimit(i)).append("us: ")
+                        .append(myCounts.get(i)).append("]");
+            }
+        }
+        return sb.toString();
+    }
+}
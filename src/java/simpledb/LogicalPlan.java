@@ -334,11 +334,38 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+
+            /** The first filter on an indexed field of a base table is
+             *  answered by the cheapest index that can, if that is cheaper
+             *  than a scan that skips the pages the zone map rules out. */
+            IndexFile index = null;
+            if (subplan.getClass() == SeqScan.class) {
+                double best = s.estimateScanCost(p.getField(), lf.p, f);
+                for (IndexFile candidate : Database.getCatalog().getIndexes(this.getTableId(lf.tableAlias))) {
+                    if (candidate.getKeyField() == p.getField() && candidate.supports(lf.p)
+                            && s.estimateIndexScanCost(sel, candidate) < best) {
+                        index = candidate;
+                        best = s.estimateIndexScanCost(sel, candidate);
+                    }
+                }
+            }
+            if (index != null) {
+                subplanMap.put(lf.tableAlias, new IndexScan(t, index, lf.p, f, lf.tableAlias));
+            } else {
+                /** Filters on INT fields also go down to the scan under
+                 *  them, which uses them to skip pages. */
+                DbIterator scan = subplan;
+                while (scan instanceof Filter) {
+                    scan = ((Filter) scan).getChildren()[0];
+                }
+                if (scan instanceof SeqScan && ftyp == Type.INT_TYPE) {
+                    ((SeqScan) scan).addPagePredicate(p);
+                }
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
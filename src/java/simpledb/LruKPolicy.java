@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K (O'Neil et al.): evicts the page whose K-th most recent use is
+ * oldest. Pages used fewer than K times since they were read in go first,
+ * least recently used first, so a page touched once by a scan doesn't push
+ * out one that is looked up again and again.
+ * <p>
+ * Pages are kept ordered by their K-th most recent use in a TreeSet, which
+ * makes used() and victim() take O(log n) rather than O(1): a use moves a
+ * page to a place in the order that depends on its history, which no list
+ * can find in constant time. Hits synchronize on the policy.
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        /** The times of the last K uses, most recent at last % K. */
+        final long history[];
+        int uses;
+
+        Entry(PageId pid, int k) {
+            this.pid = pid;
+            this.history = new long[k];
+        }
+
+        /** @return the time of the K-th most recent use, or -1 if there were fewer */
+        long kthUse() {
+            return uses < history.length ? -1 : history[uses % history.length];
+        }
+
+        long lastUse() {
+            return history[(uses - 1) % history.length];
+        }
+    }
+
+    private static final Comparator<Entry> BY_KTH_USE = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            if (a.kthUse() != b.kthUse()) {
+                return a.kthUse() < b.kthUse() ? -1 : 1;
+            }
+            // uses are numbered, so last uses differ between pages
+            long al = a.lastUse();
+            long bl = b.lastUse();
+            return al < bl ? -1 : (al == bl ? 0 : 1);
+        }
+    };
+
+    private final int myK;
+    private final HashMap<PageId, Entry> myEntries = new HashMap<PageId, Entry>();
+    private final TreeSet<Entry> myOrder = new TreeSet<Entry>(BY_KTH_USE);
+    /** A logical clock, ticking once per use. */
+    private long myTime;
+
+    /** @param k the number of uses to remember per page; 1 makes this plain LRU */
+    public LruKPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.myK = k;
+    }
+
+    public int getK() {
+        return myK;
+    }
+
+    /** Records a use of e, which must not be in myOrder. */
+    private void use(Entry e) {
+        e.history[e.uses % myK] = myTime++;
+        e.uses++;
+    }
+
+    public synchronized void added(PageId pid) {
+        Entry e = new Entry(pid, myK);
+        use(e);
+        myEntries.put(pid, e);
+        myOrder.add(e);
+    }
+
+    public synchronized void used(PageId pid) {
+        Entry e = myEntries.get(pid);
+        if (e != null) {
+            myOrder.remove(e);
+            use(e);
+            myOrder.add(e);
+        }
+    }
+
+    public synchronized void removed(PageId pid) {
+        Entry e = myEntries.remove(pid);
+        if (e != null) {
+            myOrder.remove(e);
+        }
+    }
+
+    public synchronized PageId victim(Candidates candidates) {
+        for (Entry e : myOrder) {
+            if (candidates.isEvictable(e.pid)) {
+                return e.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCompressor is a small LZ77 codec in the style of LZF, used to store
+ * the pages of compressed HeapFiles. It only finds repeats within the last
+ * 8KB, but needs no dictionary, no native code and one pass over the page,
+ * and it does well on what heap pages are mostly made of: zero padding
+ * after short strings, empty slots and small ints.
+ * <p>
+ * The output is a sequence of runs, each starting with a control byte c:
+ * <ul>
+ * <li> c &lt; 32: c + 1 literal bytes follow.
+ * <li> otherwise: a copy of earlier output. Its length is (c &gt;&gt; 5) + 2,
+ *      or if c &gt;&gt; 5 is 7, the next byte plus 9. The next byte holds
+ *      the low 8 bits of the distance back minus one, c &amp; 31 the high 5.
+ * </ul>
+ *
+ * @see CompressedPageFile
+ */
+public class PageCompressor {
+
+    private static final int HASH_LOG = 13;
+    private static final int MAX_LITERAL = 1 << 5;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_MATCH = (1 << 8) + (1 << 3);
+
+    /**
+     * Compresses the first inLen bytes of in into out.
+     *
+     * @return the number of bytes written to out, or -1 if the compressed
+     *   form doesn't fit in out, in which case the data is best stored as it
+     *   is
+     */
+    public static int compress(byte[] in, int inLen, byte[] out) {
+        int table[] = new int[1 << HASH_LOG];
+        int ip = 0;
+        int op = 0;
+        // start of the literals not written out yet
+        int anchor = 0;
+
+        while (ip + 2 < inLen) {
+            int h = hash(in, ip);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            int off = ip - ref - 1;
+            if (ref < 0 || off >= MAX_OFFSET || in[ref] != in[ip]
+                    || in[ref + 1] != in[ip + 1] || in[ref + 2] != in[ip + 2]) {
+                ip++;
+                continue;
+            }
+
+            int maxLen = Math.min(inLen - ip, MAX_MATCH);
+            int len = 3;
+            while (len < maxLen && in[ref + len] == in[ip + len]) {
+                len++;
+            }
+
+            op = literals(in, anchor, ip, out, op);
+            if (op < 0 || op + 3 > out.length) {
+                return -1;
+            }
+            int l = len - 2;
+            if (l < 7) {
+                out[op++] = (byte) ((l << 5) + (off >>> 8));
+            } else {
+                out[op++] = (byte) ((7 << 5) + (off >>> 8));
+                out[op++] = (byte) (l - 7);
+            }
+            out[op++] = (byte) off;
+
+            // remember where the match itself repeats, for later matches
+            int end = ip + len;
+            for (ip++; ip < end && ip + 2 < inLen; ip++) {
+                table[hash(in, ip)] = ip + 1;
+            }
+            ip = end;
+            anchor = ip;
+        }
+        return literals(in, anchor, inLen, out, op);
+    }
+
+    /** @return a hash of the three bytes at in[i] */
+    private static int hash(byte[] in, int i) {
+        int v = ((in[i] & 0xFF) << 16) | ((in[i + 1] & 0xFF) << 8) | (in[i + 2] & 0xFF);
+        return (v * 0x9E3779B1) >>> (32 - HASH_LOG);
+    }
+
+    /** Writes in[from..to) as literal runs at out[op]; @return the new op, or -1 */
+    private static int literals(byte[] in, int from, int to, byte[] out, int op) {
+        while (from < to) {
+            int n = Math.min(MAX_LITERAL, to - from);
+            if (op + 1 + n > out.length) {
+                return -1;
+            }
+            out[op++] = (byte) (n - 1);
+            System.arraycopy(in, from, out, op, n);
+            op += n;
+            from += n;
+        }
+        return op;
+    }
+
+    /**
+     * Decompresses len bytes of in, starting at off, into out.
+     *
+     * @return the number of bytes written to out
+     * @throws IOException if the input is not valid compressed data or
+     *   doesn't fit in out
+     */
+    public static int decompress(byte[] in, int off, int len, byte[] out) throws IOException {
+        int ip = off;
+        int end = off + len;
+        int op = 0;
+        try {
+            while (ip < end) {
+                int c = in[ip++] & 0xFF;
+                if (c < MAX_LITERAL) {
+                    int n = c + 1;
+                    if (ip + n > end) {
+                        throw new IOException("literal run past the end of the input");
+                    }
+                    System.arraycopy(in, ip, out, op, n);
+                    ip += n;
+                    op += n;
+                    continue;
+                }
+                int l = c >>> 5;
+                if (l == 7) {
+                    l += in[ip++] & 0xFF;
+                }
+                int ref = op - ((c & 0x1F) << 8) - (in[ip++] & 0xFF) - 1;
+                if (ref < 0) {
+                    throw new IOException("copy from before the start of the output");
+                }
+                // the copy may overlap what it writes, so go byte by byte
+                for (int n = l + 2; n > 0; n--) {
+                    out[op++] = out[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed page");
+        }
+        return op;
+    }
+}
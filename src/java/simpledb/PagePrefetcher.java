@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * PagePrefetcher pulls pages into the BufferPool in the background, so that
+ * a sequential scan can decode page i while page i+k is being read.
+ * <p>
+ * Access methods that detect sequential access call {@link #prefetch} for
+ * the pages they expect to need next. Requests are queued to the pool's
+ * PageReader and its I/O threads; when the reader's queue is full new
+ * requests are simply dropped, since a missed prefetch only costs a
+ * synchronous read later on.
+ * <p>
+ * The read-ahead depth defaults to 8 pages and can be changed with the
+ * system property simpledb.ReadAhead (e.g. -Dsimpledb.ReadAhead=16, or 0 to
+ * disable read-ahead) or with {@link #setReadAheadPages}.
+ *
+ * @see BufferPool#prefetchPage
+ */
+public class PagePrefetcher {
+
+    private static final int DEFAULT_READ_AHEAD = 8;
+
+    private static volatile int readAheadPages =
+            Integer.getInteger("simpledb.ReadAhead", DEFAULT_READ_AHEAD);
+
+    /** @return how many pages ahead of a sequential scan to read */
+    public static int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /** Sets how many pages ahead of a sequential scan to read; 0 disables read-ahead. */
+    public static void setReadAheadPages(int pages) {
+        readAheadPages = Math.max(0, pages);
+    }
+
+    /**
+     * The reader a prefetch is issued for. A page the reader has reached by
+     * the time it is read is left for the reader's own getPage to cache,
+     * instead of being counted as read-ahead.
+     */
+    public interface Cursor {
+        /** @return the page number the reader is currently on */
+        int currentPage();
+    }
+
+    /**
+     * Queues a read of the specified page into the given pool, unless the
+     * cursor has reached it by then. Returns immediately.
+     */
+    public static void prefetch(BufferPool pool, PageId pid, Cursor cursor) {
+        prefetch(pool, pid, cursor, null);
+    }
+
+    /**
+     * As prefetch(pool, pid, cursor), reading the page into the given scan
+     * ring of the pool.
+     */
+    public static void prefetch(BufferPool pool, PageId pid, Cursor cursor,
+            BufferPool.ScanRing ring) {
+        if (cursor.currentPage() < pid.pageNumber()) {
+            pool.prefetchPage(pid, ring, cursor);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageReader is the I/O engine behind BufferPool misses. Pages are read
+ * without holding the BufferPool, so transactions that miss on different
+ * pages (or tables) wait for their own reads only, and a miss no longer
+ * holds up every hit behind it. Reads that nobody waits for yet, i.e.
+ * read-ahead (see BufferPool.prefetchPage), are queued to a small pool of I/O
+ * threads; a transaction that needs the page now reads it on its own thread.
+ * <p>
+ * Requests for a page that is already being read are not issued again: the
+ * second requester waits on the first one's Future and gets the same Page.
+ * A transaction that needs a page whose read is still queued takes the read
+ * over rather than wait behind the rest of the queue.
+ * The queue of reads waiting for a thread is bounded; when it is full, the
+ * requesting thread does its read itself, which slows requesters down to
+ * the speed of the disk instead of queueing without limit.
+ * <p>
+ * The number of I/O threads defaults to 4 and the queue to 64 reads, and
+ * can be changed with the system properties simpledb.IoThreads and
+ * simpledb.IoQueue. Threads are started on demand and stop when idle.
+ *
+ * @see BufferPool#getPageReader
+ */
+public class PageReader {
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_QUEUE = 64;
+    private static final long IDLE_SECONDS = 1;
+
+    private final ThreadPoolExecutor myThreads;
+    private final int myQueueCapacity;
+    /** The reads in progress or queued, by page. */
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> myPending;
+
+    private final AtomicLong myReads = new AtomicLong();
+    private final AtomicLong myDeduplicated = new AtomicLong();
+    private final AtomicLong myInlineReads = new AtomicLong();
+    private volatile int myMaxQueueDepth;
+    private final LatencyHistogram myWaitLatency = new LatencyHistogram();
+    private final LatencyHistogram myReadLatency = new LatencyHistogram();
+
+    public PageReader() {
+        this(Integer.getInteger("simpledb.IoThreads", DEFAULT_THREADS),
+                Integer.getInteger("simpledb.IoQueue", DEFAULT_QUEUE));
+    }
+
+    /**
+     * @param threads the number of I/O threads
+     * @param queueCapacity the number of reads that may wait for a thread
+     */
+    public PageReader(int threads, int queueCapacity) {
+        this.myQueueCapacity = queueCapacity;
+        this.myPending = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+        this.myThreads = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-io");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                        myInlineReads.incrementAndGet();
+                        r.run();
+                    }
+                });
+        myThreads.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Told about the page a read started by readAsync(pid, listener) got.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that did the read, before the read's Future
+         * completes. Not called if the DbFile's readPage threw.
+         */
+        void pageRead(Page page);
+    }
+
+    /**
+     * Starts reading the specified page from its table's DbFile, or joins the
+     * read already under way. Returns immediately.
+     *
+     * @return the future page
+     */
+    public Future<Page> readAsync(PageId pid) {
+        return readAsync(pid, null);
+    }
+
+    /**
+     * As readAsync(pid), telling listener about the page if this call starts
+     * the read. A request that joins a read already under way is not.
+     */
+    public Future<Page> readAsync(PageId pid, Listener listener) {
+        FutureTask<Page> task = register(pid, listener);
+        if (task != null) {
+            int depth = myThreads.getQueue().size() + 1;
+            if (depth > myMaxQueueDepth) {
+                myMaxQueueDepth = depth;
+            }
+            myThreads.execute(task);
+            return task;
+        }
+        return join(pid);
+    }
+
+    /**
+     * Reads the specified page and waits for it, joining the read already
+     * under way if there is one. Otherwise the read is done right here: the
+     * caller would only sit and wait for an I/O thread to do it. For the
+     * same reason a read still queued for an I/O thread is taken over.
+     *
+     * @throws DbException if the thread is interrupted while it waits
+     * @throws RuntimeException whatever the DbFile's readPage threw, e.g. an
+     *   IllegalArgumentException for a page that doesn't exist
+     */
+    public Page read(PageId pid) throws DbException {
+        FutureTask<Page> task;
+        while (true) {
+            task = register(pid, null);
+            if (task != null) {
+                myInlineReads.incrementAndGet();
+                break;
+            }
+            task = myPending.get(pid);
+            if (task != null) {
+                myDeduplicated.incrementAndGet();
+                // still queued: no I/O thread needs to see it any more
+                myThreads.remove(task);
+                break;
+            }
+        }
+        // does nothing if an I/O thread has started the read already
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while reading " + pid.pageNumber());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    /**
+     * @return a new read of the specified page, which the caller must run
+     *   or have run, or null if the page is being read already
+     */
+    private FutureTask<Page> register(final PageId pid, final Listener listener) {
+        if (myPending.containsKey(pid)) {
+            return null;
+        }
+        final long queued = System.nanoTime();
+        FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() {
+                long start = System.nanoTime();
+                myWaitLatency.record(start - queued);
+                try {
+                    Page page;
+                    try {
+                        page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+                    } finally {
+                        myReadLatency.record(System.nanoTime() - start);
+                    }
+                    if (listener != null) {
+                        listener.pageRead(page);
+                    }
+                    return page;
+                } finally {
+                    myPending.remove(pid);
+                }
+            }
+        });
+        if (myPending.putIfAbsent(pid, task) != null) {
+            return null;
+        }
+        myReads.incrementAndGet();
+        return task;
+    }
+
+    /**
+     * @return the read of the specified page under way, or if it finished
+     *   in the meantime, a new one
+     */
+    private Future<Page> join(PageId pid) {
+        Future<Page> pending = myPending.get(pid);
+        if (pending != null) {
+            myDeduplicated.incrementAndGet();
+            return pending;
+        }
+        return readAsync(pid);
+    }
+
+    /** @return the number of reads issued */
+    public long getReads() {
+        return myReads.get();
+    }
+
+    /** @return the number of requests that joined a read already under way */
+    public long getDeduplicated() {
+        return myDeduplicated.get();
+    }
+
+    /**
+     * @return the number of reads done by the requesting thread, because it
+     *   was going to wait for the page anyway or because the queue was full
+     */
+    public long getInlineReads() {
+        return myInlineReads.get();
+    }
+
+    /** @return the number of reads waiting for an I/O thread right now */
+    public int getQueueDepth() {
+        return myThreads.getQueue().size();
+    }
+
+    /** @return the most reads ever waiting for an I/O thread, counting the new one */
+    public int getMaxQueueDepth() {
+        return myMaxQueueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return myQueueCapacity;
+    }
+
+    /** @return the time reads spent queued before an I/O thread took them */
+    public LatencyHistogram getWaitLatency() {
+        return myWaitLatency;
+    }
+
+    /** @return the time the DbFile took to read a page */
+    public LatencyHistogram getReadLatency() {
+        return myReadLatency;
+    }
+
+    public String toString() {
+        return "reads " + getReads() + ", deduplicated " + getDeduplicated()
+                + ", inline " + getInlineReads() + ", max queue depth "
+                + getMaxQueueDepth() + "/" + getQueueCapacity()
+                + "\nqueue wait: " + myWaitLatency + "\nread: " + myReadLatency;
+    }
+}
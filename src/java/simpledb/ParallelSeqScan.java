@@ -0,0 +1,315 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan is a sequential scan of a HeapFile by several worker
+ * threads at once. The pages of the file are handed out in morsels of a few
+ * consecutive pages: each worker takes the next morsel when it is done with
+ * its last, so a slow page or a busy core holds up only its own worker. The
+ * workers apply the scan's filters (see addFilter) to the tuples they read
+ * and pass the ones that pass on in batches, through a bounded queue, to
+ * the thread calling next().
+ * <p>
+ * Tuples come out in no particular order, as with SeqScan, which this is a
+ * drop-in replacement for. All workers read as part of the scan's
+ * transaction, but the pages are locked by the thread opening the scan,
+ * before any worker starts: the workers then never wait for a lock, and
+ * the transaction never waits for more than one at a time, as the lock
+ * manager expects. Closing the scan waits for the workers to stop. Tables
+ * that aren't HeapFiles are scanned by the calling thread alone.
+ * <p>
+ * The number of workers defaults to the number of processors, and can be
+ * set with the simpledb.ScanThreads system property.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages per morsel; enough that taking one costs nothing next to reading it. */
+    static final int MORSEL_PAGES = 16;
+    /** Tuples per batch put on the queue. */
+    private static final int BATCH_SIZE = 256;
+    /** Batches the queue holds per worker before the workers have to wait. */
+    private static final int BATCHES_PER_THREAD = 4;
+    /** Marks the end of a worker's output. */
+    private static final Tuple[] DONE = new Tuple[0];
+
+    private static final ExecutorService workerThreads = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-scan");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private TransactionId myTid;
+    private int myTableId;
+    private int myThreads;
+    private ArrayList<Predicate> myFilters = new ArrayList<Predicate>();
+
+    /** The workers and output of the open scan, or null. */
+    private Run myRun;
+    private Tuple[] myBatch = DONE;
+    private int myPos;
+    private boolean myParallel;
+
+    /**
+     * One pass over the table. A rewind starts a new Run, so that workers
+     * of the last one still winding down can't put tuples on the new queue.
+     */
+    private class Run {
+        final BlockingQueue<Tuple[]> queue =
+                new ArrayBlockingQueue<Tuple[]>(myThreads * BATCHES_PER_THREAD);
+        final AtomicInteger nextPage = new AtomicInteger();
+        final HeapFile file;
+        final int numPages;
+        final ArrayList<Predicate> filters = new ArrayList<Predicate>(myFilters);
+        final ArrayList<Predicate> pagePredicates = new ArrayList<Predicate>(getPagePredicates());
+        final BufferPool.ScanRing ring;
+        /** The pages locked for the workers to read: those the page
+            predicates don't rule out. */
+        final BitSet pages = new BitSet();
+        final ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+        volatile boolean cancelled;
+        volatile Exception error;
+        int running = myThreads;
+
+        Run(HeapFile file) {
+            this.file = file;
+            this.numPages = file.numPages();
+            this.ring = file.newScanRing(Database.getBufferPool());
+        }
+    }
+
+    /**
+     * Creates a scan of the specified table by the given number of worker
+     * threads, see SeqScan#SeqScan(TransactionId, int, String).
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int threads) {
+        super(tid, tableid, tableAlias);
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        this.myTid = tid;
+        this.myTableId = tableid;
+        this.myThreads = threads;
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Integer.getInteger("simpledb.ScanThreads",
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    public int getThreads() {
+        return myThreads;
+    }
+
+    /**
+     * Has the workers drop the tuples that don't satisfy p, so that they
+     * never reach the queue. p is also used to skip pages, as with
+     * addPagePredicate. Takes effect the next time the scan is opened.
+     *
+     * @param p
+     *            a predicate over the fields of this scan's TupleDesc
+     */
+    public void addFilter(Predicate p) {
+        this.myFilters.add(p);
+        this.addPagePredicate(p);
+    }
+
+    /** @return the predicates every tuple the scan returns satisfies */
+    public List<Predicate> getFilters() {
+        return this.myFilters;
+    }
+
+    public void reset(int tableid, String tableAlias) {
+        super.reset(tableid, tableAlias);
+        this.myTableId = tableid;
+        this.myFilters.clear();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDbFile(myTableId);
+        myParallel = (f instanceof HeapFile);
+        if (!myParallel) {
+            super.open();
+            return;
+        }
+        final Run run = new Run((HeapFile) f);
+        BufferPool pool = Database.getBufferPool();
+        ZoneMap zoneMap = run.file.getZoneMap();
+        for (int pgNo = 0; pgNo < run.numPages; pgNo++) {
+            boolean mayMatch = true;
+            for (Predicate p : run.pagePredicates) {
+                mayMatch = mayMatch && zoneMap.mayMatch(pgNo, p);
+            }
+            if (mayMatch) {
+                pool.lockPage(myTid, new HeapPageId(run.file.getId(), pgNo), Permissions.READ_ONLY);
+                run.pages.set(pgNo);
+            }
+        }
+        myRun = run;
+        myBatch = DONE;
+        myPos = 0;
+        for (int i = 0; i < myThreads; i++) {
+            run.workers.add(workerThreads.submit(new Runnable() {
+                public void run() {
+                    try {
+                        scanMorsels(run);
+                    } catch (Exception e) {
+                        run.error = e;
+                    } finally {
+                        put(run, DONE);
+                    }
+                }
+            }));
+        }
+    }
+
+    /** A worker: scans morsels until there are none left. */
+    private void scanMorsels(Run run) throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        ZoneMap zoneMap = run.file.getZoneMap();
+        Tuple[] batch = new Tuple[BATCH_SIZE];
+        int n = 0;
+        while (!run.cancelled) {
+            int start = run.nextPage.getAndAdd(MORSEL_PAGES);
+            if (start >= run.numPages) {
+                break;
+            }
+            int end = Math.min(start + MORSEL_PAGES, run.numPages);
+            for (int pgNo = start; pgNo < end && !run.cancelled; pgNo++) {
+                if (!run.pages.get(pgNo)) {
+                    continue;
+                }
+                HeapPage page = (HeapPage) pool.getPage(myTid,
+                        new HeapPageId(run.file.getId(), pgNo), Permissions.READ_ONLY, run.ring);
+                if (zoneMap.needsSummary(pgNo) && page.isDirty() == null) {
+                    zoneMap.summarize(page);
+                }
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (matches(run.filters, t)) {
+                        batch[n++] = t;
+                        if (n == BATCH_SIZE) {
+                            put(run, batch);
+                            batch = new Tuple[BATCH_SIZE];
+                            n = 0;
+                        }
+                    }
+                }
+            }
+        }
+        if (n > 0) {
+            put(run, Arrays.copyOf(batch, n));
+        }
+    }
+
+    private static boolean matches(List<Predicate> filters, Tuple t) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (!filters.get(i).filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Queues a batch, unless the scan is closed first. */
+    private static void put(Run run, Tuple[] batch) {
+        try {
+            while (!run.queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                if (run.cancelled) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!myParallel) {
+            return super.hasNext();
+        }
+        while (myPos == myBatch.length) {
+            if (myRun == null || myRun.running == 0) {
+                return false;
+            }
+            try {
+                myBatch = myRun.queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while scanning");
+            }
+            myPos = 0;
+            if (myBatch == DONE) {
+                myRun.running--;
+                if (myRun.error != null) {
+                    Exception e = myRun.error;
+                    close();
+                    if (e instanceof TransactionAbortedException) {
+                        throw (TransactionAbortedException) e;
+                    } else if (e instanceof DbException) {
+                        throw (DbException) e;
+                    }
+                    throw (RuntimeException) e;
+                }
+            }
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!myParallel) {
+            return super.next();
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return myBatch[myPos++];
+    }
+
+    /**
+     * Stops the workers, and waits for them, so that none reads a page or
+     * queues a tuple once the scan is closed; those blocked on a full
+     * queue give up within 10ms.
+     */
+    public void close() {
+        if (!myParallel) {
+            super.close();
+            return;
+        }
+        if (myRun != null) {
+            myRun.cancelled = true;
+            myRun.queue.clear();
+            for (Future<?> worker : myRun.workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    // workers keep their errors in run.error
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            myRun = null;
+        }
+        myBatch = DONE;
+        myPos = 0;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (!myParallel) {
+            super.rewind();
+            return;
+        }
+        close();
+        open();
+    }
+}
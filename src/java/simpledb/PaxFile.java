@@ -0,0 +1,289 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores a table like a HeapFile does, in fixed
+ * size pages of unordered tuples, but with each page laid out column by
+ * column; see PaxPage. Page i of a PaxFile holds the tuples of page i of
+ * the HeapFile it was converted from, in the same slots.
+ * <p>
+ * Nothing in a scan has to change to benefit: tuples read their fields from
+ * the page lazily, so operators that only look at a few columns (a Filter,
+ * a Project, an Aggregate) only touch those columns' minipages.
+ *
+ * @see PaxPage
+ * @see HeapFile
+ */
+public class PaxFile implements DbFile, Closeable {
+
+    private TupleDesc myTupleDesc;
+    private File myFile;
+    private int myPageSize;
+
+    private transient RandomAccessFile myRaf;
+    private transient FileChannel myChannel;
+
+    /** Number of pages in the file, or -1 if it has to be read from disk again. */
+    private transient volatile int myNumPages = -1;
+
+    /** Pages that may have an empty slot; loaded lazily. */
+    private transient FreeSpaceMap myFreeSpace;
+
+    /**
+     * Constructs a PaxFile backed by the specified file, with pages of the
+     * given size.
+     */
+    public PaxFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < td.getSize() + 1) {
+            throw new IllegalArgumentException("page size " + pageSize
+                    + " cannot hold a single tuple of " + td.getSize() + " bytes");
+        }
+        this.myTupleDesc = td;
+        this.myFile = f;
+        this.myPageSize = pageSize;
+    }
+
+    /**
+     * Writes the tuples of a HeapFile to f in PAX layout, page by page. The
+     * HeapFile is read from disk, so any of its pages still dirty in the
+     * BufferPool must have been flushed.
+     *
+     * @return a PaxFile over f, which still has to be added to the catalog
+     */
+    public static PaxFile convert(HeapFile table, File f) throws IOException {
+        if (table.isCompressed()) {
+            throw new IOException("can't convert compressed " + table.getFile());
+        }
+        TupleDesc td = table.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getDictionary(i) != null) {
+                throw new IOException("can't convert dictionary-encoded " + table.getFile());
+            }
+        }
+        int pageSize = table.getPageSize();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(table.getFile())));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        try {
+            byte[] heapPage = new byte[pageSize];
+            long pages = table.getFile().length() / pageSize;
+            for (long i = 0; i < pages; i++) {
+                in.readFully(heapPage);
+                out.write(PaxPage.fromHeapPageData(td, pageSize, heapPage));
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return new PaxFile(f, td, pageSize);
+    }
+
+    public File getFile() {
+        return this.myFile;
+    }
+
+    /** @return an ID uniquely identifying this file, see HeapFile#getId */
+    public int getId() {
+        return this.myFile.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.myTupleDesc;
+    }
+
+    public int getPageSize() {
+        return this.myPageSize;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (myChannel == null || !myChannel.isOpen()) {
+            if (myRaf != null) {
+                myRaf.close();
+            }
+            myRaf = new RandomAccessFile(this.myFile, "rw");
+            myChannel = myRaf.getChannel();
+        }
+        return myChannel;
+    }
+
+    synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (myFreeSpace == null) {
+            myFreeSpace = new FreeSpaceMap(this.myFile, this.numPages());
+        }
+        return myFreeSpace;
+    }
+
+    /** Closes the channel backing this file and saves its free space map. */
+    public synchronized void close() throws IOException {
+        if (myFreeSpace != null) {
+            myFreeSpace.save();
+        }
+        if (myRaf != null) {
+            myRaf.close();
+        }
+        myRaf = null;
+        myChannel = null;
+        myNumPages = -1;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[myPageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) myPageSize * pid.pageNumber();
+        try {
+            FileChannel channel = getChannel();
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, offset + buf.position());
+                if (n < 0) {
+                    throw new EOFException("short read at offset " + offset);
+                }
+            }
+            return new PaxPage((PaxPageId) pid, myTupleDesc, myPageSize, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page " + pid.pageNumber()
+                    + " does not exist in " + this.myFile, e);
+        }
+    }
+
+    private void writeAt(byte[] data, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, myPageSize);
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        writeAt(page.getPageData(), (long) myPageSize * pgNo);
+        page.markDirty(false, null);
+        synchronized (this) {
+            if (pgNo >= numPages()) {
+                myNumPages = pgNo + 1;
+            }
+        }
+    }
+
+    /** Returns the number of pages in this file. */
+    public int numPages() {
+        int retVal = myNumPages;
+        if (retVal < 0) {
+            synchronized (this) {
+                if (myNumPages < 0) {
+                    myNumPages = (int) (myFile.length() / myPageSize);
+                }
+                retVal = myNumPages;
+            }
+        }
+        return retVal;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bPool = Database.getBufferPool();
+        ArrayList<Page> retVal = new ArrayList<Page>();
+        FreeSpaceMap freeSpace = getFreeSpaceMap();
+        int numPages = this.numPages();
+
+        /** As in HeapFile: try the pages the free space map suggests, and
+         *  append an empty page if none of them has room. */
+        while (true) {
+            for (int i = freeSpace.nextCandidate(0, numPages); i >= 0;
+                    i = freeSpace.nextCandidate(i + 1, numPages)) {
+                PaxPageId pid = new PaxPageId(this.getId(), i);
+                boolean heldBefore = bPool.holdsLock(tid, pid);
+                PaxPage page = (PaxPage) bPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumEmptySlots() > 0) {
+                    page.insertTuple(t);
+                    if (page.getNumEmptySlots() == 0) {
+                        freeSpace.setHasFree(i, false);
+                    }
+                    retVal.add(page);
+                    return retVal;
+                }
+                freeSpace.setHasFree(i, false);
+                if (!heldBefore) {
+                    bPool.releasePage(tid, pid);
+                }
+            }
+
+            synchronized (this) {
+                numPages = this.numPages();
+                writeAt(PaxPage.createEmptyPageData(myPageSize), (long) numPages * myPageSize);
+                numPages++;
+                myNumPages = numPages;
+            }
+            freeSpace.setHasFree(numPages - 1, true);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        getFreeSpaceMap().setHasFree(rid.getPageId().pageNumber(), true);
+        return page;
+    }
+
+    /** Iterates over the tuples of the file page by page, with shared locks. */
+    private class PaxIterator implements DbFileIterator {
+        private final TransactionId myTid;
+        private int myPage;
+        private Iterator<Tuple> myTuples;
+
+        PaxIterator(TransactionId tid) {
+            this.myTid = tid;
+        }
+
+        public void open() {
+            myPage = -1;
+            myTuples = Collections.<Tuple>emptyList().iterator();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (myTuples == null) {
+                return false;
+            }
+            while (!myTuples.hasNext()) {
+                if (myPage + 1 >= numPages()) {
+                    return false;
+                }
+                myPage++;
+                PaxPage page = (PaxPage) Database.getBufferPool().getPage(myTid,
+                        new PaxPageId(getId(), myPage), Permissions.READ_ONLY);
+                myTuples = page.iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return myTuples.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            myTuples = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PaxIterator(tid);
+    }
+}
@@ -0,0 +1,333 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of PaxPage stores one page of a PaxFile. It holds the same
+ * tuples a HeapPage of the same size would, with the same slot header, but
+ * lays them out column by column (PAX): all values of field 0, then all
+ * values of field 1, and so on, each column in a "minipage" of numSlots
+ * values. So column i starts at
+ * <pre>
+ *   headerSize + numSlots * td.getOffset(i)
+ * </pre>
+ * and a scan that reads a few columns of a wide table only touches, and
+ * decodes, those columns' minipages.
+ * <p>
+ * As in HeapPage, tuples are not decoded up front; the Tuples handed out
+ * read their fields from the page bytes when asked, see
+ * {@link Tuple#Tuple(TupleDesc, ByteBuffer, int[], int)}.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage implements Page {
+
+    PaxPageId pid;
+    TupleDesc td;
+    /** Slot bitmap, as in HeapPage. */
+    long header[];
+    int headerSize;
+    Tuple tuples[];
+    int numSlots;
+    int pageSize;
+    /** Offset of each column's minipage in the page. */
+    int columnStarts[];
+
+    /** The page as it was read (or last snapshotted by setBeforeImage);
+        never written to. */
+    ByteBuffer raw;
+
+    /** Before image, copied from raw when the page is first modified; null
+        while the page still matches raw. */
+    byte[] oldData;
+
+    private TransactionId myDirtyTransactionId;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above. The TupleDesc and page size are those of the
+     * table in the catalog.
+     */
+    public PaxPage(PaxPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+                Database.getCatalog().getPageSize(id.getTableId()), data);
+    }
+
+    /** Create a PaxPage of a table that need not be in the catalog. */
+    PaxPage(PaxPageId id, TupleDesc td, int pageSize, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.numSlots = numSlots(td, pageSize);
+        this.headerSize = (numSlots + 7) / 8;
+        if (data.length < headerSize + numSlots * td.getSize()) {
+            throw new IOException("short page: " + data.length + " bytes");
+        }
+        this.raw = ByteBuffer.wrap(data);
+
+        columnStarts = new int[td.numFields()];
+        for (int i = 0; i < columnStarts.length; i++) {
+            columnStarts[i] = headerSize + numSlots * td.getOffset(i);
+        }
+
+        header = new long[(numSlots + 63) / 64];
+        for (int i = 0; i < headerSize; i++) {
+            header[i >>> 3] |= (raw.get(i) & 0xFFL) << ((i & 7) * 8);
+        }
+        if (numSlots % 64 != 0) {
+            header[header.length - 1] &= (1L << numSlots) - 1;
+        }
+
+        tuples = new Tuple[numSlots];
+        oldData = null;
+    }
+
+    /** @return the number of tuple slots on a page; the same as a HeapPage's */
+    static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Rearranges a page written by HeapFile into a PaxPage of the same
+     * table; every tuple keeps its slot.
+     *
+     * @param heapPage the bytes of a HeapPage
+     * @return the bytes of the PaxPage
+     */
+    static byte[] fromHeapPageData(TupleDesc td, int pageSize, byte[] heapPage) {
+        int slots = numSlots(td, pageSize);
+        int hdr = (slots + 7) / 8;
+        int tupleSize = td.getSize();
+        byte[] retVal = new byte[pageSize];
+        System.arraycopy(heapPage, 0, retVal, 0, hdr);
+        for (int s = 0; s < slots; s++) {
+            if ((heapPage[s >>> 3] & (1 << (s & 7))) == 0) {
+                continue;
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                int len = td.getFieldType(i).getLen();
+                System.arraycopy(heapPage, hdr + s * tupleSize + td.getOffset(i),
+                        retVal, hdr + slots * td.getOffset(i) + s * len, len);
+            }
+        }
+        return retVal;
+    }
+
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, td, pageSize, oldData != null ? oldData : rawBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        // an unmodified page already is its own before image
+        if (oldData != null) {
+            raw = ByteBuffer.wrap(getPageData());
+            oldData = null;
+            tuples = new Tuple[numSlots];
+        }
+    }
+
+    /** @return a private copy of the bytes this page was built from */
+    private byte[] rawBytes() {
+        byte[] copy = new byte[pageSize];
+        ByteBuffer view = raw.duplicate();
+        view.position(0);
+        view.get(copy, 0, Math.min(copy.length, view.remaining()));
+        return copy;
+    }
+
+    /** Saves the before image ahead of the first change to this page. */
+    private void snapshot() {
+        if (oldData == null) {
+            oldData = rawBytes();
+        }
+    }
+
+    public PaxPageId getId() {
+        return this.pid;
+    }
+
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null && isSlotUsed(slotId)) {
+            t = new Tuple(td, raw, columnStarts, slotId);
+            t.setRecordId(new RecordId(pid, slotId));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     * @throws NoSuchElementException if there is no such slot
+     */
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots) {
+            throw new NoSuchElementException("no slot " + slotId + " on " + pid);
+        }
+        return tupleAt(slotId);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor.
+     */
+    public byte[] getPageData() {
+        // nothing has changed since the page was read
+        if (oldData == null) {
+            return rawBytes();
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < headerSize; i++) {
+                dos.writeByte((int) (header[i >>> 3] >>> ((i & 7) * 8)));
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                int len = td.getFieldType(i).getLen();
+                for (int s = 0; s < numSlots; s++) {
+                    if (!isSlotUsed(s)) {
+                        dos.write(new byte[len]);
+                    } else if (tuples[s] == null) {
+                        // never decoded: copy the value as is
+                        byte[] value = new byte[len];
+                        ByteBuffer view = raw.duplicate();
+                        view.position(columnStarts[i] + s * len);
+                        view.get(value);
+                        dos.write(value);
+                    } else {
+                        tuples[s].getField(i).serialize(dos);
+                    }
+                }
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /** @return the bytes of an empty page */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno())) {
+            throw new DbException("tuple is not on " + pid);
+        }
+        snapshot();
+        markSlotUsed(rid.tupleno(), false);
+        tuples[rid.tupleno()] = null;
+    }
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     * @throws DbException if the page is full
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        int slot = nextUsedOrFreeSlot(0, false);
+        if (slot < 0) {
+            throw new DbException("No free slots.");
+        }
+        snapshot();
+        t.detach();
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /** @return the first slot at or after from that is (un)used, or -1 */
+    private int nextUsedOrFreeSlot(int from, boolean used) {
+        int w = from >>> 6;
+        if (w >= header.length) {
+            return -1;
+        }
+        long bits = (used ? header[w] : ~header[w]) & (-1L << from);
+        while (bits == 0) {
+            if (++w == header.length) {
+                return -1;
+            }
+            bits = used ? header[w] : ~header[w];
+        }
+        int slot = w * 64 + Long.numberOfTrailingZeros(bits);
+        return (slot < numSlots) ? slot : -1;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.myDirtyTransactionId = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.myDirtyTransactionId;
+    }
+
+    /** Returns the number of empty slots on this page. */
+    public int getNumEmptySlots() {
+        int retVal = this.numSlots;
+        for (int w = 0; w < header.length; w++) {
+            retVal -= Long.bitCount(header[w]);
+        }
+        return retVal;
+    }
+
+    /** Returns true if associated slot on this page is filled. */
+    public boolean isSlotUsed(int i) {
+        if (i < 0 || i >= numSlots) {
+            return false;
+        }
+        return (header[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            header[i >>> 6] |= 1L << i;
+        } else {
+            header[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            int current = nextUsedOrFreeSlot(0, true);
+
+            public boolean hasNext() {
+                return current >= 0;
+            }
+
+            public Tuple next() {
+                if (current < 0) {
+                    throw new NoSuchElementException();
+                }
+                Tuple retVal = tupleAt(current);
+                current = nextUsedOrFreeSlot(current + 1, true);
+                return retVal;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+/** Unique identifier for PaxPage objects. */
+public class PaxPageId implements PageId {
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table stored in a PaxFile.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     */
+    public PaxPageId(int tableId, int pgNo) {
+        this.myTableId = tableId;
+        this.myPgNo = pgNo;
+    }
+
+    private int myTableId;
+    private int myPgNo;
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return this.myTableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return this.myPgNo;
+    }
+
+    /**
+     * @return a hash code for this page, see HeapPageId#hashCode
+     */
+    public int hashCode() {
+        return this.myTableId*10 + this.myPgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (o instanceof PageId) {
+            PageId incomingPageId = (PageId) o;
+            return incomingPageId.getTableId() == this.myTableId
+                    && incomingPageId.pageNumber() == this.myPgNo;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = getTableId();
+        data[1] = pageNumber();
+
+        return data;
+    }
+
+    public String toString() {
+        return "PaxPageId(" + myTableId + ", " + myPgNo + ")";
+    }
+}
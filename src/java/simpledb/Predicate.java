@@ -114,8 +114,7 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        Field theField = t.getField(this.myField);
-        boolean retVal = theField.compare(this.myOp, this.myOperand);
+        boolean retVal = t.compareField(this.myField, this.myOp, this.myOperand);
         return retVal;
     }
 
@@ -40,6 +40,7 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFileIterator myIterator;
     private DbFile myFile;
+    private ArrayList<Predicate> myPagePredicates = new ArrayList<Predicate>();
 
     /**
      * @return
@@ -76,6 +77,25 @@ public class SeqScan implements DbIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.myFile = Database.getCatalog().getDbFile(this.tableid);
+        this.myPagePredicates.clear();
+    }
+
+    /**
+     * Lets the scan skip the pages whose zone map shows that none of their
+     * tuples satisfies p (see ZoneMap). The tuples on the pages it does read
+     * are all returned, so p still has to be applied above the scan, e.g.
+     * by a Filter. Takes effect the next time the scan is opened.
+     *
+     * @param p
+     *            a predicate over the fields of this scan's TupleDesc
+     */
+    public void addPagePredicate(Predicate p) {
+        this.myPagePredicates.add(p);
+    }
+
+    /** @return the predicates the scan uses to skip pages */
+    public List<Predicate> getPagePredicates() {
+        return this.myPagePredicates;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -84,8 +104,13 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        HeapFile castedFile = (HeapFile) this.myFile;
-        this.myIterator = castedFile.new InternalIterator(castedFile, this.tid);
+        if (this.myFile instanceof HeapFile) {
+            HeapFile castedFile = (HeapFile) this.myFile;
+            this.myIterator = castedFile.new InternalIterator(castedFile, this.tid, this.myPagePredicates);
+        } else {
+            // other DbFiles, e.g. PaxFile, have no zone maps
+            this.myIterator = this.myFile.iterator(this.tid);
+        }
         this.myIterator.open();
     }
 
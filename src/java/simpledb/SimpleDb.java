@@ -91,6 +91,17 @@ public class SimpleDb {
             }
 
         }
+        else if (args[0].equals("benchmark")) {
+            String[] newargs = new String[args.length-1];
+            for (int i = 1; i < args.length; ++i) {
+                newargs[i-1] = args[i];
+            }
+            try {
+                Benchmark.main(newargs);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
         else {
             System.err.println("Unknown command: " + args[0]);
             System.exit(1);
@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile that stores a table in fixed size pages of
+ * unordered tuples, like a HeapFile, but with every tuple in its
+ * variable-length encoding on a SlottedPage. A string then takes two bytes
+ * plus its length instead of the 4 + STRING_LEN bytes a HeapFile gives it,
+ * so tables with short strings need far fewer pages. Tables of ints only
+ * gain nothing, and pay two bytes per tuple for the slot directory.
+ *
+ * @see SlottedPage
+ * @see HeapFile
+ */
+public class SlottedFile implements DbFile, Closeable {
+
+    private TupleDesc myTupleDesc;
+    private File myFile;
+    private int myPageSize;
+
+    private transient RandomAccessFile myRaf;
+    private transient FileChannel myChannel;
+
+    /** Number of pages in the file, or -1 if it has to be read from disk again. */
+    private transient volatile int myNumPages = -1;
+
+    /** Pages that may have room for another tuple; loaded lazily. */
+    private transient FreeSpaceMap myFreeSpace;
+
+    /**
+     * Constructs a SlottedFile backed by the specified file, with pages of
+     * the given size.
+     */
+    public SlottedFile(File f, TupleDesc td, int pageSize) {
+        int minSize = SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE
+                + SlottedPage.maxTupleSize(td);
+        if (pageSize < minSize) {
+            throw new IllegalArgumentException("page size " + pageSize
+                    + " cannot hold a single tuple of up to " + minSize + " bytes");
+        }
+        if (pageSize > SlottedPage.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("page size " + pageSize
+                    + " is larger than the " + SlottedPage.MAX_PAGE_SIZE
+                    + " bytes a slotted page can address");
+        }
+        this.myTupleDesc = td;
+        this.myFile = f;
+        this.myPageSize = pageSize;
+    }
+
+    /**
+     * Writes the tuples of a HeapFile to f as slotted pages, packing each
+     * page as full as it will go. Tuples get new RecordIds. The HeapFile is
+     * read from disk, so any of its pages still dirty in the BufferPool must
+     * have been flushed.
+     *
+     * @return a SlottedFile over f, which still has to be added to the catalog
+     */
+    public static SlottedFile convert(HeapFile table, File f) throws IOException {
+        if (table.isCompressed()) {
+            throw new IOException("can't convert compressed " + table.getFile());
+        }
+        TupleDesc td = table.getTupleDesc();
+        int pageSize = table.getPageSize();
+        SlottedFile retVal = new SlottedFile(f, td, pageSize);
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(table.getFile())));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        try {
+            byte[] heapPage = new byte[pageSize];
+            ByteBuffer heapBuf = ByteBuffer.wrap(heapPage);
+            int slots = (pageSize * 8) / (td.getSize() * 8 + 1);
+            int hdr = (slots + 7) / 8;
+            long pages = table.getFile().length() / pageSize;
+            int pgNo = 0;
+            SlottedPage page = new SlottedPage(new SlottedPageId(retVal.getId(), pgNo), td,
+                    pageSize, SlottedPage.createEmptyPageData(pageSize));
+            for (long i = 0; i < pages; i++) {
+                in.readFully(heapPage);
+                for (int s = 0; s < slots; s++) {
+                    if ((heapPage[s >>> 3] & (1 << (s & 7))) == 0) {
+                        continue;
+                    }
+                    Tuple t = new Tuple(td, heapBuf, hdr + s * td.getSize());
+                    if (!page.hasRoomFor(t)) {
+                        out.write(page.getPageData());
+                        pgNo++;
+                        page = new SlottedPage(new SlottedPageId(retVal.getId(), pgNo), td,
+                                pageSize, SlottedPage.createEmptyPageData(pageSize));
+                    }
+                    page.insertTuple(t);
+                }
+            }
+            if (page.getNumTuples() > 0) {
+                out.write(page.getPageData());
+            }
+        } catch (DbException e) {
+            // hasRoomFor said it would fit
+            throw new IOException("couldn't convert " + table.getFile() + ": " + e.getMessage());
+        } finally {
+            in.close();
+            out.close();
+        }
+        return retVal;
+    }
+
+    public File getFile() {
+        return this.myFile;
+    }
+
+    /** @return an ID uniquely identifying this file, see HeapFile#getId */
+    public int getId() {
+        return this.myFile.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.myTupleDesc;
+    }
+
+    public int getPageSize() {
+        return this.myPageSize;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (myChannel == null || !myChannel.isOpen()) {
+            if (myRaf != null) {
+                myRaf.close();
+            }
+            myRaf = new RandomAccessFile(this.myFile, "rw");
+            myChannel = myRaf.getChannel();
+        }
+        return myChannel;
+    }
+
+    synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (myFreeSpace == null) {
+            myFreeSpace = new FreeSpaceMap(this.myFile, this.numPages());
+        }
+        return myFreeSpace;
+    }
+
+    /** Closes the channel backing this file and saves its free space map. */
+    public synchronized void close() throws IOException {
+        if (myFreeSpace != null) {
+            myFreeSpace.save();
+        }
+        if (myRaf != null) {
+            myRaf.close();
+        }
+        myRaf = null;
+        myChannel = null;
+        myNumPages = -1;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[myPageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) myPageSize * pid.pageNumber();
+        try {
+            FileChannel channel = getChannel();
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, offset + buf.position());
+                if (n < 0) {
+                    throw new EOFException("short read at offset " + offset);
+                }
+            }
+            return new SlottedPage((SlottedPageId) pid, myTupleDesc, myPageSize, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page " + pid.pageNumber()
+                    + " does not exist in " + this.myFile, e);
+        }
+    }
+
+    private void writeAt(byte[] data, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, myPageSize);
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        writeAt(page.getPageData(), (long) myPageSize * pgNo);
+        page.markDirty(false, null);
+        synchronized (this) {
+            if (pgNo >= numPages()) {
+                myNumPages = pgNo + 1;
+            }
+        }
+    }
+
+    /** Returns the number of pages in this file. */
+    public int numPages() {
+        int retVal = myNumPages;
+        if (retVal < 0) {
+            synchronized (this) {
+                if (myNumPages < 0) {
+                    myNumPages = (int) (myFile.length() / myPageSize);
+                }
+                retVal = myNumPages;
+            }
+        }
+        return retVal;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bPool = Database.getBufferPool();
+        ArrayList<Page> retVal = new ArrayList<Page>();
+        FreeSpaceMap freeSpace = getFreeSpaceMap();
+        int numPages = this.numPages();
+
+        /** As in HeapFile: try the pages the free space map suggests, and
+         *  append an empty page if none of them has room. A page that
+         *  can't take t is marked full even if a shorter tuple would fit;
+         *  deletes mark it free again. */
+        while (true) {
+            for (int i = freeSpace.nextCandidate(0, numPages); i >= 0;
+                    i = freeSpace.nextCandidate(i + 1, numPages)) {
+                SlottedPageId pid = new SlottedPageId(this.getId(), i);
+                boolean heldBefore = bPool.holdsLock(tid, pid);
+                SlottedPage page = (SlottedPage) bPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.hasRoomFor(t)) {
+                    page.insertTuple(t);
+                    retVal.add(page);
+                    return retVal;
+                }
+                freeSpace.setHasFree(i, false);
+                if (!heldBefore) {
+                    bPool.releasePage(tid, pid);
+                }
+            }
+
+            synchronized (this) {
+                numPages = this.numPages();
+                writeAt(SlottedPage.createEmptyPageData(myPageSize), (long) numPages * myPageSize);
+                numPages++;
+                myNumPages = numPages;
+            }
+            freeSpace.setHasFree(numPages - 1, true);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        getFreeSpaceMap().setHasFree(rid.getPageId().pageNumber(), true);
+        return page;
+    }
+
+    /** Iterates over the tuples of the file page by page, with shared locks. */
+    private class SlottedIterator implements DbFileIterator {
+        private final TransactionId myTid;
+        private int myPage;
+        private Iterator<Tuple> myTuples;
+
+        SlottedIterator(TransactionId tid) {
+            this.myTid = tid;
+        }
+
+        public void open() {
+            myPage = -1;
+            myTuples = Collections.<Tuple>emptyList().iterator();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (myTuples == null) {
+                return false;
+            }
+            while (!myTuples.hasNext()) {
+                if (myPage + 1 >= numPages()) {
+                    return false;
+                }
+                myPage++;
+                SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(myTid,
+                        new SlottedPageId(getId(), myPage), Permissions.READ_ONLY);
+                myTuples = page.iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return myTuples.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            myTuples = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedIterator(tid);
+    }
+}
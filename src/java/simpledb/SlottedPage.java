@@ -0,0 +1,344 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * Each instance of SlottedPage stores one page of a SlottedFile. Unlike a
+ * HeapPage, whose tuples all take td.getSize() bytes, a SlottedPage stores
+ * each tuple in its variable-length encoding (see Type#serializeVarLen), so
+ * a string only takes as many bytes as it has characters, plus two.
+ * <p>
+ * The page starts with a four byte header: the number of entries in the
+ * slot directory and the number of bytes of tuple data, both unsigned
+ * shorts. The slot directory follows, one unsigned short per slot giving
+ * the offset of that slot's tuple in the page, or 0 for an empty slot.
+ * Tuple data is packed against the end of the page and grows towards the
+ * directory, so the free space is always the one gap between the two:
+ * <pre>
+ *   | numSlots | dataBytes | slot 0 | slot 1 | ... | free | tuples |
+ * </pre>
+ * Deleting a tuple slides the tuples below it up to close the hole (in-page
+ * compaction), so the free space never fragments. A tuple keeps its slot,
+ * and so its RecordId, when other tuples move.
+ *
+ * @see SlottedFile
+ * @see HeapPage
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes taken by the number of slots and the number of data bytes. */
+    static final int HEADER_SIZE = 4;
+    /** Bytes taken by one slot directory entry. */
+    static final int SLOT_SIZE = 2;
+    /** Largest page size whose offsets fit in a slot directory entry. */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    SlottedPageId pid;
+    TupleDesc td;
+    int pageSize;
+    /** The current contents of the page, modified in place. */
+    byte data[];
+    ByteBuffer buf;
+    int numSlots;
+    /** Offset of the first byte of tuple data; pageSize if there is none. */
+    int dataStart;
+
+    /** Before image, copied from data when the page is first modified;
+        null while the page is unchanged. */
+    byte[] oldData;
+
+    private TransactionId myDirtyTransactionId;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above. The TupleDesc and page size are those of
+     * the table in the catalog.
+     */
+    public SlottedPage(SlottedPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+                Database.getCatalog().getPageSize(id.getTableId()), data);
+    }
+
+    /** Create a SlottedPage of a table that need not be in the catalog. */
+    SlottedPage(SlottedPageId id, TupleDesc td, int pageSize, byte[] data) throws IOException {
+        if (data.length < pageSize) {
+            throw new IOException("short page: " + data.length + " bytes");
+        }
+        this.pid = id;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        this.numSlots = buf.getShort(0) & 0xFFFF;
+        this.dataStart = pageSize - (buf.getShort(2) & 0xFFFF);
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > dataStart) {
+            throw new IOException("corrupt page " + id + ": " + numSlots
+                    + " slots and " + (pageSize - dataStart) + " bytes of tuples");
+        }
+        oldData = null;
+    }
+
+    /** @return the most bytes a tuple of td can take on a SlottedPage */
+    static int maxTupleSize(TupleDesc td) {
+        int retVal = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            retVal += (td.getFieldType(i) == Type.STRING_TYPE)
+                    ? 2 + Type.STRING_LEN : td.getFieldType(i).getLen();
+        }
+        return retVal;
+    }
+
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, td, pageSize, oldData != null ? oldData : data.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    /** Saves the before image ahead of the first change to this page. */
+    private void snapshot() {
+        if (oldData == null) {
+            oldData = data.clone();
+        }
+    }
+
+    public SlottedPageId getId() {
+        return this.pid;
+    }
+
+    /** @return the offset of the tuple in slot i, or 0 if the slot is empty */
+    private int slotOffset(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xFFFF;
+    }
+
+    private void setSlotOffset(int i, int offset) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+    }
+
+    private void setHeader() {
+        buf.putShort(0, (short) numSlots);
+        buf.putShort(2, (short) (pageSize - dataStart));
+    }
+
+    /** Decodes the tuple in slot i, which must be used. */
+    private Tuple tupleAt(int i) {
+        Tuple t = new Tuple(td);
+        int offset = slotOffset(i);
+        try {
+            for (int f = 0; f < td.numFields(); f++) {
+                Field field = td.getFieldType(f).parseVarLen(buf, offset);
+                t.setField(f, field);
+                offset += field.getType().getVarLen(field);
+            }
+        } catch (ParseException e) {
+            throw new RuntimeException("couldn't parse slot " + i + " of " + pid, e);
+        }
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /** @return the number of bytes taken by the tuple in slot i */
+    private int tupleSize(int i) {
+        int retVal = 0;
+        Tuple t = tupleAt(i);
+        for (int f = 0; f < td.numFields(); f++) {
+            retVal += td.getFieldType(f).getVarLen(t.getField(f));
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     * @throws NoSuchElementException if there is no such slot
+     */
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots) {
+            throw new NoSuchElementException("no slot " + slotId + " on " + pid);
+        }
+        return isSlotUsed(slotId) ? tupleAt(slotId) : null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor.
+     */
+    public byte[] getPageData() {
+        byte[] retVal = new byte[pageSize];
+        System.arraycopy(data, 0, retVal, 0, pageSize);
+        return retVal;
+    }
+
+    /** @return the bytes of an empty page */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /** @return t in the variable-length encoding stored on the page */
+    static byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            TupleDesc td = t.getTupleDesc();
+            for (int i = 0; i < td.numFields(); i++) {
+                td.getFieldType(i).serializeVarLen(t.getField(i), dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Delete the specified tuple from the page, and move the tuples stored
+     * below it up over the space it took.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno())) {
+            throw new DbException("tuple is not on " + pid);
+        }
+        snapshot();
+        int slot = rid.tupleno();
+        int offset = slotOffset(slot);
+        int len = tupleSize(slot);
+
+        /** compact: everything between dataStart and the hole moves up by len */
+        System.arraycopy(data, dataStart, data, dataStart + len, offset - dataStart);
+        Arrays.fill(data, dataStart, dataStart + len, (byte) 0);
+        for (int i = 0; i < numSlots; i++) {
+            int o = slotOffset(i);
+            if (o != 0 && o < offset) {
+                setSlotOffset(i, o + len);
+            }
+        }
+        dataStart += len;
+        setSlotOffset(slot, 0);
+
+        // trailing empty slots can go, no RecordId refers to them
+        while (numSlots > 0 && slotOffset(numSlots - 1) == 0) {
+            numSlots--;
+        }
+        setHeader();
+    }
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     * @throws DbException if the page doesn't have room for it
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        byte[] bytes = encode(t);
+        int slot = 0;
+        while (slot < numSlots && slotOffset(slot) != 0) {
+            slot++;
+        }
+        int needed = bytes.length + (slot == numSlots ? SLOT_SIZE : 0);
+        if (needed > getFreeSpace()) {
+            throw new DbException("No room for a " + bytes.length + " byte tuple on " + pid);
+        }
+        snapshot();
+        if (slot == numSlots) {
+            numSlots++;
+        }
+        dataStart -= bytes.length;
+        System.arraycopy(bytes, 0, data, dataStart, bytes.length);
+        setSlotOffset(slot, dataStart);
+        setHeader();
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /** @return true if t would fit on this page as it is */
+    public boolean hasRoomFor(Tuple t) {
+        int needed = SLOT_SIZE;
+        for (int i = 0; i < td.numFields(); i++) {
+            needed += td.getFieldType(i).getVarLen(t.getField(i));
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (slotOffset(i) == 0) {
+                needed -= SLOT_SIZE;
+                break;
+            }
+        }
+        return needed <= getFreeSpace();
+    }
+
+    /** @return the number of unused bytes between the slot directory and the tuples */
+    public int getFreeSpace() {
+        return dataStart - HEADER_SIZE - numSlots * SLOT_SIZE;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.myDirtyTransactionId = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.myDirtyTransactionId;
+    }
+
+    /** Returns the number of tuples on this page. */
+    public int getNumTuples() {
+        int retVal = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (slotOffset(i) != 0) {
+                retVal++;
+            }
+        }
+        return retVal;
+    }
+
+    /** Returns true if associated slot on this page is filled. */
+    public boolean isSlotUsed(int i) {
+        if (i < 0 || i >= numSlots) {
+            return false;
+        }
+        return slotOffset(i) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            int current = nextUsed(0);
+
+            private int nextUsed(int from) {
+                while (from < numSlots && slotOffset(from) == 0) {
+                    from++;
+                }
+                return from;
+            }
+
+            public boolean hasNext() {
+                return current < numSlots;
+            }
+
+            public Tuple next() {
+                if (current >= numSlots) {
+                    throw new NoSuchElementException();
+                }
+                Tuple retVal = tupleAt(current);
+                current = nextUsed(current + 1);
+                return retVal;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * StringDictionary maps the distinct values of a dictionary-encoded STRING
+ * column to small int codes, 0, 1, 2, ... in the order they were first
+ * seen. Pages of a dictionary-encoded table store the 4 byte code instead
+ * of the 132 byte string, see TupleDesc#getDictionary, and the tuples read
+ * from them hold DictionaryFields, which compare and hash by code.
+ * <p>
+ * Codes are never reused or reassigned. New values are appended to the
+ * dictionary's file (two bytes of length, then the string) and flushed as
+ * soon as they get a code, so the dictionary is always on disk before any
+ * page that uses the code.
+ *
+ * @see DictionaryField
+ */
+public class StringDictionary implements Closeable {
+
+    private final File myFile;
+    private final HashMap<String, Integer> myCodes;
+    /** One shared field per code; replaced, never changed, as codes are added. */
+    private volatile DictionaryField myFields[];
+    private int mySize;
+
+    private transient DataOutputStream myOut;
+
+    /**
+     * Loads the dictionary in f, or starts an empty one if f doesn't exist.
+     * A value cut short at the end of the file (by a crash while it was
+     * being appended) is dropped; no page can refer to it.
+     */
+    public StringDictionary(File f) throws IOException {
+        this.myFile = f;
+        this.myCodes = new HashMap<String, Integer>();
+        this.myFields = new DictionaryField[16];
+        if (!f.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)));
+        long valid = 0;
+        try {
+            while (true) {
+                int len = in.readUnsignedShort();
+                byte bs[] = new byte[len];
+                in.readFully(bs);
+                add(new String(bs));
+                valid += 2 + len;
+            }
+        } catch (EOFException e) {
+            // end of the dictionary
+        } finally {
+            in.close();
+        }
+        if (valid < f.length()) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    public File getFile() {
+        return this.myFile;
+    }
+
+    /** @return the number of distinct values in the dictionary */
+    public synchronized int size() {
+        return mySize;
+    }
+
+    private int add(String s) {
+        int code = mySize;
+        DictionaryField fields[] = myFields;
+        if (code == fields.length) {
+            DictionaryField grown[] = new DictionaryField[code * 2];
+            System.arraycopy(fields, 0, grown, 0, code);
+            fields = grown;
+        }
+        fields[code] = new DictionaryField(this, code, s);
+        myFields = fields;
+        myCodes.put(s, code);
+        mySize++;
+        return code;
+    }
+
+    /**
+     * @return the code of s, or -1 if s is not in the dictionary
+     */
+    public synchronized int lookup(String s) {
+        if (s.length() > Type.STRING_LEN) {
+            s = s.substring(0, Type.STRING_LEN);
+        }
+        Integer code = myCodes.get(s);
+        return (code == null) ? -1 : code;
+    }
+
+    /**
+     * @return the code of the value of f, which must be a StringField,
+     *   giving it a new code if it doesn't have one yet
+     */
+    public int encode(Field f) throws IOException {
+        if (f instanceof DictionaryField && ((DictionaryField) f).getDictionary() == this) {
+            return ((DictionaryField) f).getCode();
+        }
+        String s = ((StringField) f).getValue();
+        synchronized (this) {
+            Integer code = myCodes.get(s);
+            if (code != null) {
+                return code;
+            }
+            if (myOut == null) {
+                myOut = new DataOutputStream(new FileOutputStream(myFile, true));
+            }
+            myOut.writeShort(s.length());
+            myOut.writeBytes(s);
+            myOut.flush();
+            return add(s);
+        }
+    }
+
+    /**
+     * @return the field holding the value with the given code
+     * @throws NoSuchElementException if there is no such code
+     */
+    public DictionaryField field(int code) {
+        DictionaryField fields[] = myFields;
+        if (code < 0 || code >= fields.length || fields[code] == null) {
+            throw new NoSuchElementException("no code " + code + " in " + myFile);
+        }
+        return fields[code];
+    }
+
+    /** Closes the file new values are appended to; it is reopened if need be. */
+    public synchronized void close() throws IOException {
+        if (myOut != null) {
+            myOut.close();
+        }
+        myOut = null;
+    }
+}
@@ -66,6 +66,28 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to dos without padding, as SlottedPage stores it:
+	 * two bytes of string length, then the string.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 */
+	public void serializeVarLen(DataOutputStream dos) throws IOException {
+		String s = value;
+		if (s.length() > maxSize)
+			s = s.substring(0, maxSize);
+		dos.writeShort(s.length());
+		dos.writeBytes(s);
+	}
+
+	/**
+	 * @return the number of bytes serializeVarLen writes
+	 */
+	public int getVarLen() {
+		return 2 + Math.min(value.length(), maxSize);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -201,7 +202,44 @@ public class TableStats {
     
         dbIterator.close();
 
-    }   
+    }
+
+    /**
+     * Creates the statistics of dbFile from what was gathered while it was
+     * written, without scanning it; see BulkLoader#getTableStats.
+     *
+     * @param numTuples the number of tuples in dbFile
+     * @param mins the smallest value of each INT field
+     * @param maxs the largest value of each INT field
+     * @param sample a uniform sample of the tuples, which the histograms
+     *            are filled from
+     */
+    TableStats(DbFile dbFile, int ioCostPerPage, int numTuples, int[] mins, int[] maxs,
+            List<Tuple> sample) {
+        this.dbFile = dbFile;
+        this.ioCostPerPage = ioCostPerPage;
+        this.numTuples = numTuples;
+        this.intHistMap = new HashMap<String, IntHistogram>();
+        this.strHistMap = new HashMap<String, StringHistogram>();
+
+        TupleDesc tupleDesc = dbFile.getTupleDesc();
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            String fieldName = tupleDesc.getFieldName(i);
+            if (tupleDesc.getFieldType(i).equals(Type.INT_TYPE)) {
+                IntHistogram intHist = new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
+                for (Tuple tuple : sample) {
+                    intHist.addValue(((IntField) tuple.getField(i)).getValue());
+                }
+                intHistMap.put(fieldName, intHist);
+            } else {
+                StringHistogram strHist = new StringHistogram(NUM_HIST_BINS);
+                for (Tuple tuple : sample) {
+                    strHist.addValue(((StringField) tuple.getField(i)).getValue());
+                }
+                strHistMap.put(fieldName, strHist);
+            }
+        }
+    }
 
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
@@ -216,9 +254,42 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
+        return this.dbFile.numPages() * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of sequentially scanning the file for the tuples that
+     * satisfy <tt>field op constant</tt>, when the scan skips the pages whose
+     * zone map rules them out (see SeqScan#addPagePredicate). Pages the zone
+     * map knows nothing about are counted as read.
+     *
+     * @return The estimated cost of the scan, comparable to estimateScanCost()
+     */
+    public double estimateScanCost(int field, Predicate.Op op, Field constant) {
+        if (!(this.dbFile instanceof HeapFile)) {
+            return estimateScanCost();
+        }
         HeapFile hfDbFile = (HeapFile) this.dbFile;
         int numPages = hfDbFile.numPages();
-        return numPages * this.ioCostPerPage;
+        int pages = hfDbFile.getZoneMap().candidatePages(new Predicate(field, op, constant), numPages);
+        return pages * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that pass a predicate with the
+     * given selectivity through an IndexScan. Indexes are not clustered, so
+     * each matching tuple may cost a page read of its own, on top of the
+     * pages read to find the first entry.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicate the index answers
+     * @param index
+     *            The index that answers it
+     * @return The estimated cost of the index scan, comparable to
+     *         estimateScanCost()
+     */
+    public double estimateIndexScanCost(double selectivityFactor, IndexFile index) {
+        return (estimateTableCardinality(selectivityFactor) + index.lookupPages()) * this.ioCostPerPage;
     }
 
     /**
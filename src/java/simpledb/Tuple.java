@@ -1,6 +1,10 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -9,6 +13,14 @@ import java.util.List;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page may instead be backed by the page's bytes: its
+ * fields are then decoded only when they are asked for, and
+ * {@link #getInt} and {@link #compareField} read int fields in place without
+ * creating Field objects at all. Operators that hold on to tuples beyond the
+ * current row call {@link #detach} so they don't keep whole pages alive.
+ * Dictionary-encoded fields (see TupleDesc#getDictionary) are stored as
+ * their code and decode to their dictionary's shared DictionaryField.
  */
 public class Tuple implements Serializable {
 
@@ -27,10 +39,41 @@ public class Tuple implements Serializable {
         this.myFields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are read on demand from a serialized tuple
+     * of the given schema starting at offset in data. data must not change
+     * while the tuple refers to it.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int offset) {
+        this.myTupleDesc = td;
+        this.myData = data;
+        this.myOffset = offset;
+    }
+
+    /**
+     * Create a tuple whose fields are read on demand from a columnar page:
+     * field i is the slot'th value of the column that starts at
+     * columnStarts[i] in data, see PaxPage.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int columnStarts[], int slot) {
+        this.myTupleDesc = td;
+        this.myData = data;
+        this.myColumnStarts = columnStarts;
+        this.myOffset = slot;
+    }
+
     private TupleDesc myTupleDesc;
+    /** Fields that have been set or decoded; null until one is. */
     private Field[] myFields;
     private RecordId myRecordId;
 
+    /** Bytes this tuple is read from, or null once all fields are in myFields. */
+    private transient ByteBuffer myData;
+    private int myOffset;
+    /** Where each column starts in myData for a tuple read from a columnar
+        page, whose myOffset is then its slot; null for row layout. */
+    private transient int[] myColumnStarts;
+
 
     /**
      * @return The TupleDesc representing the schema of this tuple.
@@ -70,15 +113,47 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        if (i < myFields.length && i >= 0) {
+        if (i < myTupleDesc.numFields() && i >= 0) {
             if (myTupleDesc.getFieldType(i) != f.getType()) {
                 throw new RuntimeException("Derp");
             } else {
-                myFields[i] = f;
+                fieldArray()[i] = f;
             }
         }
     }
 
+    private Field[] fieldArray() {
+        if (myFields == null) {
+            myFields = new Field[myTupleDesc.numFields()];
+        }
+        return myFields;
+    }
+
+    /** @return field i, decoding it from the backing bytes if need be */
+    private Field decode(int i) {
+        Field f = (myFields != null) ? myFields[i] : null;
+        if (f == null && myData != null) {
+            StringDictionary dictionary = myTupleDesc.getDictionary(i);
+            try {
+                f = (dictionary != null)
+                        ? dictionary.field(myData.getInt(fieldOffset(i)))
+                        : myTupleDesc.getFieldType(i).parse(myData, fieldOffset(i));
+            } catch (ParseException e) {
+                throw new RuntimeException("couldn't parse field " + i, e);
+            }
+            fieldArray()[i] = f;
+        }
+        return f;
+    }
+
+    /** @return where field i starts in myData */
+    private int fieldOffset(int i) {
+        if (myColumnStarts != null) {
+            return myColumnStarts[i] + myOffset * myTupleDesc.getFieldType(i).getLen();
+        }
+        return myOffset + myTupleDesc.getOffset(i);
+    }
+
     /**
      * @return the value of the ith field, or null if it has not been set.
      * 
@@ -87,8 +162,8 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        if (i < myFields.length && i >= 0) {
-            Field retVal = myFields[i];
+        if (i < myTupleDesc.numFields() && i >= 0) {
+            Field retVal = decode(i);
             if (retVal != null) {
                 return retVal;
             } else {
@@ -99,6 +174,68 @@ public class Tuple implements Serializable {
         }
     }
 
+    /**
+     * @return the value of the ith field, which must be a set INT_TYPE
+     *         field. Does not create an IntField if the tuple is backed by
+     *         page bytes.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        if (myData != null && (myFields == null || myFields[i] == null)
+                && myTupleDesc.getFieldType(i) == Type.INT_TYPE) {
+            return myData.getInt(fieldOffset(i));
+        }
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Compares the ith field of this tuple to operand, as
+     * getField(i).compare(op, operand) would, but reads int fields, and the
+     * codes of dictionary-encoded fields compared for (in)equality, straight
+     * from the backing bytes when it can.
+     *
+     * @param i
+     *            field index to compare. Must be a valid index.
+     */
+    public boolean compareField(int i, Predicate.Op op, Field operand) {
+        if (operand instanceof IntField && myTupleDesc.getFieldType(i) == Type.INT_TYPE) {
+            return IntField.compare(getInt(i), op, ((IntField) operand).getValue());
+        }
+        StringDictionary dictionary = myTupleDesc.getDictionary(i);
+        if (dictionary != null && myData != null && (myFields == null || myFields[i] == null)
+                && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+            int code = (operand instanceof DictionaryField
+                    && ((DictionaryField) operand).getDictionary() == dictionary)
+                    ? ((DictionaryField) operand).getCode()
+                    : dictionary.lookup(((StringField) operand).getValue());
+            boolean equal = myData.getInt(fieldOffset(i)) == code;
+            return (op == Predicate.Op.EQUALS) ? equal : !equal;
+        }
+        return getField(i).compare(op, operand);
+    }
+
+    /**
+     * Decodes any fields still held only as bytes and drops the reference to
+     * them. Called on tuples that outlive the current row, e.g. by operators
+     * that buffer their input, so they don't pin the page they came from.
+     */
+    public void detach() {
+        if (myData != null) {
+            for (int i = 0; i < myTupleDesc.numFields(); i++) {
+                decode(i);
+            }
+            myData = null;
+            myColumnStarts = null;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        detach();
+        out.defaultWriteObject();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -110,11 +247,12 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         String retVal = "";
-        for (int i=0; i< myFields.length; i++) {
-            if (i == myFields.length-1) {
-                retVal = retVal + myFields[i] + "\n";
+        int numFields = myTupleDesc.numFields();
+        for (int i=0; i< numFields; i++) {
+            if (i == numFields-1) {
+                retVal = retVal + getField(i) + "\n";
             } else {
-                retVal = retVal + myFields[i] + "\t";
+                retVal = retVal + getField(i) + "\t";
             }
         }
         return retVal;
@@ -127,7 +265,8 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        List<Field> arrAsList = Arrays.asList(myFields);
+        detach();
+        List<Field> arrAsList = Arrays.asList(fieldArray());
         return arrAsList.iterator();
     }
 }
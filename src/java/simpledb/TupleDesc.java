@@ -25,6 +25,11 @@ public class TupleDesc implements Serializable {
          * */
         String fieldName;
 
+        /**
+         * The dictionary of a dictionary-encoded STRING field, or null
+         * */
+        transient StringDictionary dictionary;
+
         public TDItem(Type t, String n) {
             this.fieldName = n;
             this.fieldType = t;
@@ -76,6 +81,26 @@ public class TupleDesc implements Serializable {
     	}
     }
 
+    /**
+     * Create a new TupleDesc like TupleDesc(typeAr, fieldAr) in which the
+     * STRING fields with a non-null entry in dictAr are dictionary-encoded:
+     * stored on pages as their 4 byte code in that dictionary, and read back
+     * as DictionaryFields.
+     * 
+     * @param dictAr
+     *            array with the dictionary of each field, or null for fields
+     *            that are stored as they are
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, StringDictionary[] dictAr) {
+        this(typeAr, fieldAr);
+        for (int i = 0; i < dictAr.length; i++) {
+            if (dictAr[i] != null && typeAr[i] != Type.STRING_TYPE) {
+                throw new IllegalArgumentException("only STRING fields can be dictionary-encoded");
+            }
+            TDItems.get(i).dictionary = dictAr[i];
+        }
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -138,6 +163,16 @@ public class TupleDesc implements Serializable {
         }
     }
 
+    /**
+     * @return the dictionary the ith field is encoded with, or null if it
+     *         is not dictionary-encoded
+     * @param i
+     *            index of the field. Must be a valid index.
+     */
+    public StringDictionary getDictionary(int i) {
+        return TDItems.get(i).dictionary;
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -164,19 +199,46 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size;
+     *         dictionary-encoded fields take the size of an INT.
      */
     public int getSize() {
         // some code goes here
-        int running_count = 0;
-        for (TDItem td_item : TDItems) {
-            if (td_item.fieldType.equals(Type.INT_TYPE)) {
-                running_count += td_item.fieldType.getLen();
-            } else if (td_item.fieldType.equals(Type.STRING_TYPE)) {
-                running_count += td_item.fieldType.getLen();
+        int[] offsets = offsets();
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @return the byte offset of the ith field within a serialized tuple of
+     *         this TupleDesc
+     * @param i
+     *            index of the field. Must be a valid index.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+        if (i >= TDItems.size() || i < 0) {
+            throw new NoSuchElementException("No such element.");
+        }
+        return offsets()[i];
+    }
+
+    /** Field offsets, plus the total size as the last entry; computed once. */
+    private transient int[] myOffsets;
+
+    private int[] offsets() {
+        int[] offsets = myOffsets;
+        if (offsets == null) {
+            offsets = new int[TDItems.size() + 1];
+            int running_count = 0;
+            for (int i = 0; i < TDItems.size(); i++) {
+                offsets[i] = running_count;
+                TDItem item = TDItems.get(i);
+                running_count += (item.dictionary != null)
+                        ? Type.INT_TYPE.getLen() : item.fieldType.getLen();
             }
+            offsets[TDItems.size()] = running_count;
+            myOffsets = offsets;
         }
-        return running_count;
+        return offsets;
     }
 
     /**
@@ -198,22 +260,25 @@ public class TupleDesc implements Serializable {
 
         Type[] typeArray = new Type[ar1_length + ar2_length];
         String[] strArray = new String[ar1_length + ar2_length];
+        StringDictionary[] dictArray = new StringDictionary[ar1_length + ar2_length];
 
         int counter = 0;
 
         for (TDItem t1 : ar1) {
             typeArray[counter] = t1.fieldType;
             strArray[counter] = t1.fieldName;
+            dictArray[counter] = t1.dictionary;
             counter++;
         }
 
         for (TDItem t2: ar2) {
             typeArray[counter] = t2.fieldType;
             strArray[counter] = t2.fieldName;
+            dictArray[counter] = t2.dictionary;
             counter++;
         }
 
-        TupleDesc retVal = new TupleDesc(typeArray, strArray);
+        TupleDesc retVal = new TupleDesc(typeArray, strArray, dictArray);
 
         return retVal;
     }
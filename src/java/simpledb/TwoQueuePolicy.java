@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The full 2Q algorithm (Johnson and Shasha). Pages read in go on a FIFO,
+ * A1in; the ids of pages evicted from A1in are remembered on a second FIFO,
+ * A1out, without their data. Only a page read in again while A1out still
+ * remembers it has proven itself, and goes on the LRU list Am. Evictions
+ * come from A1in while it holds more than a quarter of the pages, so a scan
+ * churns through A1in and leaves Am alone.
+ * <p>
+ * The queues are linked hash maps, so every operation is O(1). The sizes
+ * of A1in and A1out follow the number of pages cached, as the pool's budget
+ * is in bytes. Hits synchronize on the policy.
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    /** Share of the cached pages A1in may hold before it is evicted from first. */
+    private static final double IN_SHARE = 0.25;
+    /** Number of evicted pages A1out remembers, as a share of the cached pages. */
+    private static final double OUT_SHARE = 0.5;
+
+    private final LinkedHashSet<PageId> myIn = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> myOut = new LinkedHashSet<PageId>();
+    /** Least recently used first. */
+    private final LinkedHashSet<PageId> myMain = new LinkedHashSet<PageId>();
+
+    private int size() {
+        return myIn.size() + myMain.size();
+    }
+
+    public synchronized void added(PageId pid) {
+        if (myOut.remove(pid)) {
+            myMain.add(pid);
+        } else {
+            myIn.add(pid);
+        }
+    }
+
+    public synchronized void used(PageId pid) {
+        /** Uses of pages on A1in are correlated with the one that read them
+         *  in, e.g. the rest of a scan of the page; they don't count. */
+        if (myMain.remove(pid)) {
+            myMain.add(pid);
+        }
+    }
+
+    public synchronized void removed(PageId pid) {
+        if (myIn.remove(pid)) {
+            myOut.add(pid);
+            int maxOut = Math.max(1, (int) (OUT_SHARE * size()));
+            Iterator<PageId> it = myOut.iterator();
+            while (myOut.size() > maxOut) {
+                it.next();
+                it.remove();
+            }
+        } else {
+            myMain.remove(pid);
+        }
+    }
+
+    public synchronized PageId victim(Candidates candidates) {
+        LinkedHashSet<PageId> first = myMain;
+        LinkedHashSet<PageId> second = myIn;
+        if (myIn.size() > IN_SHARE * size() || myMain.isEmpty()) {
+            first = myIn;
+            second = myMain;
+        }
+        PageId retVal = firstEvictable(first, candidates);
+        return (retVal != null) ? retVal : firstEvictable(second, candidates);
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> queue, Candidates candidates) {
+        for (PageId pid : queue) {
+            if (candidates.isEvictable(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
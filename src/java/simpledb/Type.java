@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,24 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +62,56 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, start);
+                }
+                byte bs[] = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public int getVarLen(Field f) {
+            return ((StringField) f).getVarLen();
+        }
+
+        @Override
+        public void serializeVarLen(Field f, DataOutputStream dos) throws IOException {
+            ((StringField) f).serializeVarLen(dos);
+        }
+
+        @Override
+        public Field parseVarLen(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getShort(offset) & 0xFFFF;
+                if (strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, offset);
+                }
+                byte bs[] = new byte[strLen];
+                ByteBuffer view = buf.duplicate();
+                view.position(offset + 2);
+                view.get(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", offset);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +130,66 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at its current position. The
+   *   position is left just past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the buffer does not hold a valid value of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at the given absolute offset. The
+   *   buffer's position is not changed.
+   * @param buf The buffer to read from
+   * @param offset Where in buf the field starts
+   * @throws ParseException if the buffer does not hold a valid value of the
+   *   appropriate type.
+   */
+    public Field parse(ByteBuffer buf, int offset) throws ParseException {
+        ByteBuffer view = buf.duplicate();
+        try {
+            view.position(offset);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("couldn't parse", offset);
+        }
+        return parse(view);
+    }
+
+  /**
+   * @return the number of bytes f takes in the variable-length encoding
+   *   written by {@link #serializeVarLen}; getLen() unless overridden.
+   * @param f A field of this type
+   */
+    public int getVarLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Writes f in the variable-length encoding SlottedPage uses, which
+   * doesn't pad strings to STRING_LEN. Types whose values all have the same
+   * length use their usual serialization.
+   * @param f A field of this type
+   * @param dos Where the field is written
+   */
+    public void serializeVarLen(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * @return a Field object of the same type as this object read from the
+   *   variable-length encoding at the given absolute offset in buf; see
+   *   {@link #serializeVarLen}. The buffer's position is not changed.
+   * @param buf The buffer to read from
+   * @param offset Where in buf the field starts
+   * @throws ParseException if the buffer does not hold a valid value of the
+   *   appropriate type.
+   */
+    public Field parseVarLen(ByteBuffer buf, int offset) throws ParseException {
+        return parse(buf, offset);
+    }
+
 }
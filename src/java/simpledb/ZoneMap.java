@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every INT column on each
+ * page of a HeapFile, so that a scan with a predicate on such a column can
+ * skip pages that cannot hold a matching tuple.
+ * <p>
+ * A page's bounds are either unknown, in which case the page is never
+ * skipped, or known to contain every value on the page. Inserts widen the
+ * bounds of the page they go to. Deletes leave them alone, since they stay
+ * correct (just looser), but mark the page stale; a scan that reads a stale
+ * or unknown page without uncommitted changes summarizes it again. Bounds
+ * are never narrowed from a page with uncommitted changes, because an abort
+ * would bring the removed values back.
+ * <p>
+ * The map lives in a side file next to the table (table.dat.zm). Unlike
+ * the FreeSpaceMap's, a stale side file would make scans lose rows, so it
+ * isn't judged by its modification time alone: loading the map deletes
+ * the file, since the table may change from then on, and only {@link #save}
+ * writes it again. A table that is written to without a saved map being
+ * loaded first has no side file left to trust. A new or rebuilt map starts
+ * with every page unknown.
+ */
+public class ZoneMap {
+
+    private static final int KNOWN = 1;
+    private static final int STALE = 2;
+
+    private final File mySideFile;
+    /** Field numbers of the INT columns, in TupleDesc order. */
+    private final int myColumns[];
+    /** myMins[c][pg] and myMaxs[c][pg] bound column myColumns[c] on page pg. */
+    private int myMins[][];
+    private int myMaxs[][];
+    private final BitSet myKnown;
+    private final BitSet myStale;
+    /** Number of pages the map has information about. */
+    private int myPages;
+    /** True if the side file doesn't hold what the map knows. */
+    private boolean myDirty;
+
+    /**
+     * Loads the map for the given table file, or starts with every page
+     * unknown if there is no usable side file.
+     *
+     * @param dataFile the HeapFile's backing file
+     * @param td the HeapFile's TupleDesc
+     * @param numPages the current number of pages in dataFile
+     */
+    public ZoneMap(File dataFile, TupleDesc td, int numPages) {
+        this.mySideFile = new File(dataFile.getPath() + ".zm");
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                n++;
+            }
+        }
+        this.myColumns = new int[n];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                myColumns[n++] = i;
+            }
+        }
+        this.myMins = new int[myColumns.length][0];
+        this.myMaxs = new int[myColumns.length][0];
+        this.myKnown = new BitSet();
+        this.myStale = new BitSet();
+        this.myPages = 0;
+        if (!mySideFile.exists()) {
+            return;
+        }
+        // a table file replaced after the map was saved is still caught here
+        if (mySideFile.lastModified() >= dataFile.lastModified()) {
+            try {
+                load(numPages);
+                // the side file is gone below, so save() has to write it
+                myDirty = true;
+            } catch (IOException e) {
+                forget();
+            }
+        }
+        if (!mySideFile.delete()) {
+            forget();
+        }
+    }
+
+    private void forget() {
+        myKnown.clear();
+        myStale.clear();
+        myPages = 0;
+        myDirty = false;
+    }
+
+    private void load(int numPages) throws IOException {
+        DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mySideFile)));
+        try {
+            int pages = dis.readInt();
+            int columns = dis.readInt();
+            if (pages < 0 || pages > numPages) {
+                throw new IOException("zone map covers " + pages
+                        + " pages, table has " + numPages);
+            }
+            if (columns != myColumns.length) {
+                throw new IOException("zone map has " + columns
+                        + " columns, table has " + myColumns.length);
+            }
+            grow(pages);
+            for (int pg = 0; pg < pages; pg++) {
+                int flags = dis.readUnsignedByte();
+                if ((flags & KNOWN) == 0) {
+                    continue;
+                }
+                myKnown.set(pg);
+                myStale.set(pg, (flags & STALE) != 0);
+                for (int c = 0; c < myColumns.length; c++) {
+                    myMins[c][pg] = dis.readInt();
+                    myMaxs[c][pg] = dis.readInt();
+                }
+            }
+        } finally {
+            dis.close();
+        }
+    }
+
+    /** Makes room for pages past the end of the map; they start out unknown. */
+    private void grow(int numPages) {
+        if (numPages <= myPages) {
+            return;
+        }
+        if (myColumns.length > 0 && numPages > myMins[0].length) {
+            int capacity = Math.max(numPages, 2 * myMins[0].length);
+            for (int c = 0; c < myColumns.length; c++) {
+                myMins[c] = Arrays.copyOf(myMins[c], capacity);
+                myMaxs[c] = Arrays.copyOf(myMaxs[c], capacity);
+            }
+        }
+        myPages = numPages;
+    }
+
+    /** Records that page pgNo holds no tuples. */
+    public synchronized void setEmpty(int pgNo) {
+        grow(pgNo + 1);
+        for (int c = 0; c < myColumns.length; c++) {
+            myMins[c][pgNo] = Integer.MAX_VALUE;
+            myMaxs[c][pgNo] = Integer.MIN_VALUE;
+        }
+        myKnown.set(pgNo);
+        myStale.clear(pgNo);
+        myDirty = true;
+    }
+
+    /** @return true if page pgNo should be summarized when a scan reads it */
+    public synchronized boolean needsSummary(int pgNo) {
+        return !myKnown.get(pgNo) || myStale.get(pgNo);
+    }
+
+    /**
+     * Replaces the bounds of a page with those of its tuples. The page must
+     * not have uncommitted changes.
+     */
+    public synchronized void summarize(HeapPage page) {
+        int pgNo = page.getId().pageNumber();
+        setEmpty(pgNo);
+        java.util.Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            widen(pgNo, it.next());
+        }
+    }
+
+    /** Widens the bounds of page pgNo, if known, to include t. */
+    public synchronized void include(int pgNo, Tuple t) {
+        if (pgNo < myPages && myKnown.get(pgNo)) {
+            widen(pgNo, t);
+            myDirty = true;
+        }
+    }
+
+    private void widen(int pgNo, Tuple t) {
+        for (int c = 0; c < myColumns.length; c++) {
+            int v = ((IntField) t.getField(myColumns[c])).getValue();
+            if (v < myMins[c][pgNo]) {
+                myMins[c][pgNo] = v;
+            }
+            if (v > myMaxs[c][pgNo]) {
+                myMaxs[c][pgNo] = v;
+            }
+        }
+    }
+
+    /** Records that a tuple was removed from page pgNo, so its bounds may be loose. */
+    public synchronized void setStale(int pgNo) {
+        if (pgNo < myPages && myKnown.get(pgNo) && !myStale.get(pgNo)) {
+            myStale.set(pgNo);
+            myDirty = true;
+        }
+    }
+
+    /**
+     * @return false if no tuple on page pgNo can satisfy p, true if some
+     *   might (including when nothing is known about the page or p is not
+     *   on an INT column)
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate p) {
+        int c = Arrays.binarySearch(myColumns, p.getField());
+        if (c < 0 || pgNo >= myPages || !myKnown.get(pgNo)) {
+            return true;
+        }
+        int min = myMins[c][pgNo];
+        int max = myMaxs[c][pgNo];
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return !(min == v && max == v);
+        default:
+            return true;
+        }
+    }
+
+    /** @return the number of pages below numPages that p can't rule out */
+    public synchronized int candidatePages(Predicate p, int numPages) {
+        int n = 0;
+        for (int pg = 0; pg < numPages; pg++) {
+            if (mayMatch(pg, p)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes the map to its side file. Call it only once no more changes
+     * will be made to the table through this map, e.g. when the file is
+     * closed; the next ZoneMap loaded for the table retires the file again.
+     */
+    public synchronized void save() throws IOException {
+        if (!myDirty) {
+            return;
+        }
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mySideFile)));
+        try {
+            dos.writeInt(myPages);
+            dos.writeInt(myColumns.length);
+            for (int pg = 0; pg < myPages; pg++) {
+                if (!myKnown.get(pg)) {
+                    dos.writeByte(0);
+                    continue;
+                }
+                dos.writeByte(KNOWN | (myStale.get(pg) ? STALE : 0));
+                for (int c = 0; c < myColumns.length; c++) {
+                    dos.writeInt(myMins[c][pg]);
+                    dos.writeInt(myMaxs[c][pg]);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+        myDirty = false;
+    }
+}
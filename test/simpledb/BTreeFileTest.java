@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // few distinct values, so most keys are duplicated
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 500, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private BTreeFile emptyIndex(int pageSize) throws Exception {
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, table.getId(), 0, Type.INT_TYPE, pageSize);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /** @return the sorted column 0 values v of the table with "v op operand" */
+    private ArrayList<Integer> expected(Predicate.Op op, int operand) {
+        ArrayList<Integer> retVal = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(operand))) {
+                retVal.add(t.get(0));
+            }
+        }
+        Collections.sort(retVal);
+        return retVal;
+    }
+
+    /** @return the keys read from it, checking they are in entry order */
+    private ArrayList<Integer> keys(DbFileIterator it) throws Exception {
+        ArrayList<Integer> retVal = new ArrayList<Integer>();
+        Tuple prev = null;
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (prev != null) {
+                assertTrue(BTreePage.compare(prev.getField(0), prev.getInt(1), prev.getInt(2),
+                        t.getField(0), t.getInt(1), t.getInt(2)) < 0);
+            }
+            retVal.add(t.getInt(0));
+            prev = t;
+        }
+        it.close();
+        return retVal;
+    }
+
+    private void checkLookups(BTreeFile index) throws Exception {
+        assertEquals(expected(Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE),
+                keys(index.iterator(tid)));
+        for (int v : new int[] { -1, 0, 17, 250, 499, 500 }) {
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                    Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                    Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+                assertEquals(op + " " + v, expected(op, v),
+                        keys(index.indexIterator(tid, op, new IntField(v))));
+            }
+        }
+    }
+
+    /**
+     * Entries inserted one at a time into small pages split leaves and
+     * internal nodes, including the root, several times over.
+     */
+    @Test public void insertAndSplit() throws Exception {
+        BTreeFile index = emptyIndex(128);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            index.insertEntry(tid, t.getField(0), t.getRecordId());
+        }
+        it.close();
+        assertTrue(index.numPages() > 300);
+        BTreePage root = (BTreePage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(index.getId(), 0), Permissions.READ_ONLY);
+        assertFalse(root.isLeaf());
+        checkLookups(index);
+    }
+
+    /** An index built in bulk answers the same lookups. */
+    @Test public void create() throws Exception {
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        BTreeFile index = BTreeFile.create(f, table, 0);
+        assertSame(index, Database.getCatalog().getIndex(table.getId(), 0));
+        assertNull(Database.getCatalog().getIndex(table.getId(), 1));
+        checkLookups(index);
+
+        // and still does after more inserts have split its full leaves
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i % 600, i });
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        checkLookups(index);
+    }
+
+    /** Deleting an entry removes exactly that (key, RecordId) pair. */
+    @Test public void deleteEntry() throws Exception {
+        BTreeFile index = emptyIndex(128);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            index.insertEntry(tid, t.getField(0), t.getRecordId());
+            inserted.add(t);
+        }
+        it.close();
+
+        for (int i = 0; i < inserted.size(); i += 2) {
+            Tuple t = inserted.get(i);
+            index.deleteEntry(tid, t.getField(0), t.getRecordId());
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        checkLookups(index);
+
+        try {
+            Tuple t = inserted.get(0);
+            index.deleteEntry(tid, t.getField(0), t.getRecordId());
+            fail("deleted an entry twice");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** Index pages written to disk read back the same. */
+    @Test public void pageRoundTrip() throws Exception {
+        BTreeFile index = emptyIndex(256);
+        for (int i = 0; i < 200; i++) {
+            index.insertEntry(tid, new IntField(i), new RecordId(new HeapPageId(table.getId(), i), i % 7));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 150; i < 200; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, keys(index.indexIterator(tid, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(150))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notEqualsUnsupported() throws Exception {
+        emptyIndex(128).indexIterator(tid, Predicate.Op.NOT_EQUALS, new IntField(1));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
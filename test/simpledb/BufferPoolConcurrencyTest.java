@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+
+    private HeapFile hf;
+    private int numPages;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        numPages = hf.numPages();
+    }
+
+    /** Calls run() on THREADS threads at once, each its own transaction. */
+    private abstract class Concurrently {
+        abstract void run(BufferPool bp, TransactionId tid, Random r) throws Exception;
+
+        void start(final BufferPool bp) throws Exception {
+            final Throwable failure[] = new Throwable[1];
+            Thread threads[] = new Thread[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                final Random r = new Random(i);
+                threads[i] = new Thread() {
+                    public void run() {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            Concurrently.this.run(bp, tid, r);
+                            bp.transactionComplete(tid);
+                        } catch (Throwable e) {
+                            failure[0] = e;
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            if (failure[0] instanceof Exception) {
+                throw (Exception) failure[0];
+            } else if (failure[0] != null) {
+                throw (Error) failure[0];
+            }
+        }
+    }
+
+    /** Concurrent hits all get the one cached copy, and lock what they read. */
+    @Test public void hits() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(numPages);
+        final Page pages[] = new Page[numPages];
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < numPages; i++) {
+            pages[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+
+        new Concurrently() {
+            void run(BufferPool bp, TransactionId tid, Random r) throws Exception {
+                for (int i = 0; i < 5000; i++) {
+                    HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                    assertSame(pages[pid.pageNumber()], bp.getPage(tid, pid, Permissions.READ_ONLY));
+                    assertTrue(bp.holdsLock(tid, pid));
+                }
+            }
+        }.start(bp);
+        assertEquals(numPages, bp.getPageReader().getReads());
+    }
+
+    /** Misses racing for a small pool keep it within its budget. */
+    @Test public void misses() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(numPages / 4);
+        new Concurrently() {
+            void run(BufferPool bp, TransactionId tid, Random r) throws Exception {
+                for (int i = 0; i < 500; i++) {
+                    HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                    assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                    assertTrue(bp.getUsedBytes() <= bp.getMaxBytes());
+                }
+            }
+        }.start(bp);
+    }
+
+    /**
+     * A transaction's locks are all released when it completes, and an
+     * exclusive lock can only be taken by the only holder of the page.
+     */
+    @Test public void locks() throws Exception {
+        BufferPool bp = Database.resetBufferPool(numPages);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        ArrayList<HeapPageId> pids = new ArrayList<HeapPageId>();
+        for (int i = 0; i < numPages; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            pids.add(pid);
+            bp.getPage(t1, pid, Permissions.READ_ONLY);
+        }
+        bp.getPage(t2, pids.get(0), Permissions.READ_ONLY);
+        // t2 isn't waiting for t1, so only a timeout ends the upgrade
+        BufferPool.setLockTimeout(100);
+        try {
+            bp.getPage(t1, pids.get(0), Permissions.READ_WRITE);
+            fail("upgraded a shared page");
+        } catch (TransactionAbortedException e) {
+            // expected; t1's locks went with it
+        } finally {
+            BufferPool.setLockTimeout(0);
+        }
+        for (HeapPageId pid : pids) {
+            assertFalse(bp.holdsLock(t1, pid));
+        }
+        assertTrue(bp.holdsLock(t2, pids.get(0)));
+        bp.getPage(t2, pids.get(0), Permissions.READ_WRITE);
+        bp.transactionComplete(t2);
+        assertFalse(bp.holdsLock(t2, pids.get(0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private static final int ROWS = 100000;
+    private static final Type INTS[] = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File text;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(18);
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(r.nextInt(1000) - 500);
+            tuples.add(tuple);
+            pw.println(" " + tuple.get(0) + "," + tuple.get(1));
+            if (i % 1000 == 0) {
+                pw.println();
+            }
+        }
+        pw.close();
+    }
+
+    private File load(BulkLoader loader, File in) throws Exception {
+        File out = File.createTempFile("table", ".dat");
+        out.deleteOnExit();
+        loader.load(in, out);
+        return out;
+    }
+
+    private static byte[] contents(File f) throws IOException {
+        byte bytes[] = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        in.readFully(bytes);
+        in.close();
+        return bytes;
+    }
+
+    /** Any number of workers writes the same pages, in input order. */
+    @Test public void load() throws Exception {
+        BulkLoader loader = new BulkLoader(INTS, BufferPool.PAGE_SIZE, ',');
+        loader.setThreads(1);
+        File serial = load(loader, text);
+        loader.setThreads(4);
+        File parallel = load(loader, text);
+
+        HeapFile hf = Utility.openHeapFile(2, parallel);
+        assertTrue(hf.numPages() > 2 * BulkLoader.PAGES_PER_CHUNK);
+        assertTrue(Arrays.equals(contents(serial), contents(parallel)));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, it.next().getInt(0));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Strings are trimmed, cut to Type.STRING_LEN and padded. */
+    @Test public void strings() throws Exception {
+        File in = File.createTempFile("table", ".txt");
+        in.deleteOnExit();
+        char longName[] = new char[Type.STRING_LEN + 10];
+        Arrays.fill(longName, 'x');
+        PrintWriter pw = new PrintWriter(new FileWriter(in));
+        pw.println("1| short ");
+        pw.println("2|" + new String(longName));
+        pw.close();
+
+        BulkLoader loader = new BulkLoader(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                BufferPool.PAGE_SIZE, '|');
+        File out = load(loader, in);
+        HeapFile hf = new HeapFile(out, new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }));
+        Database.getCatalog().addTable(hf, "strings");
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertEquals("short", ((StringField) it.next().getField(1)).getValue());
+        assertEquals(Type.STRING_LEN, ((StringField) it.next().getField(1)).getValue().length());
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A bad line fails the load, saying where it is. */
+    @Test public void malformed() throws Exception {
+        File in = File.createTempFile("table", ".txt");
+        in.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(in));
+        pw.println("1,2");
+        pw.println("3,four");
+        pw.close();
+        try {
+            load(new BulkLoader(INTS, BufferPool.PAGE_SIZE, ','), in);
+            fail("loaded a bad integer");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("line 2 "));
+        }
+
+        pw = new PrintWriter(new FileWriter(in));
+        pw.println("1,2,3");
+        pw.close();
+        try {
+            load(new BulkLoader(INTS, BufferPool.PAGE_SIZE, ','), in);
+            fail("loaded too many fields");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /** The statistics gathered while loading agree with a scan's. */
+    @Test public void tableStats() throws Exception {
+        BulkLoader loader = new BulkLoader(INTS, BufferPool.PAGE_SIZE, ',');
+        File out = load(loader, text);
+        HeapFile hf = Utility.openHeapFile(2, "c", out);
+        TableStats loaded = loader.getTableStats(hf, TableStats.IOCOSTPERPAGE);
+        TableStats scanned = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+
+        assertEquals(ROWS, loaded.totalTuples());
+        assertEquals(scanned.estimateScanCost(), loaded.estimateScanCost(), 0.0);
+        for (int v = -500; v <= 500; v += 50) {
+            assertEquals(scanned.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(v)),
+                    loaded.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(v)), 0.03);
+        }
+        for (int v = 0; v < ROWS; v += ROWS / 20) {
+            assertEquals(scanned.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(v)),
+                    loaded.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(v)), 0.03);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile heap;
+    private File file;
+    private HeapFile compressed;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        heap = SystemTestUtil.createRandomHeapFile(3, 2000, 100, null, tuples);
+        file = File.createTempFile("table", ".cdat");
+        file.deleteOnExit();
+        CompressedPageFile.indexFile(file).deleteOnExit();
+        HeapFileEncoder.compress(heap.getFile(), file, heap.getPageSize());
+        compressed = new HeapFile(file, heap.getTupleDesc(), heap.getPageSize(), true);
+        Database.getCatalog().addTable(compressed, "compressed");
+    }
+
+    /** Pages round trip through the codec, whatever is on them. */
+    @Test public void codec() throws Exception {
+        Random r = new Random(15);
+        byte[] page = new byte[4096];
+        byte[] out = new byte[4095];
+        byte[] back = new byte[4096];
+
+        // mostly zeros, as on a page of short strings
+        for (int i = 0; i < page.length; i += 37) {
+            page[i] = (byte) r.nextInt();
+        }
+        int len = PageCompressor.compress(page, page.length, out);
+        assertTrue(len > 0 && len < page.length / 4);
+        assertEquals(page.length, PageCompressor.decompress(out, 0, len, back));
+        assertTrue(Arrays.equals(page, back));
+
+        // random bytes don't compress
+        r.nextBytes(page);
+        assertEquals(-1, PageCompressor.compress(page, page.length, out));
+    }
+
+    /** The compressed table is smaller and holds the same tuples. */
+    @Test public void scan() throws Exception {
+        assertEquals(heap.numPages(), compressed.numPages());
+        assertTrue(file.length() < heap.getFile().length());
+        SystemTestUtil.matchTuples(compressed, tuples);
+    }
+
+    /**
+     * Inserts and deletes go through the BufferPool, are rolled back on
+     * abort, and are there when the file is opened again.
+     */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(compressed.getTupleDesc());
+            ArrayList<Integer> values = new ArrayList<Integer>();
+            for (int j = 0; j < 3; j++) {
+                t.setField(j, new IntField(1000 + i * 3 + j));
+                values.add(1000 + i * 3 + j);
+            }
+            Database.getBufferPool().insertTuple(tid, compressed.getId(), t);
+            tuples.add(values);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(compressed, tuples);
+
+        tid = new TransactionId();
+        DbFileIterator it = compressed.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(compressed, tuples);
+
+        int pages = compressed.numPages();
+        compressed.close();
+        HeapFile reopened = new HeapFile(file, heap.getTupleDesc(), heap.getPageSize(), true);
+        Database.getCatalog().addTable(reopened, "compressed");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(pages, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /** A corrupt page offset index is refused without leaking file handles. */
+    @Test public void badIndex() throws Exception {
+        File bad = File.createTempFile("bad", ".cdat");
+        bad.deleteOnExit();
+        File index = CompressedPageFile.indexFile(bad);
+        index.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(index));
+        out.writeLong(0);
+        out.writeInt(100);
+        out.close();
+
+        File fds = new File("/proc/self/fd");
+        int open = fds.exists() ? fds.list().length : 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                new CompressedPageFile(bad, heap.getPageSize());
+                fail("expected an IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("bad entry for page 0"));
+            }
+        }
+        if (fds.exists()) {
+            assertTrue(fds.list().length < open + 10);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
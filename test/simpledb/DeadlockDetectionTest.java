@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.concurrent.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DeadlockDetectionTest extends SimpleDbTestBase {
+    /** Time to let a request get into its queue, in ms. */
+    private static final int SETTLE = 50;
+
+    private BufferPool bp;
+    private PageId p0;
+    private PageId p1;
+    private PageId p2;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        p2 = new HeapPageId(hf.getId(), 2);
+    }
+
+    /**
+     * Requests pid for tid on a new thread.
+     *
+     * @return true once the lock is granted, or false if tid is aborted
+     */
+    private Future<Boolean> request(final TransactionId tid, final PageId pid,
+            final Permissions perm) throws InterruptedException {
+        FutureTask<Boolean> f = new FutureTask<Boolean>(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    bp.getPage(tid, pid, perm);
+                    return true;
+                } catch (TransactionAbortedException e) {
+                    return false;
+                }
+            }
+        });
+        new Thread(f).start();
+        Thread.sleep(SETTLE);
+        return f;
+    }
+
+    /** The request that closes a cycle gets one of its transactions aborted right away. */
+    @Test public void cycle() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        bp.getPage(t2, p1, Permissions.READ_WRITE);
+        Future<Boolean> first = request(t1, p1, Permissions.READ_WRITE);
+        assertFalse(first.isDone());
+        assertEquals(0, bp.getDeadlocks());
+
+        long start = System.nanoTime();
+        Future<Boolean> second = request(t2, p0, Permissions.READ_WRITE);
+        // both hold one lock, so the younger t2 goes
+        assertFalse(second.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertTrue(first.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2 * SETTLE));
+        assertEquals(1, bp.getDeadlocks());
+        assertEquals(2, bp.getDeadlockChecks());
+        bp.transactionComplete(t1);
+    }
+
+    /** Two readers of a page both asking to write it are a deadlock too. */
+    @Test public void upgrades() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t2, p0, Permissions.READ_ONLY);
+        Future<Boolean> first = request(t1, p0, Permissions.READ_WRITE);
+        Future<Boolean> second = request(t2, p0, Permissions.READ_WRITE);
+        assertFalse(second.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertTrue(first.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertEquals(1, bp.getDeadlocks());
+        bp.transactionComplete(t1);
+    }
+
+    /** The transaction holding the fewest locks is aborted, whichever closed the cycle. */
+    @Test public void leastWork() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        bp.getPage(t2, p1, Permissions.READ_WRITE);
+        bp.getPage(t2, p2, Permissions.READ_WRITE);
+        Future<Boolean> first = request(t1, p1, Permissions.READ_WRITE);
+        Future<Boolean> second = request(t2, p0, Permissions.READ_WRITE);
+        assertFalse(first.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertTrue(second.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertFalse(bp.holdsLock(t1, p0));
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * When the request that blocks closes two cycles, aborting the victim
+     * of one doesn't leave the other in place.
+     */
+    @Test public void twoCycles() throws Exception {
+        TransactionId holder = new TransactionId();
+        TransactionId idle = new TransactionId();
+        TransactionId closer = new TransactionId();
+        bp.getPage(holder, p0, Permissions.READ_WRITE);
+        bp.getPage(closer, p1, Permissions.READ_WRITE);
+        // idle holds nothing, so it is the victim of any cycle it is in
+        Future<Boolean> queued = request(idle, p0, Permissions.READ_WRITE);
+        Future<Boolean> first = request(holder, p1, Permissions.READ_WRITE);
+        Future<Boolean> second = request(closer, p0, Permissions.READ_WRITE);
+        assertFalse(second.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertTrue(first.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertTrue(bp.getDeadlocks() >= 1);
+        bp.transactionComplete(holder);
+        queued.get(SETTLE, TimeUnit.MILLISECONDS);
+        bp.transactionComplete(idle);
+    }
+
+    /** A long wait without a cycle isn't mistaken for a deadlock. */
+    @Test public void longWait() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        bp.getPage(t2, p1, Permissions.READ_WRITE);
+        Future<Boolean> chain = request(t2, p0, Permissions.READ_WRITE);
+        Future<Boolean> end = request(t3, p1, Permissions.READ_ONLY);
+        Thread.sleep(10 * SETTLE);
+        assertFalse(chain.isDone());
+        assertFalse(end.isDone());
+
+        bp.transactionComplete(t1);
+        assertTrue(chain.get(SETTLE, TimeUnit.MILLISECONDS));
+        bp.transactionComplete(t2);
+        assertTrue(end.get(SETTLE, TimeUnit.MILLISECONDS));
+        bp.transactionComplete(t3);
+        assertEquals(0, bp.getDeadlocks());
+        assertEquals(2, bp.getDeadlockChecks());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockDetectionTest.class);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+    private static final String COLORS[] = { "red", "green", "blue", "yellow" };
+    private static final int ROWS = 1000;
+
+    private TupleDesc plainTd;
+    private HeapFile plain;
+    private File dictFile;
+    private File encodedFile;
+    private HeapFile encoded;
+
+    @Before public void setUp() throws Exception {
+        Type types[] = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        String names[] = new String[] { "id", "color" };
+        plainTd = new TupleDesc(types, names);
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        plain = new HeapFile(f, plainTd);
+        Database.getCatalog().addTable(plain, "plain");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(plainTd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(COLORS[i % COLORS.length], Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, plain.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        dictFile = File.createTempFile("color", ".dict");
+        dictFile.delete();
+        dictFile.deleteOnExit();
+        encodedFile = File.createTempFile("table", ".ddat");
+        encodedFile.deleteOnExit();
+        encoded = open();
+        HeapFileEncoder.dictionaryEncode(plain.getFile(), encodedFile, plainTd,
+                encoded.getTupleDesc(), plain.getPageSize());
+    }
+
+    /** Opens the encoded table and its dictionary, and adds it to the catalog. */
+    private HeapFile open() throws Exception {
+        StringDictionary dictionary = new StringDictionary(dictFile);
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "color" }, new StringDictionary[] { null, dictionary });
+        HeapFile retVal = new HeapFile(encodedFile, td);
+        Database.getCatalog().addTable(retVal, "encoded");
+        return retVal;
+    }
+
+    /** @return the number of tuples a scan of f passes through a Filter on color */
+    private int count(HeapFile f, String color) throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField(color, Type.STRING_LEN)), new SeqScan(tid, f.getId(), ""));
+        int retVal = 0;
+        filter.open();
+        while (filter.hasNext()) {
+            Tuple t = filter.next();
+            assertEquals(color, ((StringField) t.getField(1)).getValue());
+            retVal++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return retVal;
+    }
+
+    /** Pages hold codes: far fewer pages, one dictionary entry per value. */
+    @Test public void encode() throws Exception {
+        assertEquals(COLORS.length, encoded.getTupleDesc().getDictionary(1).size());
+        assertEquals(8, encoded.getTupleDesc().getSize());
+        assertTrue(encoded.numPages() * 10 < plain.numPages());
+        assertEquals(ROWS / COLORS.length, count(encoded, "green"));
+        assertEquals(0, count(encoded, "purple"));
+    }
+
+    /** Values read back share their dictionary's fields and compare by code. */
+    @Test public void fields() throws Exception {
+        StringDictionary dictionary = encoded.getTupleDesc().getDictionary(1);
+        DictionaryField red = dictionary.field(dictionary.lookup("red"));
+        StringField plainRed = new StringField("red", Type.STRING_LEN);
+        assertEquals(red, plainRed);
+        assertEquals(plainRed, red);
+        assertEquals(plainRed.hashCode(), red.hashCode());
+        assertTrue(red.compare(Predicate.Op.EQUALS, plainRed));
+        assertTrue(red.compare(Predicate.Op.NOT_EQUALS, dictionary.field(dictionary.lookup("blue"))));
+        assertTrue(red.compare(Predicate.Op.GREATER_THAN, dictionary.field(dictionary.lookup("blue"))));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = encoded.iterator(tid);
+        it.open();
+        Field first = it.next().getField(1);
+        assertTrue(first instanceof DictionaryField);
+        assertSame(first, dictionary.field(((DictionaryField) first).getCode()));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** GROUP BY and hash joins on an encoded column give the usual answers. */
+    @Test public void groupAndJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, encoded.getId(), ""),
+                0, 1, Aggregator.Op.COUNT);
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        agg.open();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            counts.put(((StringField) t.getField(0)).getValue(), t.getInt(1));
+        }
+        agg.close();
+        assertEquals(COLORS.length, counts.size());
+        for (String color : COLORS) {
+            assertEquals(ROWS / COLORS.length, (int) counts.get(color));
+        }
+
+        // the encoded table against the plain one: each row meets the
+        // ROWS / COLORS.length rows of its color
+        HashEquiJoin join = new HashEquiJoin(
+                new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, encoded.getId(), "e"), new SeqScan(tid, plain.getId(), "p"));
+        int joined = 0;
+        join.open();
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(1), t.getField(3));
+            joined++;
+        }
+        join.close();
+        assertEquals(ROWS * ROWS / COLORS.length, joined);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** New values get new codes, which are still there after a reopen. */
+    @Test public void insert() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(plainTd);
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new StringField("purple", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, encoded.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, count(encoded, "purple"));
+        assertEquals(COLORS.length + 1, encoded.getTupleDesc().getDictionary(1).size());
+
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = open();
+        assertEquals(1, count(reopened, "purple"));
+        assertEquals(ROWS / COLORS.length, count(reopened, "red"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    /** Evicts anything but the pages in pinned. */
+    private static class Unpinned implements EvictionPolicy.Candidates {
+        final HashSet<PageId> pinned = new HashSet<PageId>();
+
+        public boolean isEvictable(PageId pid) {
+            return !pinned.contains(pid);
+        }
+    }
+
+    private static PageId page(int i) {
+        return new HeapPageId(1, i);
+    }
+
+    /** Adds pages 0 to n-1 to policy. */
+    private static void fill(EvictionPolicy policy, int n) {
+        for (int i = 0; i < n; i++) {
+            policy.added(page(i));
+        }
+    }
+
+    /** A used page gets a second chance; pinned pages are passed over. */
+    @Test public void clock() {
+        ClockPolicy policy = new ClockPolicy();
+        Unpinned candidates = new Unpinned();
+        fill(policy, 4);
+        assertEquals(page(0), policy.victim(candidates));
+        policy.used(page(0));
+        assertEquals(page(1), policy.victim(candidates));
+        policy.removed(page(1));
+
+        candidates.pinned.add(page(2));
+        assertEquals(page(3), policy.victim(candidates));
+        policy.removed(page(3));
+        // page 4 takes a freed slot
+        policy.added(page(4));
+        policy.used(page(0));
+        policy.used(page(4));
+        assertNull(policy.victim(new EvictionPolicy.Candidates() {
+            public boolean isEvictable(PageId pid) {
+                return false;
+            }
+        }));
+    }
+
+    /** Pages used once go before pages used twice, however recently. */
+    @Test public void lru2() {
+        LruKPolicy policy = new LruKPolicy(2);
+        Unpinned candidates = new Unpinned();
+        fill(policy, 3);
+        policy.used(page(0));
+        policy.used(page(1));
+        assertEquals(page(2), policy.victim(candidates));
+        policy.removed(page(2));
+        assertEquals(page(0), policy.victim(candidates));
+        policy.used(page(0));
+        assertEquals(page(1), policy.victim(candidates));
+        candidates.pinned.add(page(1));
+        assertEquals(page(0), policy.victim(candidates));
+
+        // LRU-1 is plain LRU
+        policy = new LruKPolicy(1);
+        fill(policy, 3);
+        policy.used(page(0));
+        assertEquals(page(1), policy.victim(new Unpinned()));
+    }
+
+    /**
+     * New pages are evicted first, in order; a page read in again soon
+     * after goes on the LRU list and outlasts a scan.
+     */
+    @Test public void twoQueue() {
+        TwoQueuePolicy policy = new TwoQueuePolicy();
+        Unpinned candidates = new Unpinned();
+        fill(policy, 4);
+        policy.used(page(0));
+        assertEquals(page(0), policy.victim(candidates));
+        policy.removed(page(0));
+        policy.added(page(0));
+
+        // a scan of new pages doesn't get at page 0
+        for (int i = 10; i < 20; i++) {
+            PageId victim = policy.victim(candidates);
+            assertFalse(page(0).equals(victim));
+            policy.removed(victim);
+            policy.added(page(i));
+        }
+    }
+
+    /** Every policy keeps a pool within its budget and never evicts dirty pages. */
+    @Test public void bufferPool() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        for (String name : new String[] { "clock", "lru", "lru2", "2q" }) {
+            BufferPool bp = new BufferPool(3L * BufferPool.PAGE_SIZE, BufferPool.newEvictionPolicy(name));
+            TransactionId tid = new TransactionId();
+            HeapPage dirty = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+            dirty.markDirty(true, tid);
+            for (int i = 0; i < 3 * hf.numPages(); i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i % hf.numPages()), Permissions.READ_ONLY);
+                assertTrue(bp.getUsedBytes() <= bp.getMaxBytes());
+            }
+            assertSame(dirty, bp.getPage(tid, dirty.getId(), Permissions.READ_ONLY));
+            bp.transactionComplete(tid, false);
+        }
+        try {
+            BufferPool.newEvictionPolicy("mru");
+            fail("made up a policy");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest {
+    private File data;
+    private File side;
+
+    @Before public void setUp() throws Exception {
+        data = File.createTempFile("fsm", ".dat");
+        data.deleteOnExit();
+        side = new File(data.getPath() + ".fsm");
+        side.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        side.delete();
+    }
+
+    /**
+     * Pages the map knows nothing about are candidates; cleared pages are
+     * skipped.
+     */
+    @Test public void candidates() {
+        FreeSpaceMap fsm = new FreeSpaceMap(data, 3);
+        assertEquals(0, fsm.nextCandidate(0, 3));
+        fsm.setHasFree(0, false);
+        fsm.setHasFree(2, false);
+        assertEquals(1, fsm.nextCandidate(0, 3));
+        assertEquals(-1, fsm.nextCandidate(2, 3));
+
+        // the table grew behind the map's back
+        assertEquals(3, fsm.nextCandidate(2, 5));
+    }
+
+    /**
+     * The map survives a save and reload.
+     */
+    @Test public void persistence() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(data, 10);
+        for (int i = 0; i < 10; i++) {
+            fsm.setHasFree(i, i == 7);
+        }
+        fsm.save();
+        assertTrue(side.exists());
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(data, 10);
+        assertEquals(7, reloaded.nextCandidate(0, 10));
+        assertEquals(-1, reloaded.nextCandidate(8, 10));
+    }
+
+    /**
+     * A side file older than the table is not trusted.
+     */
+    @Test public void staleSideFile() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(data, 4);
+        for (int i = 0; i < 4; i++) {
+            fsm.setHasFree(i, false);
+        }
+        fsm.save();
+        assertTrue(data.setLastModified(side.lastModified() + 5000));
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(data, 4);
+        assertEquals(0, reloaded.nextCandidate(0, 4));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
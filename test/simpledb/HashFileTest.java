@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private HashFile emptyIndex(int pageSize) throws Exception {
+        File f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        HashFile index = new HashFile(f, table.getId(), 0, Type.INT_TYPE, pageSize);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private int count(DbFileIterator it, int key) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (key != Integer.MIN_VALUE) {
+                assertEquals(key, t.getInt(0));
+            }
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    private void checkLookups(HashFile index) throws Exception {
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer c = counts.get(t.get(0));
+            counts.put(t.get(0), c == null ? 1 : c + 1);
+        }
+        assertEquals(tuples.size(), count(index.iterator(tid), Integer.MIN_VALUE));
+        for (int v = -1; v <= 1000; v++) {
+            Integer c = counts.get(v);
+            assertEquals("key " + v, c == null ? 0 : c.intValue(),
+                    count(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(v)), v));
+        }
+    }
+
+    private HashPage meta(HashFile index) throws Exception {
+        return (HashPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(index.getId(), 0), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Entries inserted one at a time into small pages make the index grow a
+     * bucket at a time, across several rounds of linear hashing.
+     */
+    @Test public void insertAndSplit() throws Exception {
+        HashFile index = emptyIndex(256);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int buckets = 1;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            index.insertEntry(tid, t.getField(0), t.getRecordId());
+            HashPage meta = meta(index);
+            int now = (1 << meta.level) + meta.split;
+            assertTrue(now == buckets || now == buckets + 1);
+            buckets = now;
+        }
+        it.close();
+        assertTrue(meta(index).level >= 4);
+        checkLookups(index);
+    }
+
+    /** An index built in bulk answers the same lookups, and keeps growing. */
+    @Test public void create() throws Exception {
+        File f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        HashFile index = HashFile.create(f, table, 0);
+        assertSame(index, Database.getCatalog().getIndex(table.getId(), 0));
+        checkLookups(index);
+        HashPage before = meta(index);
+        int buckets = (1 << before.level) + before.split;
+
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i % 700, i });
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        HashPage after = meta(index);
+        assertTrue((1 << after.level) + after.split > buckets);
+        checkLookups(index);
+    }
+
+    /** Deleting an entry removes exactly that (key, RecordId) pair. */
+    @Test public void deleteEntry() throws Exception {
+        HashFile index = emptyIndex(256);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            index.insertEntry(tid, t.getField(0), t.getRecordId());
+            inserted.add(t);
+        }
+        it.close();
+
+        for (int i = 0; i < inserted.size(); i += 3) {
+            Tuple t = inserted.get(i);
+            index.deleteEntry(tid, t.getField(0), t.getRecordId());
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        checkLookups(index);
+
+        try {
+            Tuple t = inserted.get(0);
+            index.deleteEntry(tid, t.getField(0), t.getRecordId());
+            fail("deleted an entry twice");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** Splits made by a transaction that aborts are rolled back with it. */
+    @Test public void abortedSplit() throws Exception {
+        HashFile index = emptyIndex(256);
+        for (int i = 0; i < 100; i++) {
+            index.insertEntry(tid, new IntField(i), new RecordId(new HeapPageId(table.getId(), 0), i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        int level = meta(index).level;
+        for (int i = 100; i < 400; i++) {
+            index.insertEntry(tid, new IntField(i), new RecordId(new HeapPageId(table.getId(), 0), i));
+        }
+        assertTrue(meta(index).level > level);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(level, meta(index).level);
+        assertEquals(100, count(index.iterator(tid), Integer.MIN_VALUE));
+        for (int i = 100; i < 400; i++) {
+            index.insertEntry(tid, new IntField(i), new RecordId(new HeapPageId(table.getId(), 0), i));
+        }
+        assertEquals(1, count(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(399)), 399));
+        assertEquals(400, count(index.iterator(tid), Integer.MIN_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeUnsupported() throws Exception {
+        emptyIndex(256).indexIterator(tid, Predicate.Op.LESS_THAN, new IntField(1));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileCompactTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples);
+    }
+
+    /** Deletes all but every every-th tuple, and their rows in tuples. */
+    private void deleteAllBut(int every) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (i++ % every != 0) {
+                doomed.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Sparse pages are folded together and the file shrinks. */
+    @Test public void compact() throws Exception {
+        int before = table.numPages();
+        deleteAllBut(4);
+        assertEquals(before, table.numPages());
+
+        int reclaimed = table.compact();
+        assertTrue(reclaimed > 0);
+        assertEquals(before - reclaimed, table.numPages());
+        assertTrue(table.numPages() <= (before + 3) / 4 + 1);
+        assertEquals((long) table.numPages() * table.getPageSize(), table.getFile().length());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        // nothing more to do
+        assertEquals(0, table.compact());
+
+        // the file grows again normally
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** Index entries follow the tuples to their new RecordIds. */
+    @Test public void index() throws Exception {
+        File f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        HashFile index = HashFile.create(f, table, 0);
+        deleteAllBut(3);
+        assertTrue(table.compact() > 0);
+
+        TransactionId tid = new TransactionId();
+        for (int key = 0; key < 1000; key += 37) {
+            int expected = 0;
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) == key) {
+                    expected++;
+                }
+            }
+            int found = 0;
+            DbFileIterator it = index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(key));
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                assertEquals(key, t.getInt(0));
+                found++;
+            }
+            it.close();
+            assertEquals("key " + key, expected, found);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Pages other transactions still have tuples on are left where they are. */
+    @Test public void locked() throws Exception {
+        deleteAllBut(2);
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        int before = table.numPages();
+
+        // an uncommitted insert holds on to the last page
+        tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), before - 1),
+                Permissions.READ_WRITE);
+        assertEquals(0, table.compact());
+        assertEquals(before, table.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(table.compact() > 0);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileCompactTest.class);
+    }
+}
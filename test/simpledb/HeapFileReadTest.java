@@ -77,6 +77,21 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() when reads are memory-mapped
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        hf.setMemoryMapped(true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(1));
+        assertFalse(page.isSlotUsed(20));
+        assertEquals(page.getPageData().length, BufferPool.PAGE_SIZE);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +136,55 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A table with larger pages holds more tuples per page and scans as usual.
+     */
+    @Test
+    public void largePageSize() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        java.io.File f = java.io.File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, 4 * BufferPool.PAGE_SIZE, 2);
+        HeapFile big = Utility.openHeapFile(2, f, 4 * BufferPool.PAGE_SIZE);
+
+        // 2 int columns -> 2020 tuples per 16KB page
+        assertEquals(4 * BufferPool.PAGE_SIZE, Database.getCatalog().getPageSize(big.getId()));
+        assertEquals(2, big.numPages());
+        HeapPage page = (HeapPage) big.readPage(new HeapPageId(big.getId(), 0));
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(4 * BufferPool.PAGE_SIZE, page.getPageData().length);
+        SystemTestUtil.matchTuples(big, tuples);
+    }
+
+    /**
+     * The BufferPool charges each page by its table's page size.
+     */
+    @Test
+    public void mixedPageSizes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        java.io.File f = java.io.File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, 4 * BufferPool.PAGE_SIZE, 2);
+        HeapFile big = Utility.openHeapFile(2, f, 4 * BufferPool.PAGE_SIZE);
+
+        BufferPool bp = Database.resetBufferPool(5L * BufferPool.PAGE_SIZE);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(BufferPool.PAGE_SIZE, bp.getUsedBytes());
+        bp.getPage(tid, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(5 * BufferPool.PAGE_SIZE, bp.getUsedBytes());
+
+        // the second big page only fits once the first one is evicted, and
+        // evicting the small page alone is not enough
+        bp.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(4 * BufferPool.PAGE_SIZE, bp.getUsedBytes());
+    }
+
     /**
      * JUnit suite target
      */
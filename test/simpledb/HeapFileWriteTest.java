@@ -43,6 +43,93 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Pages appended by HeapFile.addTuple() must be visible to memory-mapped
+     * reads, which have to extend their mapping to see them.
+     */
+    @Test public void addTupleMemoryMapped() throws Exception {
+        empty.setMemoryMapped(true);
+        assertEquals(504, ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0))).getNumEmptySlots());
+
+        for (int i = 0; i < 505; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        Database.getBufferPool().flushAllPages();
+
+        HeapPage appended = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 1));
+        assertEquals(503, appended.getNumEmptySlots());
+        assertTrue(appended.isSlotUsed(0));
+    }
+
+    /**
+     * A tuple read from a memory-mapped file keeps its values when the page
+     * is written back with other contents.
+     */
+    @Test public void mappedTupleOutlivesWrite() throws Exception {
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        Database.getBufferPool().flushAllPages();
+        empty.setMemoryMapped(true);
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        Tuple held = ((HeapPage) empty.readPage(pid)).iterator().next();
+
+        HeapPage page = (HeapPage) empty.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 99, 99 }));
+        empty.writePage(page);
+        assertEquals(new IntField(1), held.getField(0));
+        assertEquals(2, held.getInt(1));
+    }
+
+    /**
+     * Once a tuple is deleted from a full page, the next insert goes straight
+     * to that page without locking any other page of the file.
+     */
+    @Test public void addTupleUsesFreeSpace() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 1009; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        bp.transactionComplete(tid);
+
+        TransactionId deleter = new TransactionId();
+        HeapPageId page1 = new HeapPageId(empty.getId(), 1);
+        Tuple victim = ((HeapPage) bp.getPage(deleter, page1, Permissions.READ_WRITE)).iterator().next();
+        bp.deleteTuple(deleter, victim);
+        bp.transactionComplete(deleter);
+
+        TransactionId inserter = new TransactionId();
+        Tuple t = Utility.getHeapTuple(42, 2);
+        bp.insertTuple(inserter, empty.getId(), t);
+        assertEquals(page1, t.getRecordId().getPageId());
+        assertFalse(bp.holdsLock(inserter, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(inserter, new HeapPageId(empty.getId(), 2)));
+        bp.transactionComplete(inserter);
+    }
+
+    /**
+     * HeapFile.numPages() is maintained in memory and only goes back to the
+     * file system after the file has been closed.
+     */
+    @Test public void numPagesCached() throws Exception {
+        assertEquals(1, empty.numPages());
+
+        // grow the file behind the HeapFile's back
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile(empty.getFile(), "rw");
+        raf.setLength(3 * BufferPool.PAGE_SIZE);
+        raf.close();
+        assertEquals(1, empty.numPages());
+
+        empty.close();
+        assertEquals(3, empty.numPages());
+
+        // writing a page past the end extends the count
+        HeapPage page = new HeapPage(new HeapPageId(empty.getId(), 4), HeapPage.createEmptyPageData());
+        empty.writePage(page);
+        assertEquals(5, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,71 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * The iterator skips holes left by deletes, and inserts fill the lowest
+     * free slot.
+     */
+    @Test public void sparsePage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+
+        // delete every other tuple, starting with the one in slot 0
+        for (int i = 0; i < tuples.size(); i += 2)
+            page.deleteTuple(tuples.get(i));
+
+        int seen = 0;
+        it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(1, t.getRecordId().tupleno() % 2);
+            seen++;
+        }
+        assertEquals(tuples.size() / 2, seen);
+
+        Tuple added = Utility.getHeapTuple(9, 2);
+        page.insertTuple(added);
+        assertEquals(0, added.getRecordId().tupleno());
+
+        // the page still round-trips through its serialized form
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        for (int i = 0; i < 504; i++)
+            assertEquals(page.isSlotUsed(i), copy.isSlotUsed(i));
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+
+        // an untouched page serializes back to exactly what it was built from
+        assertTrue(java.util.Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData()));
+        assertTrue(java.util.Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        Tuple victim = page.iterator().next();
+        page.deleteTuple(victim);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.insertTuple(Utility.getHeapTuple(8, 2));
+        assertEquals(free - 1, page.getNumEmptySlots());
+
+        // the before image still holds the original contents
+        HeapPage before = page.getBeforeImage();
+        assertEquals(free, before.getNumEmptySlots());
+        assertTrue(java.util.Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, before.getPageData()));
+
+        // once the changes are accepted they become the before image
+        byte[] after = page.getPageData();
+        page.setBeforeImage();
+        assertTrue(java.util.Arrays.equals(after, page.getBeforeImage().getPageData()));
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockQueueTest extends SimpleDbTestBase {
+    /** Time to let a request get into its queue, in ms. */
+    private static final int SETTLE = 50;
+    /** Lock timeout for the timeout test, in ms; well over SETTLE. */
+    private static final int TIMEOUT = 300;
+
+    private BufferPool bp;
+    private PageId p0;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        p0 = new HeapPageId(hf.getId(), 0);
+    }
+
+    @After public void tearDown() {
+        BufferPool.setLockTimeout(0);
+    }
+
+    /**
+     * Requests p0 for tid on a new thread.
+     *
+     * @return true once the lock is granted, or false if tid is aborted
+     */
+    private Future<Boolean> request(final TransactionId tid, final Permissions perm)
+            throws InterruptedException {
+        FutureTask<Boolean> f = new FutureTask<Boolean>(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try {
+                    bp.getPage(tid, p0, perm);
+                    return true;
+                } catch (TransactionAbortedException e) {
+                    return false;
+                }
+            }
+        });
+        new Thread(f).start();
+        Thread.sleep(SETTLE);
+        return f;
+    }
+
+    /** A reader doesn't overtake a queued writer, even if it could share the page. */
+    @Test public void fifo() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        TransactionId late = new TransactionId();
+        bp.getPage(reader, p0, Permissions.READ_ONLY);
+        Future<Boolean> write = request(writer, Permissions.READ_WRITE);
+        Future<Boolean> read = request(late, Permissions.READ_ONLY);
+        assertFalse(write.isDone());
+        assertFalse(read.isDone());
+
+        bp.transactionComplete(reader);
+        assertTrue(write.get());
+        assertFalse(read.isDone());
+        bp.transactionComplete(writer);
+        assertTrue(read.get());
+        bp.transactionComplete(late);
+    }
+
+    /** A shared holder asking for the exclusive lock goes ahead of the queue. */
+    @Test public void upgrade() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId writer = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t2, p0, Permissions.READ_ONLY);
+        Future<Boolean> write = request(writer, Permissions.READ_WRITE);
+        Future<Boolean> upgrade = request(t1, Permissions.READ_WRITE);
+        assertFalse(upgrade.isDone());
+
+        bp.transactionComplete(t2);
+        assertTrue(upgrade.get());
+        assertFalse(write.isDone());
+        bp.transactionComplete(t1);
+        assertTrue(write.get());
+        bp.transactionComplete(writer);
+    }
+
+    /** A release wakes the waiter right away, not at its next poll. */
+    @Test public void wakeup() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        Future<Boolean> waiter = request(t2, Permissions.READ_WRITE);
+        long start = System.nanoTime();
+        bp.transactionComplete(t1);
+        assertTrue(waiter.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(SETTLE));
+        bp.transactionComplete(t2);
+    }
+
+    /** A request that times out leaves the queue, and doesn't hold up the rest. */
+    @Test public void timeout() throws Exception {
+        BufferPool.setLockTimeout(TIMEOUT);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        Future<Boolean> write = request(t2, Permissions.READ_WRITE);
+        Future<Boolean> read = request(t3, Permissions.READ_ONLY);
+        assertFalse(write.get());
+        assertTrue(read.get(SETTLE, TimeUnit.MILLISECONDS));
+        assertFalse(bp.holdsLock(t2, p0));
+        bp.transactionComplete(t1);
+        bp.transactionComplete(t3);
+        assertTrue(bp.getPage(t2, p0, Permissions.READ_WRITE) != null);
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockQueueTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PagePrefetcherTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // 2 int columns -> 504 tuples per page, so this spans 4 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 1600, null, tuples);
+        bp = Database.resetBufferPool(10);
+    }
+
+    /**
+     * A prefetched page that a transaction then asks for counts as a hit.
+     */
+    @Test public void prefetchHit() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        bp.prefetchPage(pid).get();
+        assertEquals(1, bp.getPrefetchIssued());
+        // read by an I/O thread, not the requester
+        assertEquals(1, bp.getPageReader().getReads());
+        assertEquals(0, bp.getPageReader().getInlineReads());
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPrefetchHits());
+        assertEquals(0, bp.getPrefetchWasted());
+
+        // a second request is an ordinary hit
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPrefetchHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Prefetching a cached page is a no-op; a prefetched page that leaves the
+     * pool unused is counted as wasted.
+     */
+    @Test public void prefetchWasted() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId cached = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, cached, Permissions.READ_ONLY);
+        assertNull(bp.prefetchPage(cached));
+        assertEquals(0, bp.getPrefetchIssued());
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 2);
+        bp.prefetchPage(pid).get();
+        bp.discardPage(pid);
+        assertEquals(1, bp.getPrefetchIssued());
+        assertEquals(1, bp.getPrefetchWasted());
+        assertEquals(0, bp.getPrefetchHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Read-ahead may only hold half of the pool.
+     */
+    @Test public void prefetchBounded() throws Exception {
+        bp = Database.resetBufferPool(2);
+        bp.prefetchPage(new HeapPageId(hf.getId(), 0)).get();
+        assertNull(bp.prefetchPage(new HeapPageId(hf.getId(), 1)));
+        assertEquals(1, bp.getPrefetchIssued());
+    }
+
+    /**
+     * A scan with read-ahead running returns exactly the table contents.
+     */
+    @Test public void scanWithReadAhead() throws Exception {
+        int old = PagePrefetcher.getReadAheadPages();
+        PagePrefetcher.setReadAheadPages(4);
+        try {
+            SystemTestUtil.matchTuples(hf, tuples);
+            assertTrue(bp.getPrefetchHits() <= bp.getPrefetchIssued());
+        } finally {
+            PagePrefetcher.setReadAheadPages(old);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagePrefetcherTest.class);
+    }
+}
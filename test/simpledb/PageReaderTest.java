@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageReaderTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    /** Reads of page 0 of hf wait for this. */
+    private CountDownLatch slowDisk;
+    private AtomicInteger reads;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 1600, null, new ArrayList<ArrayList<Integer>>());
+        slowDisk = new CountDownLatch(1);
+        reads = new AtomicInteger();
+        hf = new HeapFile(plain.getFile(), plain.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                if (pid.pageNumber() == 0) {
+                    try {
+                        slowDisk.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /** Waits until condition() holds, for up to a second. */
+    private abstract static class Eventually {
+        abstract boolean condition();
+
+        void await() throws InterruptedException {
+            for (int i = 0; i < 1000 && !condition(); i++) {
+                Thread.sleep(1);
+            }
+            assertTrue(condition());
+        }
+    }
+
+    /** Concurrent requests for the same page share one read and one Page. */
+    @Test public void deduplicate() throws Exception {
+        final PageReader reader = new PageReader(4, 16);
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        ArrayList<Future<Page>> pages = new ArrayList<Future<Page>>();
+        for (int i = 0; i < 8; i++) {
+            pages.add(reader.readAsync(pid));
+        }
+        assertEquals(7, reader.getDeduplicated());
+        slowDisk.countDown();
+        for (Future<Page> f : pages) {
+            assertSame(pages.get(0).get(), f.get());
+        }
+        // once the read is done, the next request reads again
+        assertNotSame(pages.get(0).get(), reader.read(pid));
+        assertEquals(2, reads.get());
+        assertEquals(2, reader.getReads());
+        assertEquals(2, reader.getReadLatency().getCount());
+    }
+
+    /** When every thread is busy and the queue is full, the requester reads. */
+    @Test public void boundedQueue() throws Exception {
+        final PageReader reader = new PageReader(1, 1);
+        Future<Page> slow = reader.readAsync(new HeapPageId(hf.getId(), 0));
+        new Eventually() {
+            boolean condition() {
+                return reads.get() == 1;
+            }
+        }.await();
+        Future<Page> queued = reader.readAsync(new HeapPageId(hf.getId(), 1));
+        assertEquals(1, reader.getQueueDepth());
+        Future<Page> overflow = reader.readAsync(new HeapPageId(hf.getId(), 2));
+        assertTrue(overflow.isDone());
+        assertEquals(1, reader.getInlineReads());
+        assertFalse(queued.isDone());
+
+        slowDisk.countDown();
+        assertEquals(1, queued.get().getId().pageNumber());
+        assertTrue(slow.get() instanceof HeapPage);
+        assertEquals(2, reader.getMaxQueueDepth());
+        assertEquals(3, reader.getWaitLatency().getCount());
+    }
+
+    /** A demand read of a page queued for read-ahead doesn't wait its turn. */
+    @Test public void takeOver() throws Exception {
+        final PageReader reader = new PageReader(1, 4);
+        Future<Page> slow = reader.readAsync(new HeapPageId(hf.getId(), 0));
+        new Eventually() {
+            boolean condition() {
+                return reads.get() == 1;
+            }
+        }.await();
+        final HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        Future<Page> queued = reader.readAsync(pid);
+        assertEquals(1, reader.getQueueDepth());
+
+        // the only I/O thread is still stuck on page 0
+        FutureTask<Page> demand = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws Exception {
+                return reader.read(pid);
+            }
+        });
+        new Thread(demand).start();
+        Page page = demand.get(10, TimeUnit.SECONDS);
+        assertTrue(queued.isDone());
+        assertSame(page, queued.get());
+        assertFalse(slow.isDone());
+        assertEquals(2, reads.get());
+        assertEquals(1, reader.getDeduplicated());
+
+        slowDisk.countDown();
+        assertTrue(slow.get() instanceof HeapPage);
+        assertEquals(2, reads.get());
+    }
+
+    /** A slow miss doesn't hold up hits on other pages. */
+    @Test public void missDoesNotBlockHits() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        HeapPageId cached = new HeapPageId(hf.getId(), 1);
+        Page hit = bp.getPage(tid, cached, Permissions.READ_ONLY);
+
+        final TransactionId missTid = new TransactionId();
+        FutureTask<Page> miss = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws Exception {
+                return bp.getPage(missTid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+            }
+        });
+        new Thread(miss).start();
+        new Eventually() {
+            boolean condition() {
+                return reads.get() == 2;
+            }
+        }.await();
+
+        assertSame(hit, bp.getPage(tid, cached, Permissions.READ_ONLY));
+        assertFalse(miss.isDone());
+        slowDisk.countDown();
+        assertEquals(0, miss.get().getId().pageNumber());
+        bp.transactionComplete(tid);
+        bp.transactionComplete(missTid);
+    }
+
+    /** Latencies land in power-of-two microsecond buckets. */
+    @Test public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(500);
+        h.record(1500);
+        h.record(3000);
+        h.record(100000);
+        assertEquals(4, h.getCount());
+        assertEquals(1, h.getCount(0));
+        assertEquals(1, h.getCount(1));
+        assertEquals(1, h.getCount(2));
+        assertEquals(1, h.getCount(7));
+        assertEquals(2, h.getPercentile(0.5));
+        assertEquals(128, h.getPercentile(1.0));
+        assertEquals(26.25, h.getMean(), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageReaderTest.class);
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples);
+        assertTrue(hf.numPages() > 2 * ParallelSeqScan.MORSEL_PAGES);
+        Database.resetBufferPool(hf.numPages());
+        tid = new TransactionId();
+    }
+
+    /** @return the tuples whose first column is below v */
+    private ArrayList<ArrayList<Integer>> below(int v) {
+        ArrayList<ArrayList<Integer>> retVal = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) < v) {
+                retVal.add(tuple);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Checks that the scan returns exactly the expected tuples, in any
+     * order. Unlike SystemTestUtil.matchTuples this counts, rather than
+     * searches, which keeps tables of a few morsels quick to check.
+     */
+    private static void matchTuples(DbIterator scan, List<ArrayList<Integer>> expected)
+            throws Exception {
+        HashMap<ArrayList<Integer>, Integer> missing = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> tuple : expected) {
+            Integer n = missing.get(tuple);
+            missing.put(tuple, n == null ? 1 : n + 1);
+        }
+        scan.open();
+        while (scan.hasNext()) {
+            ArrayList<Integer> tuple = SystemTestUtil.tupleToList(scan.next());
+            Integer n = missing.get(tuple);
+            assertNotNull("unexpected tuple " + tuple, n);
+            if (n == 1) {
+                missing.remove(tuple);
+            } else {
+                missing.put(tuple, n - 1);
+            }
+        }
+        scan.close();
+        assertTrue("missing " + missing.size() + " tuples", missing.isEmpty());
+    }
+
+    /** Every tuple comes out exactly once, whatever the number of workers. */
+    @Test public void scan() throws Exception {
+        for (int threads = 1; threads <= 4; threads++) {
+            ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", threads);
+            assertEquals(new SeqScan(tid, hf.getId(), "t").getTupleDesc().getFieldName(0),
+                    scan.getTupleDesc().getFieldName(0));
+            matchTuples(scan, tuples);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Filters are applied by the workers. */
+    @Test public void filter() throws Exception {
+        ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", 3);
+        scan.addFilter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)));
+        matchTuples(scan, below(100));
+        assertEquals(1, scan.getPagePredicates().size());
+
+        // a rewind starts the workers over
+        scan.open();
+        scan.next();
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertTrue(((IntField) scan.next().getField(0)).getValue() < 100);
+            count++;
+        }
+        scan.close();
+        assertEquals(below(100).size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing a scan part way stops its workers, and it can be opened again. */
+    @Test public void closeEarly() throws Exception {
+        ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", 2);
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            scan.next();
+        }
+        scan.close();
+        assertFalse(scan.hasNext());
+        matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Once close() returns, the workers are done: none is still reading a
+     * page, and none takes a lock after the transaction completes.
+     */
+    @Test public void closeWaits() throws Exception {
+        final AtomicInteger reading = new AtomicInteger();
+        HeapFile slow = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                reading.incrementAndGet();
+                try {
+                    Thread.sleep(20);
+                    return super.readPage(pid);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    reading.decrementAndGet();
+                }
+            }
+        };
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        ParallelSeqScan scan = new ParallelSeqScan(tid, slow.getId(), "t", 4);
+        scan.open();
+        scan.next();
+        scan.close();
+        assertEquals(0, reading.get());
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < slow.numPages(); i++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(slow.getId(), i)));
+        }
+    }
+
+    /**
+     * The pages are locked by the thread opening the scan, so a deadlock
+     * with a writer is found like any other, and the scan goes on once the
+     * writer is aborted.
+     */
+    @Test public void deadlock() throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final TransactionId writer = new TransactionId();
+        final PageId last = new HeapPageId(hf.getId(), hf.numPages() - 1);
+        bp.getPage(writer, last, Permissions.READ_WRITE);
+
+        final ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", 4);
+        FutureTask<Void> opened = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws Exception {
+                scan.open();
+                return null;
+            }
+        });
+        new Thread(opened).start();
+        Thread.sleep(50);
+        assertFalse(opened.isDone());
+        try {
+            bp.getPage(writer, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+            fail("writer wasn't aborted");
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(writer, false);
+        }
+        opened.get(1, TimeUnit.SECONDS);
+        scan.close();
+        matchTuples(scan, tuples);
+        bp.transactionComplete(tid);
+    }
+
+    /** A worker's failure reaches the caller of next(). */
+    @Test public void error() throws Exception {
+        HeapFile failing = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                if (pid.pageNumber() == 5) {
+                    throw new IllegalStateException("bad page");
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        ParallelSeqScan scan = new ParallelSeqScan(tid, failing.getId(), "t", 2);
+        scan.open();
+        try {
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            fail("scan of a bad page succeeded");
+        } catch (IllegalStateException e) {
+            assertEquals("bad page", e.getMessage());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile heap;
+    private PaxFile pax;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        heap = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+        File f = File.createTempFile("table", ".pax");
+        f.deleteOnExit();
+        pax = PaxFile.convert(heap, f);
+        Database.getCatalog().addTable(pax, "pax");
+    }
+
+    /** The converted file holds the same tuples, in the same pages and slots. */
+    @Test public void convert() throws Exception {
+        assertEquals(heap.numPages(), pax.numPages());
+        SystemTestUtil.matchTuples(pax, tuples);
+
+        TransactionId tid = new TransactionId();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                new PaxPageId(pax.getId(), 1), Permissions.READ_ONLY);
+        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(heap.getId(), 1), Permissions.READ_ONLY);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(SystemTestUtil.tupleToList(heapPage.getTuple(i)),
+                    SystemTestUtil.tupleToList(page.getTuple(i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A page with changes survives a round trip through getPageData. */
+    @Test public void pageData() throws Exception {
+        TransactionId tid = new TransactionId();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                new PaxPageId(pax.getId(), 0), Permissions.READ_WRITE);
+        page.deleteTuple(page.getTuple(3));
+        Tuple t = new Tuple(pax.getTupleDesc());
+        for (int i = 0; i < 3; i++) {
+            t.setField(i, new IntField(-i));
+        }
+        page.insertTuple(t);
+        assertEquals(3, t.getRecordId().tupleno());
+
+        PaxPage copy = new PaxPage(page.getId(), page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copyIt = copy.iterator();
+        while (it.hasNext()) {
+            assertEquals(SystemTestUtil.tupleToList(it.next()),
+                    SystemTestUtil.tupleToList(copyIt.next()));
+        }
+        assertFalse(copyIt.hasNext());
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /** Inserts and deletes go through the BufferPool and are rolled back on abort. */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(pax.getTupleDesc());
+        for (int i = 0; i < 3; i++) {
+            t.setField(i, new IntField(7));
+        }
+        Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<Integer> inserted = new ArrayList<Integer>(Arrays.asList(7, 7, 7));
+        tuples.add(inserted);
+        SystemTestUtil.matchTuples(pax, tuples);
+
+        tid = new TransactionId();
+        DbFileIterator it = pax.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(pax, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
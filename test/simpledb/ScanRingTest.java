@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 200;
+    private static final int ROWS_PER_PAGE = 992;
+
+    private int defaultRing;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        defaultRing = BufferPool.getScanRingPages();
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    @After public void tearDown() {
+        BufferPool.setScanRingPages(defaultRing);
+    }
+
+    /** @return a one column table of the given number of pages, counting its reads */
+    private HeapFile table(int pages, final AtomicInteger reads) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(1, pages * ROWS_PER_PAGE, null, null);
+        HeapFile counted = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(counted, SystemTestUtil.getUUID());
+        assertEquals(pages, counted.numPages());
+        return counted;
+    }
+
+    private void readAll(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    private void scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+    }
+
+    /** Only tables larger than the pool, in a pool big enough, get a ring. */
+    @Test public void detection() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        assertNull(table(POOL_PAGES / 2, reads).newScanRing(bp));
+        BufferPool.ScanRing ring = table(2 * POOL_PAGES, reads).newScanRing(bp);
+        assertNotNull(ring);
+        assertEquals(POOL_PAGES / 8, ring.getCapacity());
+        assertNull(new BufferPool(POOL_PAGES / 4).newScanRing(BufferPool.PAGE_SIZE));
+        BufferPool.setScanRingPages(0);
+        assertNull(bp.newScanRing(BufferPool.PAGE_SIZE));
+    }
+
+    /** A scan of a table larger than the pool leaves the hot pages cached. */
+    @Test public void scanResistance() throws Exception {
+        AtomicInteger hotReads = new AtomicInteger();
+        HeapFile hot = table(POOL_PAGES / 2, hotReads);
+        HeapFile big = table(2 * POOL_PAGES, new AtomicInteger());
+        readAll(hot);
+        scan(big);
+        hotReads.set(0);
+        readAll(hot);
+        assertEquals(0, hotReads.get());
+
+        BufferPool.setScanRingPages(0);
+        scan(big);
+        readAll(hot);
+        assertTrue(hotReads.get() > 0);
+    }
+
+    /**
+     * The ring recycles its oldest page, except one somebody else has used
+     * in the meantime, which stays cached.
+     */
+    @Test public void recycle() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        HeapFile big = table(2 * POOL_PAGES, reads);
+        BufferPool.ScanRing ring = big.newScanRing(bp);
+        TransactionId tid = new TransactionId();
+        int n = ring.getCapacity();
+        for (int i = 0; i < n; i++) {
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        }
+        TransactionId other = new TransactionId();
+        bp.getPage(other, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+        bp.transactionComplete(other);
+
+        bp.getPage(tid, new HeapPageId(big.getId(), n), Permissions.READ_ONLY, ring);
+        bp.getPage(tid, new HeapPageId(big.getId(), n + 1), Permissions.READ_ONLY, ring);
+        assertEquals(1, ring.getRecycled());
+        assertEquals((long) (n + 1) * BufferPool.PAGE_SIZE, bp.getUsedBytes());
+
+        reads.set(0);
+        bp.getPage(tid, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(0, reads.get());
+        bp.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(1, reads.get());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapFile heap;
+    private SlottedFile slotted;
+    private ArrayList<String> names;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        File hf = File.createTempFile("table", ".dat");
+        hf.deleteOnExit();
+        heap = new HeapFile(hf, td);
+        Database.getCatalog().addTable(heap, "heap");
+        names = new ArrayList<String>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            String name = "name" + i;
+            for (int j = 0; j < i % 7; j++) {
+                name += "-padding";
+            }
+            names.add(name);
+            Database.getBufferPool().insertTuple(tid, heap.getId(), tuple(i, name));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        File f = File.createTempFile("table", ".slotted");
+        f.deleteOnExit();
+        slotted = SlottedFile.convert(heap, f);
+        Database.getCatalog().addTable(slotted, "slotted");
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the names in the table, in id order */
+    private ArrayList<String> scan(DbFile f) throws Exception {
+        TreeMap<Integer, String> byId = new TreeMap<Integer, String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            byId.put(t.getInt(0), ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return new ArrayList<String>(byId.values());
+    }
+
+    /** Strings come back at full length, and the file is much smaller. */
+    @Test public void convert() throws Exception {
+        assertEquals(names, scan(slotted));
+        assertTrue(slotted.numPages() * 3 < heap.numPages());
+    }
+
+    /** The variable-length encoding doesn't pad strings. */
+    @Test public void varLen() throws Exception {
+        StringField f = new StringField("abc", Type.STRING_LEN);
+        assertEquals(5, Type.STRING_TYPE.getVarLen(f));
+        assertEquals(4, Type.INT_TYPE.getVarLen(new IntField(1)));
+        byte[] bytes = SlottedPage.encode(tuple(1, "abc"));
+        assertEquals(9, bytes.length);
+        assertEquals(f, Type.STRING_TYPE.parseVarLen(java.nio.ByteBuffer.wrap(bytes), 4));
+    }
+
+    /**
+     * Deleting a tuple compacts the page: the others keep their slots and
+     * values, and its space can be reused.
+     */
+    @Test public void compaction() throws Exception {
+        SlottedPageId pid = new SlottedPageId(-1, 0);
+        SlottedPage page = new SlottedPage(pid, td, 1024, SlottedPage.createEmptyPageData(1024));
+        int free = page.getFreeSpace();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; page.hasRoomFor(tuple(i, names.get(i))); i++) {
+            Tuple t = tuple(i, names.get(i));
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        try {
+            page.insertTuple(tuple(0, names.get(6)));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        Tuple victim = inserted.get(2);
+        page.deleteTuple(victim);
+        assertNull(page.getTuple(2));
+        for (int i = 0; i < inserted.size(); i++) {
+            if (i != 2) {
+                assertEquals(inserted.get(i).toString(), page.getTuple(i).toString());
+            }
+        }
+        Tuple again = tuple(2, names.get(2));
+        assertTrue(page.hasRoomFor(again));
+        page.insertTuple(again);
+        assertEquals(2, again.getRecordId().tupleno());
+
+        SlottedPage copy = new SlottedPage(pid, td, 1024, page.getPageData());
+        assertEquals(inserted.size(), copy.getNumTuples());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+
+        // deleting everything gives back all of the space
+        Iterator<Tuple> it = copy.iterator();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            all.add(it.next());
+        }
+        for (Tuple t : all) {
+            copy.deleteTuple(t);
+        }
+        assertEquals(free, copy.getFreeSpace());
+        assertEquals(inserted.size(), copy.getBeforeImage().getNumTuples());
+    }
+
+    /** Inserts and deletes go through the BufferPool and are rolled back on abort. */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, slotted.getId(), tuple(500, "new"));
+        Database.getBufferPool().transactionComplete(tid);
+        names.add("new");
+        assertEquals(names, scan(slotted));
+
+        tid = new TransactionId();
+        DbFileIterator it = slotted.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(names, scan(slotted));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
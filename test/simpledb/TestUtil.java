@@ -228,6 +228,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public int getPageSize() {
+            return BufferPool.PAGE_SIZE;
+        }
+
         public int getId() {
             return tableid;
         }
@@ -1,11 +1,17 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import simpledb.TestUtil.SkeletonFile;
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class TupleTest extends SimpleDbTestBase {
 
@@ -57,6 +63,54 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for a Tuple that reads its fields from serialized bytes
+     */
+    @Test public void backedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        ByteBuffer data = ByteBuffer.allocate(8 + td.getSize());
+        data.putInt(8, 5);
+        data.putInt(12, 3);
+        data.put(16, (byte) 'a');
+        data.put(17, (byte) 'b');
+        data.put(18, (byte) 'c');
+        data.putInt(8 + td.getOffset(2), -7);
+
+        Tuple tup = new Tuple(td, data, 8);
+        assertEquals(5, tup.getInt(0));
+        assertEquals(-7, tup.getInt(2));
+        assertTrue(tup.compareField(0, Predicate.Op.GREATER_THAN, new IntField(4)));
+        assertFalse(tup.compareField(2, Predicate.Op.EQUALS, new IntField(7)));
+        assertTrue(tup.compareField(1, Predicate.Op.EQUALS, new StringField("abc", Type.STRING_LEN)));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(1));
+
+        // set fields win over the backing bytes
+        tup.setField(0, new IntField(6));
+        assertEquals(6, tup.getInt(0));
+
+        // a detached tuple no longer sees the bytes
+        tup.detach();
+        data.putInt(8 + td.getOffset(2), 42);
+        assertEquals(new IntField(-7), tup.getField(2));
+        assertEquals(-7, tup.getInt(2));
+    }
+
+    /**
+     * Unit test for Tuple.setField() on a tuple fresh off a page, none of
+     * whose fields has been decoded yet
+     */
+    @Test public void setPageField() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+
+        Tuple tup = page.iterator().next();
+        tup.setField(0, new IntField(1));
+        assertEquals(new IntField(1), tup.getField(0));
+        assertEquals(1, tup.getInt(0));
+        assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[0][1]), tup.getField(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest {
+    private File data;
+    private File side;
+    private TupleDesc td;
+
+    @Before public void setUp() throws Exception {
+        data = File.createTempFile("zonemap", ".dat");
+        data.deleteOnExit();
+        side = new File(data.getPath() + ".zm");
+        side.deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    }
+
+    @After public void tearDown() {
+        side.delete();
+    }
+
+    private Tuple tuple(int v) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("x", Type.STRING_LEN));
+        t.setField(1, new IntField(v));
+        return t;
+    }
+
+    private static Predicate pred(Predicate.Op op, int v) {
+        return new Predicate(1, op, new IntField(v));
+    }
+
+    /**
+     * Pages with bounds are skipped by predicates outside them; unknown
+     * pages and string columns never are.
+     */
+    @Test public void bounds() {
+        ZoneMap zm = new ZoneMap(data, td, 3);
+        zm.setEmpty(0);
+        zm.include(0, tuple(10));
+        zm.include(0, tuple(20));
+
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.EQUALS, 15)));
+        assertFalse(zm.mayMatch(0, pred(Predicate.Op.EQUALS, 21)));
+        assertFalse(zm.mayMatch(0, pred(Predicate.Op.LESS_THAN, 10)));
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.LESS_THAN_OR_EQ, 10)));
+        assertFalse(zm.mayMatch(0, pred(Predicate.Op.GREATER_THAN, 20)));
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.GREATER_THAN_OR_EQ, 20)));
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.NOT_EQUALS, 10)));
+
+        // nothing is known about page 1
+        assertTrue(zm.mayMatch(1, pred(Predicate.Op.EQUALS, 21)));
+        zm.include(1, tuple(5));
+        assertTrue(zm.mayMatch(1, pred(Predicate.Op.EQUALS, 21)));
+
+        assertTrue(zm.mayMatch(0, new Predicate(0, Predicate.Op.EQUALS,
+                new StringField("y", Type.STRING_LEN))));
+        assertEquals(2, zm.candidatePages(pred(Predicate.Op.GREATER_THAN, 20), 3));
+    }
+
+    /**
+     * Deletes leave the bounds in place but mark the page for summarizing.
+     */
+    @Test public void stale() {
+        ZoneMap zm = new ZoneMap(data, td, 1);
+        zm.setEmpty(0);
+        zm.include(0, tuple(10));
+        assertFalse(zm.needsSummary(0));
+        zm.setStale(0);
+        assertTrue(zm.needsSummary(0));
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.EQUALS, 10)));
+    }
+
+    /**
+     * The map survives a save and reload.
+     */
+    @Test public void persistence() throws Exception {
+        ZoneMap zm = new ZoneMap(data, td, 10);
+        for (int i = 0; i < 10; i++) {
+            zm.setEmpty(i);
+            zm.include(i, tuple(i * 100));
+        }
+        zm.save();
+        assertTrue(side.exists());
+
+        ZoneMap reloaded = new ZoneMap(data, td, 10);
+        assertEquals(1, reloaded.candidatePages(pred(Predicate.Op.EQUALS, 700), 10));
+        assertFalse(reloaded.needsSummary(7));
+    }
+
+    /**
+     * A side file older than the table is not trusted.
+     */
+    @Test public void staleSideFile() throws Exception {
+        ZoneMap zm = new ZoneMap(data, td, 4);
+        for (int i = 0; i < 4; i++) {
+            zm.setEmpty(i);
+        }
+        zm.save();
+        assertTrue(data.setLastModified(side.lastModified() + 5000));
+
+        ZoneMap reloaded = new ZoneMap(data, td, 4);
+        assertEquals(4, reloaded.candidatePages(pred(Predicate.Op.EQUALS, 1), 4));
+    }
+
+    /**
+     * Loading the map retires its side file, so a table changed after the
+     * load can't be paired with it again, even within one mtime tick.
+     */
+    @Test public void sideFileRetired() throws Exception {
+        ZoneMap zm = new ZoneMap(data, td, 4);
+        for (int i = 0; i < 4; i++) {
+            zm.setEmpty(i);
+        }
+        zm.save();
+        assertTrue(data.setLastModified(side.lastModified()));
+
+        ZoneMap loaded = new ZoneMap(data, td, 4);
+        assertEquals(0, loaded.candidatePages(pred(Predicate.Op.EQUALS, 1), 4));
+        assertFalse(side.exists());
+        ZoneMap reloaded = new ZoneMap(data, td, 4);
+        assertEquals(4, reloaded.candidatePages(pred(Predicate.Op.EQUALS, 1), 4));
+
+        // saved again, even though nothing changed since the load
+        loaded.save();
+        ZoneMap saved = new ZoneMap(data, td, 4);
+        assertEquals(0, saved.candidatePages(pred(Predicate.Op.EQUALS, 1), 4));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
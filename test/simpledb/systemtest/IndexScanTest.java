@@ -0,0 +1,203 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 20000;
+
+    private ArrayList<ArrayList<Integer>> createdTuples;
+
+    private HeapFile createIndexedTable() throws Exception {
+        createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, 1000, null, createdTuples, "c");
+        Database.getCatalog().addTable(table, "t");
+        File f = File.createTempFile("t.c0", ".idx");
+        f.deleteOnExit();
+        BTreeFile.create(f, table, 0);
+        return table;
+    }
+
+    private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int operand) {
+        ArrayList<ArrayList<Integer>> retVal = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : createdTuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(operand))) {
+                retVal.add(t);
+            }
+        }
+        return retVal;
+    }
+
+    private void validateScan(HeapFile table, TransactionId tid, Predicate.Op op, int operand)
+            throws Exception {
+        IndexFile index = Database.getCatalog().getIndex(table.getId(), 0);
+        IndexScan scan = new IndexScan(tid, index, op, new IntField(operand), "t");
+        assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, matching(op, operand));
+    }
+
+    @Test public void testScan() throws Exception {
+        HeapFile table = createIndexedTable();
+        TransactionId tid = new TransactionId();
+        int operand = createdTuples.get(0).get(0);
+        validateScan(table, tid, Predicate.Op.EQUALS, operand);
+        validateScan(table, tid, Predicate.Op.EQUALS, 1000);
+        validateScan(table, tid, Predicate.Op.LESS_THAN, operand);
+        validateScan(table, tid, Predicate.Op.LESS_THAN_OR_EQ, operand);
+        validateScan(table, tid, Predicate.Op.GREATER_THAN, operand);
+        validateScan(table, tid, Predicate.Op.GREATER_THAN_OR_EQ, operand);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Insert and Delete keep the index in step with the table. */
+    @Test public void testInsertDelete() throws Exception {
+        HeapFile table = createIndexedTable();
+
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> inserted = new ArrayList<ArrayList<Integer>>();
+        int data[] = new int[2 * 500];
+        for (int i = 0; i < 500; i++) {
+            data[2 * i] = 100000 + i % 50;
+            data[2 * i + 1] = i;
+            inserted.add(new ArrayList<Integer>(Arrays.asList(data[2 * i], data[2 * i + 1])));
+        }
+        Insert insert = new Insert(tid, new TupleIterator(table.getTupleDesc(),
+                Arrays.asList(tuples(table.getTupleDesc(), data))), table.getId());
+        insert.open();
+        assertEquals(500, insert.next().getInt(0));
+        insert.close();
+        createdTuples.addAll(inserted);
+        validateScan(table, tid, Predicate.Op.GREATER_THAN_OR_EQ, 100000);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // delete what an index lookup finds, in a new transaction
+        tid = new TransactionId();
+        IndexFile index = Database.getCatalog().getIndex(table.getId(), 0);
+        Delete delete = new Delete(tid, new IndexScan(tid, index, Predicate.Op.LESS_THAN,
+                new IntField(10), "t"));
+        delete.open();
+        int deleted = delete.next().getInt(0);
+        delete.close();
+        createdTuples.removeAll(matching(Predicate.Op.LESS_THAN, 10));
+        assertEquals(ROWS + 500 - createdTuples.size(), deleted);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        validateScan(table, tid, Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE);
+        validateScan(table, tid, Predicate.Op.LESS_THAN, 600);
+        SystemTestUtil.matchTuples(table, tid, createdTuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** An aborted insert leaves no entries behind in the index. */
+    @Test public void testAbort() throws Exception {
+        HeapFile table = createIndexedTable();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[] { 5000, 1 }));
+        validateScanCount(table, tid, 1);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        validateScanCount(table, tid, 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void validateScanCount(HeapFile table, TransactionId tid, int expected) throws Exception {
+        IndexFile index = Database.getCatalog().getIndex(table.getId(), 0);
+        IndexScan scan = new IndexScan(tid, index, Predicate.Op.EQUALS, new IntField(5000), "t");
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(expected, count);
+    }
+
+    /** The planner answers selective filters on the indexed field with the index. */
+    @Test public void testPlanner() throws Exception {
+        HeapFile table = createIndexedTable();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", new TableStats(table.getId(), 1000));
+        int operand = createdTuples.get(0).get(0);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, Integer.toString(operand));
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexScan);
+        SystemTestUtil.matchTuples(plan, matching(Predicate.Op.EQUALS, operand));
+
+        // an unselective filter still scans
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+        SystemTestUtil.matchTuples(plan, matching(Predicate.Op.GREATER_THAN, 100));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** With both kinds of index, equality lookups use the hash index, which can't answer ranges. */
+    @Test public void testPlannerHash() throws Exception {
+        HeapFile table = createIndexedTable();
+        File f = File.createTempFile("t.c0", ".hash");
+        f.deleteOnExit();
+        HashFile.create(f, table, 0);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", new TableStats(table.getId(), 1000));
+        int operand = createdTuples.get(0).get(0);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, Integer.toString(operand));
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof IndexScan);
+        assertTrue(((IndexScan) child).getIndex() instanceof HashFile);
+        SystemTestUtil.matchTuples(plan, matching(Predicate.Op.EQUALS, operand));
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "1");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        child = ((Operator) plan).getChildren()[0];
+        assertFalse(child instanceof IndexScan && ((IndexScan) child).getIndex() instanceof HashFile);
+        SystemTestUtil.matchTuples(plan, matching(Predicate.Op.LESS_THAN, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple[] tuples(TupleDesc td, int data[]) {
+        Tuple retVal[] = new Tuple[data.length / 2];
+        for (int i = 0; i < retVal.length; i++) {
+            retVal[i] = new Tuple(td);
+            retVal[i].setField(0, new IntField(data[2 * i]));
+            retVal[i].setField(1, new IntField(data[2 * i + 1]));
+        }
+        return retVal;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
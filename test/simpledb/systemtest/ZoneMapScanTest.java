@@ -0,0 +1,211 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ZoneMapScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    private ArrayList<ArrayList<Integer>> createdTuples;
+
+    /** A two column table with c0 = row number, so that pages hold disjoint ranges. */
+    private HeapFile createSortedTable() throws Exception {
+        createdTuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 7);
+            createdTuples.add(t);
+        }
+        File f = File.createTempFile("sorted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(createdTuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile table = Utility.openHeapFile(2, "c", f);
+
+        // a first scan summarizes every page
+        SystemTestUtil.matchTuples(table, createdTuples);
+        return table;
+    }
+
+    private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int operand) {
+        ArrayList<ArrayList<Integer>> retVal = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : createdTuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(operand))) {
+                retVal.add(t);
+            }
+        }
+        return retVal;
+    }
+
+    /** @return the number of tuples a scan that skips pages on "c0 op operand" returns */
+    private int scanned(HeapFile table, TransactionId tid, Predicate.Op op, int operand)
+            throws Exception {
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPagePredicate(new Predicate(0, op, new IntField(operand)));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    private void validateScan(HeapFile table, TransactionId tid, Predicate.Op op, int operand)
+            throws Exception {
+        Predicate p = new Predicate(0, op, new IntField(operand));
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPagePredicate(p);
+        SystemTestUtil.matchTuples(new Filter(p, scan), matching(op, operand));
+    }
+
+    /** Pages outside the predicate's range are skipped, and no matches are lost. */
+    @Test public void testSkip() throws Exception {
+        HeapFile table = createSortedTable();
+        TransactionId tid = new TransactionId();
+        assertTrue(scanned(table, tid, Predicate.Op.LESS_THAN, 100) < ROWS / 10);
+        assertTrue(scanned(table, tid, Predicate.Op.EQUALS, ROWS / 2) < ROWS / 10);
+        assertEquals(0, scanned(table, tid, Predicate.Op.GREATER_THAN, ROWS));
+        assertEquals(ROWS, scanned(table, tid, Predicate.Op.NOT_EQUALS, 0));
+
+        validateScan(table, tid, Predicate.Op.LESS_THAN, 100);
+        validateScan(table, tid, Predicate.Op.EQUALS, ROWS / 2);
+        validateScan(table, tid, Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 600);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserted tuples widen the bounds of their page; aborted deletes don't narrow them. */
+    @Test public void testInsertDelete() throws Exception {
+        HeapFile table = createSortedTable();
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        ArrayList<Integer> inserted = new ArrayList<Integer>();
+        inserted.add(-5);
+        inserted.add(0);
+        createdTuples.add(inserted);
+        validateScan(table, tid, Predicate.Op.LESS_THAN, 0);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // delete the smallest tuple on page 0, then abort
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        Tuple first = scan.next();
+        scan.close();
+        assertEquals(0, ((IntField) first.getField(0)).getValue());
+        Database.getBufferPool().deleteTuple(tid, first);
+        // the page's bounds still cover the deleted tuple
+        assertTrue(scanned(table, tid, Predicate.Op.EQUALS, 0) > 0);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        validateScan(table, tid, Predicate.Op.EQUALS, 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[BufferPool.PAGE_SIZE];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A page flushed after the map was saved is not hidden by the saved map
+     * when the table is never closed again, even if the table file and the
+     * side file end up with the same mtime.
+     */
+    @Test public void testFlushAfterSave() throws Exception {
+        HeapFile table = createSortedTable();
+        File side = new File(table.getFile().getPath() + ".zm");
+        table.close();
+        assertTrue(side.exists());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<Integer> inserted = new ArrayList<Integer>();
+        inserted.add(-5);
+        inserted.add(0);
+        createdTuples.add(inserted);
+
+        // what a process that exits now, without closing the table, leaves
+        // behind, with the flush landing in the same tick as the save
+        File crashed = File.createTempFile("crashed", ".dat");
+        crashed.deleteOnExit();
+        File crashedSide = new File(crashed.getPath() + ".zm");
+        crashedSide.deleteOnExit();
+        copy(table.getFile(), crashed);
+        if (side.exists()) {
+            copy(side, crashedSide);
+            assertTrue(crashed.setLastModified(crashedSide.lastModified()));
+        }
+
+        HeapFile reopened = Utility.openHeapFile(2, "c", crashed);
+        tid = new TransactionId();
+        validateScan(reopened, tid, Predicate.Op.LESS_THAN, 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner pushes filters into the scan and costs the scan by the pages it reads. */
+    @Test public void testPlanner() throws Exception {
+        HeapFile table = createSortedTable();
+        Database.getCatalog().addTable(table, "t");
+        TableStats stats = new TableStats(table.getId(), 1000);
+        assertTrue(stats.estimateScanCost(0, Predicate.Op.LESS_THAN, new IntField(100))
+                < stats.estimateScanCost() / 10);
+
+        HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put("t", stats);
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "100");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("t.c0", null);
+        DbIterator plan = lp.physicalPlan(tid, statsMap, false);
+        DbIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertEquals(2, ((SeqScan) scan).getPagePredicates().size());
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : matching(Predicate.Op.LESS_THAN, 100)) {
+            if (t.get(1) == 3) {
+                expected.add(new ArrayList<Integer>(t.subList(0, 1)));
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapScanTest.class);
+    }
+}